@@ -4,10 +4,13 @@ grammar ShellGrammar;
  * Parser Rules
  */
 
-root : seq | command;
+root : seq | job;
 
-seq	: 	left = command ';' right = command	#seq1
-		| left = seq ';' right = command	#seq2;
+seq	: 	left = job ';'? right = job	#seq1
+		| left = seq ';'? right = job	#seq2;
+
+job : command '&'							#background
+    | command								#foreground;
 
 command  : left=command '|' right=command   #pipeCommand
          | (NONSPECIAL)+					#atomicCommand;
@@ -17,4 +20,4 @@ command  : left=command '|' right=command   #pipeCommand
  * Lexer Rules
  */
 
-NONSPECIAL : ~[;|]+;
\ No newline at end of file
+NONSPECIAL : ~[;|&]+;
\ No newline at end of file
@@ -32,6 +32,15 @@ public class AppFactory {
             case "sort" -> new Sort();
             case "mkdir" -> new Mkdir();
             case "touch" -> new Touch();
+            case "index" -> new Index();
+            case "wc" -> new Wc();
+            case "set" -> new SetOption();
+            case "jobs" -> new Jobs();
+            case "wait" -> new Wait();
+            case "parallel" -> new Parallel();
+            case "xargs" -> new Xargs();
+            case "timeout" -> new Timeout();
+            case "ulimit" -> new Ulimit();
             default -> throw new RuntimeException(name + ": unknown application");
         };
     }
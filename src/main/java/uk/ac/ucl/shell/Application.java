@@ -1,12 +1,29 @@
 package uk.ac.ucl.shell;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -26,6 +43,46 @@ public interface Application {
      * @throws IOException throws an error if writer causes an error
      */
     void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException;
+
+    /**
+     * Executes a command whose stdin is given as bytes, such as a file redirected with '<'
+     * Applications that can work on the bytes directly override this; by default they are decoded as UTF-8
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   bytes of stdin, possibly memory-mapped
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    default void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        long size = input.remaining();
+        MemoryBudget.chargeDecoding(size);
+        String text = StandardCharsets.UTF_8.decode(input).toString();
+        MemoryBudget.releaseDecoding(size);
+        exec(appArgs, text, writer);
+    }
+
+    /**
+     * Returns a stage doing what this application does to stdin, so that Eval can fuse it with the stages
+     * of its neighbours in a pipeline and run them all in one loop
+     * Applications that cannot run as a stage, or not with these arguments, return null and are run on their own
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return a stage over the lines of stdin, or null
+     */
+    default LineStage fuse(ArrayList<String> appArgs) {
+        return null;
+    }
+
+    /**
+     * Tells whether this application reads only stdin and treats each line on its own, so that stdin can be split
+     * into chunks of whole lines, each run through its own instance, and the outputs joined in order (see `Parallel`)
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return true if running the application on every chunk gives the output of running it on all of stdin
+     */
+    default boolean isStateless(ArrayList<String> appArgs) {
+        return false;
+    }
 }
 
 class Cd implements Application {
@@ -74,11 +131,25 @@ class Pwd implements Application {
 
 
 class Ls implements Application {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+            .withZone(ZoneId.systemDefault());
+
+    private boolean longFormat = false;
+    private boolean recursive = false;
+
+    /**
+     * token of the thread listing recursively, checked by the tasks listing each subdirectory
+     */
+    private Cancellation token;
+
     /**
      * Executes ls command
      * Checks the number of arguments for validity
      * If a directory name is given, changes current directory to the new name
      * Writes the list of files in the current directory to stdout
+     * Entries are streamed from the directory as they are read, so huge directories are never held in memory
+     * Options: -l (one entry per line with its permissions, size and modification time)
+     * and -R (also list every subdirectory, in parallel, printed in the order a sequential listing would use)
      *
      * @param appArgs the arguments input after a command separated by spaces into a list
      * @param input   string for Application
@@ -86,42 +157,186 @@ class Ls implements Application {
      * @throws IOException throws an error if writer causes an error
      */
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
-        File currDir;
-        if (appArgs.isEmpty()) {
-            currDir = new File(Shell.getCurrentDirectory());
-        } else if (appArgs.size() == 1) {
-            currDir = new File(Shell.getCurrentDirectory() + System.getProperty("file.separator") + appArgs.get(0));
+        String path = null;
+        for (String arg : appArgs) {
+            switch (arg) {
+                case "-l" -> this.longFormat = true;
+                case "-R" -> this.recursive = true;
+                default -> {
+                    if (path != null) {
+                        throw new LsException("too many arguments");
+                    }
+                    path = arg;
+                }
+            }
+        }
+        Path currDir = path == null ? Paths.get(Shell.getCurrentDirectory()) : Paths.get(Shell.getCurrentDirectory(), path);
+        if (!Files.isDirectory(currDir)) {
+            Path name = Paths.get(path == null ? "." : path).getFileName();
+            throw new LsException("directory " + (name == null ? path : name) + " does not exist.");
+        }
+        if (recursive) {
+            listRecursively(currDir, path == null ? "." : path, writer);
         } else {
-            throw new LsException("too many arguments");
+            listDirectory(currDir, writer, null);
         }
-        try {
-            File[] listOfFiles = currDir.listFiles();
-            boolean atLeastOnePrinted = false;
-            for (File file : listOfFiles) {
-                if (!file.getName().startsWith(".")) {
-                    writer.write(file.getName());
-                    writer.write("\t");
-                    writer.flush();
+        writer.flush();
+    }
+
+    /**
+     * Lists the entries of one directory that do not start with '.'
+     * Names are separated by tabs and followed by a newline, or with -l written one per line with their
+     * attributes, all of which come from a single readAttributes call per entry
+     *
+     * @param dir     the directory to list
+     * @param out     where the listing is written
+     * @param subdirs if not null, collects the subdirectories to list next, in listing order
+     * @throws IOException if the directory cannot be read or out throws an error
+     */
+    private void listDirectory(Path dir, Appendable out, List<Path> subdirs) throws IOException {
+        boolean atLeastOnePrinted = false;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.startsWith(".")) {
+                    continue;
+                }
+                BasicFileAttributes attrs = null;
+                if (longFormat || subdirs != null) {
+                    attrs = readAttributes(entry);
+                }
+                if (subdirs != null && attrs != null && attrs.isDirectory()) {
+                    subdirs.add(entry);
+                }
+                if (longFormat) {
+                    out.append(describe(attrs)).append(' ').append(name).append(System.getProperty("line.separator"));
+                } else {
+                    out.append(name).append('\t');
                     atLeastOnePrinted = true;
                 }
             }
-            if (atLeastOnePrinted) {
-                writer.write(System.getProperty("line.separator"));
-                writer.flush();
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        if (atLeastOnePrinted) {
+            out.append(System.getProperty("line.separator"));
+        }
+    }
+
+    private BasicFileAttributes readAttributes(Path entry) {
+        try {
+            if (longFormat) {
+                try {
+                    return Files.readAttributes(entry, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (UnsupportedOperationException e) {
+                    // not a POSIX file system: the long format shows no permissions
+                }
+            }
+            return Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the -l description of an entry: type and permissions, size in bytes and modification time
+     */
+    private String describe(BasicFileAttributes attrs) {
+        if (attrs == null) {
+            return "?????????? ? ?";
+        }
+        char type = attrs.isDirectory() ? 'd' : attrs.isSymbolicLink() ? 'l' : attrs.isRegularFile() ? '-' : '?';
+        String permissions = attrs instanceof PosixFileAttributes
+                ? PosixFilePermissions.toString(((PosixFileAttributes) attrs).permissions()) : "---------";
+        return type + permissions + " " + attrs.size() + " " + TIME_FORMAT.format(attrs.lastModifiedTime().toInstant());
+    }
+
+    /**
+     * Lists a directory and all its subdirectories, each under a "path:" header and separated by empty lines
+     * Directories are listed concurrently, one task per directory, into their own buffers,
+     * and the buffers are written in the order of a sequential depth-first listing as soon as they are ready
+     *
+     * @param root     the directory to start from
+     * @param rootName how the starting directory is shown in headers
+     * @param writer   that Application output is written to
+     * @throws IOException if writer throws an error
+     */
+    private void listRecursively(Path root, String rootName, OutputStreamWriter writer) throws IOException {
+        this.token = Cancellation.current();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            ListTask rootTask = new ListTask(root, rootName);
+            pool.execute(rootTask);
+            writeListing(rootTask, writer, true);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void writeListing(ListTask task, OutputStreamWriter writer, boolean first) throws IOException {
+        task.join();
+        this.token.check();
+        if (!first) {
+            writer.write(System.getProperty("line.separator"));
+        }
+        writer.write(task.displayName + ":" + System.getProperty("line.separator"));
+        writer.write(task.listing.toString());
+        for (ListTask child : task.children) {
+            writeListing(child, writer, false);
+        }
+    }
+
+    /**
+     * Lists one directory into a buffer and forks a task for each of its subdirectories
+     */
+    private class ListTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final String displayName;
+        private final StringBuilder listing = new StringBuilder();
+        private final ArrayList<ListTask> children = new ArrayList<>();
+
+        ListTask(Path dir, String displayName) {
+            this.dir = dir;
+            this.displayName = displayName;
+        }
+
+        @Override
+        protected void compute() {
+            if (token.isCancelled()) {
+                return;
+            }
+            ArrayList<Path> subdirs = new ArrayList<>();
+            try {
+                listDirectory(dir, listing, subdirs);
+            } catch (IOException e) {
+                // unreadable directories are shown with an empty listing
+                return;
+            }
+            for (Path subdir : subdirs) {
+                ListTask child = new ListTask(subdir, displayName + File.separator + subdir.getFileName());
+                children.add(child);
+                child.fork();
             }
-        } catch (NullPointerException e) {
-            throw new LsException("directory " + currDir.getName() + " does not exist.");
         }
     }
 }
 
 class Cat implements Application {
+    /**
+     * bytes of a file copied to the sink at a time
+     */
+    private static final long TRANSFER_SIZE = 1L << 24;
+
     /**
      * Executes cat command
      * Does input checking
      * Arguments are a list of filenames
      * Iterates through that list reading the files
      * Then writes their contents to stdout
+     * When the writer exposes its byte sink (see SinkWriter), regular files are copied as bytes with
+     * FileChannel.transferTo instead of being decoded line by line, adding a final newline if a file lacks one
      *
      * @param appArgs the arguments input after a command separated by spaces into a list
      * @param input   string for Application
@@ -131,18 +346,69 @@ class Cat implements Application {
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
         if (appArgs.isEmpty() && input.isEmpty()) {
             throw new CatException("missing arguments / empty stdin");
-        } else {
-            for (String arg : appArgs) {
-                Charset encoding = StandardCharsets.UTF_8;
+        }
+        catFiles(appArgs, writer);
+        if (!input.isEmpty()) {
+            writer.write(input);
+            writer.write(System.getProperty("line.separator"));
+            writer.flush();
+            writer.close();
+        }
+    }
+
+    /**
+     * Executes cat command with stdin given as bytes, which are copied to the sink without being decoded
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   bytes of stdin
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        if (appArgs.isEmpty() && !input.hasRemaining()) {
+            throw new CatException("missing arguments / empty stdin");
+        }
+        catFiles(appArgs, writer);
+        if (input.hasRemaining()) {
+            if (writer instanceof SinkWriter) {
+                WritableByteChannel sink = ((SinkWriter) writer).channel();
+                while (input.hasRemaining()) {
+                    sink.write(input);
+                }
+            } else {
+                writer.write(StandardCharsets.UTF_8.decode(input).toString());
+            }
+            writer.write(System.getProperty("line.separator"));
+            writer.flush();
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the files given as arguments in order, throwing a CatException for the first that cannot be read
+     */
+    private void catFiles(ArrayList<String> appArgs, OutputStreamWriter writer) throws IOException {
+        // the byte copy keeps "\n" line endings, so it is only used where that is the line separator
+        boolean copyBytes = writer instanceof SinkWriter && System.getProperty("line.separator").equals("\n");
+        ArrayList<Path> filePaths = new ArrayList<>();
+        for (String arg : appArgs) {
+            filePaths.add(Paths.get(Shell.getCurrentDirectory() + File.separator + arg));
+        }
+        try (ReadAhead readAhead = new ReadAhead(filePaths)) {
+            for (int i = 0; i < appArgs.size(); i++) {
+                String arg = appArgs.get(i);
+                byte[] content = readAhead.next();
                 File currFile = new File(Shell.getCurrentDirectory() + File.separator + arg);
                 if (currFile.exists()) {
-                    Path filePath = Paths.get(Shell.getCurrentDirectory() + File.separator + arg);
-                    try (BufferedReader reader = Files.newBufferedReader(filePath, encoding)) {
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            writer.write(line);
-                            writer.write(System.getProperty("line.separator"));
-                            writer.flush();
+                    Path filePath = filePaths.get(i);
+                    try {
+                        if (content != null) {
+                            writeContent(content, copyBytes, writer);
+                        } else if (copyBytes && Files.isRegularFile(filePath)) {
+                            transferFile(filePath, ((SinkWriter) writer).channel());
+                        } else {
+                            copyLines(Files.newBufferedReader(filePath, StandardCharsets.UTF_8), writer);
                         }
                     } catch (IOException e) {
                         throw new CatException("cannot open " + arg);
@@ -151,11 +417,66 @@ class Cat implements Application {
                     throw new CatException("file does not exist");
                 }
             }
-            if (!input.isEmpty()) {
-                writer.write(input);
+        }
+    }
+
+    private void copyLines(BufferedReader fileReader, OutputStreamWriter writer) throws IOException {
+        try (BufferedReader reader = fileReader) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Cancellation.checkCurrent();
+                writer.write(line);
                 writer.write(System.getProperty("line.separator"));
-                writer.flush();
-                writer.close();
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes a file that was read ahead, as bytes to the sink or line by line, like the file itself would be
+     */
+    private void writeContent(byte[] content, boolean copyBytes, OutputStreamWriter writer) throws IOException {
+        if (!copyBytes) {
+            copyLines(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)), writer);
+            return;
+        }
+        WritableByteChannel sink = ((SinkWriter) writer).channel();
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+            sink.write(buffer);
+        }
+        if (content.length > 0 && content[content.length - 1] != '\n') {
+            sink.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+    }
+
+    /**
+     * Copies a file to the sink without decoding it; between two files the kernel copies the data directly
+     * Like the line-based copy, a non-empty file that does not end in a newline gets one
+     *
+     * @param filePath the file to copy
+     * @param sink     channel of the output
+     * @throws IOException if the file cannot be read or the sink written
+     */
+    private void transferFile(Path filePath, WritableByteChannel sink) throws IOException {
+        // transferred in parts so that a cancelled cat stops between them
+        try (FileChannel in = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                Cancellation.checkCurrent();
+                long transferred = in.transferTo(position, Math.min(size - position, TRANSFER_SIZE), sink);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            if (size > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                in.read(last, size - 1);
+                if (last.get(0) != '\n') {
+                    sink.write(ByteBuffer.wrap(new byte[]{'\n'}));
+                }
             }
         }
     }
@@ -186,16 +507,26 @@ class Echo implements Application {
 }
 
 class Head implements Application {
+    /**
+     * bytes read and decoded at a time by -c for a writer that is not a SinkWriter
+     */
+    private static final int COPY_SIZE = 1 << 16;
+
     /**
      * default number of lines to write
      */
     private int lineNumber = 10;
 
+    /**
+     * number of bytes to write with -c, or -1 to write lines
+     */
+    private long byteCount = -1;
+
     /**
      * Executes head command
      * Checks for bad input (wrong number of args), throws a HeadException
      * checks for stdin or filenames used
-     * checks for options used, and changes the line number if so
+     * checks for options used (-n N lines or -c N bytes), and changes the line or byte number if so
      * calls the relevant reader method
      *
      * @param appArgs the arguments input after a command separated by spaces into a list
@@ -213,53 +544,135 @@ class Head implements Application {
             String fileName = appArgs.get(0);
             readFromFile(fileName, writer);
         } else if (appArgs.size() == 2) {
-            String option = appArgs.get(0);
-            if (!option.equals("-n")) {
-                throw new HeadException("invalid option");
-            } else {
-                try {
-                    this.lineNumber = Integer.parseInt(appArgs.get(1));
-                    readFromStdin(input, writer);
-                } catch (NumberFormatException e) {
-                    throw new HeadException("second arg is not an integer");
-                }
-
-            }
+            parseOption(appArgs);
+            readFromStdin(input, writer);
         } else if (appArgs.size() == 3) {
-            String option = appArgs.get(0);
-            if (!option.equals("-n")) {
-                throw new HeadException("invalid option");
-            } else {
-                try {
-                    this.lineNumber = Integer.parseInt(appArgs.get(1));
-                    String fileName = appArgs.get(2);
-                    readFromFile(fileName, writer);
-                } catch (NumberFormatException e) {
-                    throw new HeadException("second arg is not an integer");
-                }
-            }
+            parseOption(appArgs);
+            String fileName = appArgs.get(2);
+            readFromFile(fileName, writer);
         } else {
             throw new HeadException("invalid number of arguments");
         }
     }
 
     /**
-     * Reads from stdin, wraps the string in a reader
-     * passes to the writer method
+     * Executes head command with stdin given as bytes, such as a file redirected with '<'
+     * Only the bytes of the lines written are decoded, and -c copies bytes without decoding them
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   bytes of stdin
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        if (appArgs.size() != 0 && appArgs.size() != 2) {
+            // stdin is only read when no file is given
+            exec(appArgs, "", writer);
+            return;
+        }
+        if (appArgs.isEmpty() && !input.hasRemaining()) {
+            throw new HeadException("missing arguments");
+        }
+        if (appArgs.size() == 2) {
+            parseOption(appArgs);
+        }
+        if (this.byteCount >= 0) {
+            ByteBuffer head = input.slice();
+            head.limit((int) Math.min(head.limit(), this.byteCount));
+            writeBytes(head, writer);
+        } else {
+            writeLines(new ByteLineReader(input), writer);
+        }
+    }
+
+    /**
+     * Head as a stage when it reads lines from stdin
+     * Invalid options are left to exec, so they fail where they would without fusion
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return a stage passing on the first lines, or null for a file, -c or an invalid option
+     */
+    @Override
+    public LineStage fuse(ArrayList<String> appArgs) {
+        if (appArgs.isEmpty()) {
+            return LineStage.requiringInput(new FirstLinesStage(this.lineNumber), new HeadException("missing arguments"));
+        }
+        if (appArgs.size() != 2) {
+            return null;
+        }
+        try {
+            parseOption(appArgs);
+        } catch (HeadException e) {
+            return null;
+        }
+        return this.byteCount >= 0 ? null : new FirstLinesStage(this.lineNumber);
+    }
+
+    private void parseOption(ArrayList<String> appArgs) {
+        String option = appArgs.get(0);
+        if (!option.equals("-n") && !option.equals("-c")) {
+            throw new HeadException("invalid option");
+        }
+        try {
+            if (option.equals("-n")) {
+                this.lineNumber = Integer.parseInt(appArgs.get(1));
+            } else {
+                this.byteCount = Math.max(0, Long.parseLong(appArgs.get(1)));
+            }
+        } catch (NumberFormatException e) {
+            throw new HeadException("second arg is not an integer");
+        }
+    }
+
+    /**
+     * Writes the first lines (or bytes, with -c) of stdin
+     * Lines are found in the string itself, which is never copied or wrapped in a reader
      *
      * @param input  string for Application
      * @param writer that Application output is written to
-     * @throws IOException if reader throws an error
+     * @throws IOException if writer throws an error
      */
     private void readFromStdin(String input, OutputStreamWriter writer) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
-            writeLines(reader, writer);
+        if (this.byteCount >= 0) {
+            writeBytes(encodePrefix(input, this.byteCount), writer);
+            return;
         }
+        int start = 0;
+        int counter = 0;
+        while (start < input.length() && counter < this.lineNumber) {
+            Cancellation.checkCurrent();
+            int newline = input.indexOf('\n', start);
+            int end = newline < 0 ? input.length() : newline;
+            int lineEnd = end > start && input.charAt(end - 1) == '\r' ? end - 1 : end;
+            writer.write(input, start, lineEnd - start);
+            writer.write(System.getProperty("line.separator"));
+            counter++;
+            start = end + 1;
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return the first count bytes of the UTF-8 encoding of the input, encoding no more of it than needed
+     */
+    private ByteBuffer encodePrefix(String input, long count) {
+        ByteBuffer prefix = ByteBuffer.allocate((int) Math.min(count, (long) input.length() * 3));
+        CharBuffer chars = CharBuffer.wrap(input);
+        StandardCharsets.UTF_8.newEncoder().encode(chars, prefix, true);
+        if (prefix.hasRemaining() && chars.hasRemaining()) {
+            // the next character only partly fits: its first bytes still count
+            int codePoint = Character.codePointAt(chars, 0);
+            byte[] bytes = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+            prefix.put(bytes, 0, Math.min(bytes.length, prefix.remaining()));
+        }
+        prefix.flip();
+        return prefix;
     }
 
     /**
      * Checks the file exists
-     * if true: wraps the file in a reader and passes to the writer method
+     * if true: copies its first bytes with -c, or reads its first lines, closing it as soon as they are written
      * if false: throws an HeadException
      *
      * @param fileName name of the file we are reading from
@@ -268,30 +681,117 @@ class Head implements Application {
      */
     private void readFromFile(String fileName, OutputStreamWriter writer) throws IOException {
         Path filePath = Paths.get(Shell.getCurrentDirectory() + File.separator + fileName);
-        if (Files.exists(filePath)) {
-            try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
-                writeLines(reader, writer);
+        if (!Files.exists(filePath)) {
+            throw new HeadException("file not found: " + fileName);
+        }
+        if (this.byteCount >= 0) {
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                copyBytes(channel, writer);
             }
         } else {
-            throw new HeadException("file not found: " + fileName);
+            try (InputStream in = Files.newInputStream(filePath)) {
+                writeLines(new ByteLineReader(in), writer);
+            }
+        }
+    }
+
+    /**
+     * Copies the first byteCount bytes of a file without decoding them
+     * A SinkWriter receives them by transferTo; any other writer gets them decoded, COPY_SIZE bytes at a time
+     */
+    private void copyBytes(FileChannel channel, OutputStreamWriter writer) throws IOException {
+        long count = Math.min(this.byteCount, channel.size());
+        if (writer instanceof SinkWriter) {
+            WritableByteChannel sink = ((SinkWriter) writer).channel();
+            long position = 0;
+            while (position < count) {
+                long transferred = channel.transferTo(position, count - position, sink);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            return;
+        }
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(COPY_SIZE);
+        // UTF-8 never decodes to more characters than it has bytes
+        CharBuffer chars = CharBuffer.allocate(COPY_SIZE);
+        long remaining = count;
+        boolean end = false;
+        while (!end) {
+            Cancellation.checkCurrent();
+            if (remaining < bytes.remaining()) {
+                bytes.limit(bytes.position() + (int) remaining);
+            }
+            int read = channel.read(bytes);
+            if (read > 0) {
+                remaining -= read;
+            }
+            end = read < 0 || remaining == 0;
+            bytes.flip();
+            // a character split between two reads stays in bytes until the next one
+            decoder.decode(bytes, chars, end);
+            bytes.compact();
+            if (end) {
+                decoder.flush(chars);
+            }
+            chars.flip();
+            writer.write(chars.array(), 0, chars.limit());
+            chars.clear();
+        }
+        writer.flush();
+    }
+
+    private void writeBytes(ByteBuffer bytes, OutputStreamWriter writer) throws IOException {
+        if (writer instanceof SinkWriter) {
+            WritableByteChannel sink = ((SinkWriter) writer).channel();
+            while (bytes.hasRemaining()) {
+                sink.write(bytes);
+            }
+        } else {
+            writer.write(StandardCharsets.UTF_8.decode(bytes).toString());
+            writer.flush();
         }
     }
 
     /**
      * Writes the first lineNumber of lines from the reader to stdout
+     * Stops reading as soon as they are written; only the lines written are decoded
      *
-     * @param reader reader of info to write
+     * @param lines reader of the lines to write
      * @param writer that Application output is written to
      * @throws IOException if writer throws an error
      */
-    private void writeLines(BufferedReader reader, OutputStreamWriter writer) throws IOException {
-        String line;
-        int counter = 0;
-        while ((line = reader.readLine()) != null && counter < this.lineNumber) {
-            writer.write(line);
-            writer.write(System.getProperty("line.separator"));
-            writer.flush();
-            counter++;
+    private void writeLines(ByteLineReader lines, OutputStreamWriter writer) throws IOException {
+        LineStage.run(lines, new FirstLinesStage(this.lineNumber), writer, null);
+    }
+
+    /**
+     * Passes on lines until the wanted number has been passed on, then reports that it is done
+     */
+    private static class FirstLinesStage implements LineStage {
+        private final LineBatch first = new LineBatch();
+        private int remaining;
+
+        FirstLinesStage(int lines) {
+            this.remaining = Math.max(lines, 0);
+        }
+
+        public LineBatch process(LineBatch batch) {
+            first.reset(batch.buffer());
+            int taken = Math.min(remaining, batch.count());
+            for (int i = 0; i < taken; i++) {
+                first.add(batch.start(i), batch.length(i));
+            }
+            remaining -= taken;
+            return first;
+        }
+
+        @Override
+        public boolean isDone() {
+            return remaining == 0;
         }
     }
 }
@@ -325,53 +825,135 @@ class Tail implements Application {
             String fileName = appArgs.get(0);
             readFromFile(fileName, writer);
         } else if (appArgs.size() == 2) {
-            String option = appArgs.get(0);
-            if (!option.equals("-n")) {
-                throw new TailException("invalid option");
-            } else {
-                try {
-                    this.lineNumber = Integer.parseInt(appArgs.get(1));
-                    readFromStdin(input, writer);
-                } catch (NumberFormatException e) {
-                    throw new TailException("second arg is not an integer");
-                }
-
-            }
+            parseOption(appArgs);
+            readFromStdin(input, writer);
         } else if (appArgs.size() == 3) {
-            String option = appArgs.get(0);
-            if (!option.equals("-n")) {
-                throw new TailException("invalid option");
-            } else {
-                try {
-                    this.lineNumber = Integer.parseInt(appArgs.get(1));
-                    String fileName = appArgs.get(2);
-                    readFromFile(fileName, writer);
-                } catch (NumberFormatException e) {
-                    throw new TailException("second arg is not an integer");
-                }
-            }
+            parseOption(appArgs);
+            String fileName = appArgs.get(2);
+            readFromFile(fileName, writer);
         } else {
             throw new TailException("invalid number of arguments");
         }
     }
 
     /**
-     * Reads from stdin, wraps the string in a reader
-     * passes to the writer method
+     * Executes tail command with stdin given as bytes, such as piped output
+     * The lines are kept in batches and only the last lineNumber of them are copied and decoded
      *
-     * @param input  string for Application
-     * @param writer that Application output is written to
-     * @throws IOException if reader throws an error
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   bytes of stdin
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
      */
-    private void readFromStdin(String input, OutputStreamWriter writer) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
-            writeLines(reader, writer);
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        if (appArgs.size() != 0 && appArgs.size() != 2) {
+            // stdin is only read when no file is given
+            exec(appArgs, "", writer);
+            return;
+        }
+        if (appArgs.isEmpty() && !input.hasRemaining()) {
+            throw new TailException("missing arguments");
+        }
+        if (appArgs.size() == 2) {
+            parseOption(appArgs);
+        }
+        LineStage.run(new ByteLineReader(input), new LastLinesStage(this.lineNumber), writer, null);
+    }
+
+    /**
+     * Tail as a stage when it reads lines from stdin
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return a stage keeping the last lines, or null for a file or an invalid option
+     */
+    @Override
+    public LineStage fuse(ArrayList<String> appArgs) {
+        if (appArgs.isEmpty()) {
+            return LineStage.requiringInput(new LastLinesStage(this.lineNumber), new TailException("missing arguments"));
+        }
+        if (appArgs.size() != 2) {
+            return null;
+        }
+        try {
+            parseOption(appArgs);
+        } catch (TailException e) {
+            return null;
+        }
+        return new LastLinesStage(this.lineNumber);
+    }
+
+    private void parseOption(ArrayList<String> appArgs) {
+        if (!appArgs.get(0).equals("-n")) {
+            throw new TailException("invalid option");
+        }
+        try {
+            this.lineNumber = Integer.parseInt(appArgs.get(1));
+        } catch (NumberFormatException e) {
+            throw new TailException("second arg is not an integer");
+        }
+    }
+
+    /**
+     * Keeps the last lines seen in a ring, copying from each batch only the lines that can still be among them,
+     * and outputs them once the input ends
+     */
+    private static class LastLinesStage implements LineStage {
+        private final LineBatch none = new LineBatch(0);
+        private final byte[][] ring;
+        private int next = 0;
+        private long seen = 0;
+
+        LastLinesStage(int lines) {
+            this.ring = new byte[Math.max(lines, 0)][];
+        }
+
+        public LineBatch process(LineBatch batch) {
+            if (ring.length == 0) {
+                return none;
+            }
+            byte[] buffer = batch.buffer();
+            for (int i = Math.max(0, batch.count() - ring.length); i < batch.count(); i++) {
+                // the ring is charged for the lines it holds, and given back those it drops
+                MemoryBudget.charge(Sort.LINE_OVERHEAD + batch.length(i));
+                if (ring[next] != null) {
+                    MemoryBudget.release(Sort.LINE_OVERHEAD + ring[next].length);
+                }
+                ring[next] = Arrays.copyOfRange(buffer, batch.start(i), batch.start(i) + batch.length(i));
+                next = (next + 1) % ring.length;
+                seen++;
+            }
+            return none;
         }
+
+        @Override
+        public LineBatch finish() {
+            int kept = (int) Math.min(seen, ring.length);
+            LineBatch last = new LineBatch(kept);
+            for (int i = 0; i < kept; i++) {
+                byte[] line = ring[(next - kept + i + ring.length) % ring.length];
+                last.append(line, 0, line.length);
+                last.endLine();
+            }
+            return last;
+        }
+    }
+
+    /**
+     * Reads from stdin through the same ring as piped bytes, so only the last lineNumber lines are ever copied
+     *
+     * @param input  string for Application
+     * @param writer that Application output is written to
+     * @throws IOException if writer throws an error
+     */
+    private void readFromStdin(String input, OutputStreamWriter writer) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+        LineStage.run(new ByteLineReader(bytes), new LastLinesStage(this.lineNumber), writer, null);
     }
 
     /**
      * Checks the file exists
-     * if true: wraps the file in a reader and passes to the writer method
+     * if true: indexes only the last lines of the mapped file, scanning back from its end, and writes them
      * if false: throws an TailException
      *
      * @param fileName name of the file we are reading from
@@ -381,55 +963,54 @@ class Tail implements Application {
     private void readFromFile(String fileName, OutputStreamWriter writer) throws IOException {
         Path filePath = Paths.get(Shell.getCurrentDirectory() + File.separator + fileName);
         if (Files.exists(filePath)) {
-            try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
-                writeLines(reader, writer);
+            LineIndex lines = LineIndex.lastLines(filePath, this.lineNumber);
+            for (int i = 0; i < lines.count(); i++) {
+                writer.write(lines.line(i));
+                writer.write(System.getProperty("line.separator"));
             }
+            writer.flush();
         } else {
             throw new TailException("file not found: " + fileName);
         }
     }
-
-    /**
-     * Stores all the lines from the reader
-     * Writes the lines from index = (length - lineNumber) to stdout
-     *
-     * @param reader reader of info to write
-     * @param writer that Application output is written to
-     * @throws IOException if reader or writer throw an error
-     */
-    private void writeLines(BufferedReader reader, OutputStreamWriter writer) throws IOException {
-        String line;
-        ArrayList<String> storage = new ArrayList<>();
-        while ((line = reader.readLine()) != null) {
-            storage.add(line);
-        }
-        int index;
-        if (this.lineNumber > storage.size()) {
-            index = 0;
-        } else {
-            index = storage.size() - this.lineNumber;
-        }
-        for (int i = index; i < storage.size(); i++) {
-            writer.write(storage.get(i));
-            writer.write(System.getProperty("line.separator"));
-            writer.flush();
-        }
-    }
 }
 
 class Grep implements Application {
     /**
-     * storing the pattern, filename and whether the filename should be printed
+     * storing the patterns, filename and whether the filename should be printed
+     * a line is written if it matches every pattern; more than one is given with --and
      */
-    private Pattern grepPattern;
+    private ArrayList<String> patternArgs;
+    private Pattern[] patterns;
     private String filename = "";
     private boolean printFilename = false;
 
+    /**
+     * whether some line matched every pattern but the last, which is when `grep P --and Q` has output
+     * to pass to the last pattern had it been run as `grep P | grep Q`
+     */
+    private boolean leadingMatched = false;
+
+    /**
+     * trigram index of the current directory and the trigrams a matching file must contain, if usable
+     */
+    private TrigramIndex index;
+    private int[] requiredTrigrams;
+
+    /**
+     * each pattern's bytes when it is a plain literal, and the matchers reused for every line otherwise
+     */
+    private byte[][] literals;
+    private Matcher[] matchers;
+    private final AsciiView asciiView = new AsciiView();
+
     /**
      * Executes grep command
      * Handles checking error cases
-     * Sets grepPattern var and throws an exception if not a valid pattern
+     * Compiles the patterns and throws an exception if one is not a valid pattern
+     * Loads the trigram index of the current directory if the pattern has literal parts it can use
      * Reads from stdin or from file when appropriate
+     * "grep P --and Q" writes what "grep P | grep Q" would, in one pass, failing the same way if no line matches P
      *
      * @param appArgs the arguments input after a command separated by spaces into a list
      * @param input   string for Application
@@ -437,29 +1018,122 @@ class Grep implements Application {
      * @throws IOException throws an error if writer causes an error
      */
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        ArrayList<String> fileNames = parseArgs(appArgs);
+        compilePatterns();
+        int numOfFiles = fileNames.size();
+        if (numOfFiles == 0) {
+            if (input.isEmpty()) {
+                throw new GrepException("empty stdin");
+            } else {
+                readFromStdin(input, writer);
+            }
+        } else if (numOfFiles == 1) {
+            loadIndex(appArgs.get(0));
+            this.filename = fileNames.get(0);
+            readFromFile(null, writer);
+        } else {
+            loadIndex(appArgs.get(0));
+            this.printFilename = true;
+            try (ReadAhead readAhead = new ReadAhead(readAheadPaths(fileNames))) {
+                for (String fileName : fileNames) {
+                    this.filename = fileName;
+                    readFromFile(readAhead.next(), writer);
+                }
+            }
+        }
+        checkLeadingMatched();
+    }
+
+    /**
+     * Executes grep command with stdin given as bytes
+     * Stdin lines are then matched as bytes like file lines, and only lines that are written out are decoded
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   bytes of stdin
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        if (!parseArgs(appArgs).isEmpty()) {
+            // stdin is only read when no file is given
+            exec(appArgs, "", writer);
+            return;
+        }
+        if (!input.hasRemaining()) {
+            throw new GrepException("empty stdin");
+        }
+        compilePatterns();
+        writeLines(new ByteLineReader(input), writer);
+        checkLeadingMatched();
+    }
+
+    /**
+     * Grep as a stage when it matches the lines of stdin
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return a stage keeping the matching lines, or null for files or invalid arguments
+     */
+    @Override
+    public LineStage fuse(ArrayList<String> appArgs) {
+        try {
+            if (!parseArgs(appArgs).isEmpty()) {
+                return null;
+            }
+            compilePatterns();
+        } catch (GrepException e) {
+            return null;
+        }
+        return LineStage.requiringInput(new MatchStage(true), new GrepException("empty stdin"));
+    }
+
+    /**
+     * Grep is stateless on stdin with a single pattern; with --and, whether a line matched the leading patterns
+     * is tracked across all of stdin
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return true for "grep PATTERN" reading stdin
+     */
+    @Override
+    public boolean isStateless(ArrayList<String> appArgs) {
+        try {
+            return parseArgs(appArgs).isEmpty() && this.patternArgs.size() == 1;
+        } catch (GrepException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Splits the arguments into the patterns (the first argument, and the one after each --and) and the file names
+     *
+     * @return the file names
+     */
+    private ArrayList<String> parseArgs(ArrayList<String> appArgs) {
         if (appArgs.size() == 0) {
             throw new GrepException("wrong number of arguments");
         }
+        this.patternArgs = new ArrayList<>(List.of(appArgs.get(0)));
+        int i = 1;
+        while (i < appArgs.size() && appArgs.get(i).equals("--and")) {
+            if (i + 1 == appArgs.size()) {
+                throw new GrepException("wrong number of arguments");
+            }
+            this.patternArgs.add(appArgs.get(i + 1));
+            i += 2;
+        }
+        return new ArrayList<>(appArgs.subList(i, appArgs.size()));
+    }
+
+    private void compilePatterns() {
+        int count = this.patternArgs.size();
+        this.patterns = new Pattern[count];
+        this.literals = new byte[count][];
+        this.matchers = new Matcher[count];
         try {
-            this.grepPattern = Pattern.compile(appArgs.get(0));
-            int numOfFiles = appArgs.size() - 1;
-            if (numOfFiles == 0) {
-                if (input.isEmpty()) {
-                    throw new GrepException("empty stdin");
-                } else {
-                    readFromStdin(input, writer);
-                }
-            } else if (numOfFiles == 1) {
-                this.filename = appArgs.get(1);
-                readFromFile(writer);
-            } else if (numOfFiles > 1) {
-                int i = 1;
-                this.printFilename = true;
-                while (i <= numOfFiles) {
-                    this.filename = appArgs.get(i);
-                    readFromFile(writer);
-                    i += 1;
-                }
+            for (int i = 0; i < count; i++) {
+                this.patterns[i] = Pattern.compile(this.patternArgs.get(i));
+                this.literals[i] = literalBytes(this.patternArgs.get(i));
+                this.matchers[i] = this.patterns[i].matcher("");
             }
         } catch (PatternSyntaxException e) {
             throw new GrepException("invalid regular expression");
@@ -467,249 +1141,1248 @@ class Grep implements Application {
     }
 
     /**
-     * Reads from stdin, wraps the string in a reader
-     * passes to the writer method
+     * Fails as "grep P | grep Q" would when "grep P" has no output for "grep Q" to read
+     */
+    private void checkLeadingMatched() {
+        if (this.patterns.length > 1 && !this.leadingMatched) {
+            throw new GrepException("empty stdin");
+        }
+    }
+
+    /**
+     * Goes line by line through stdin checking if each line matches the patterns
+     * A single matcher per pattern is reused for every line by restricting it to the line's region of the input
      *
      * @param input  string for Application
      * @param writer that Application output is written to
-     * @throws IOException if reader throws an error
+     * @throws IOException if writer throws an error
      */
     private void readFromStdin(String input, OutputStreamWriter writer) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
-            writeLines(reader, writer);
+        Matcher[] matchers = new Matcher[this.patterns.length];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = this.patterns[i].matcher(input);
+        }
+        int start = 0;
+        while (start < input.length()) {
+            int newline = input.indexOf('\n', start);
+            int end = newline < 0 ? input.length() : newline;
+            int lineEnd = end > start && input.charAt(end - 1) == '\r' ? end - 1 : end;
+            int matched = 0;
+            while (matched < matchers.length && matchers[matched].region(start, lineEnd).find()) {
+                matched++;
+            }
+            if (matched == matchers.length) {
+                writer.write(input, start, lineEnd - start);
+                writer.write(System.getProperty("line.separator"));
+            }
+            this.leadingMatched |= matched >= matchers.length - 1;
+            start = end + 1;
+        }
+        writer.flush();
+    }
+
+    /**
+     * Loads the trigram index of the current directory, if there is one and the pattern
+     * has literal parts that every match must contain
+     *
+     * @param regex the grep pattern
+     */
+    private void loadIndex(String regex) {
+        this.requiredTrigrams = TrigramIndex.requiredTrigrams(regex);
+        if (this.requiredTrigrams != null) {
+            this.index = TrigramIndex.load(Paths.get(Shell.getCurrentDirectory()));
+        }
+    }
+
+    /**
+     * The files to read ahead, leaving out those the trigram index proves have no matching line
+     *
+     * @param fileNames the names of the files
+     * @return the paths of the files, with null for files that will be skipped
+     */
+    private ArrayList<Path> readAheadPaths(ArrayList<String> fileNames) {
+        ArrayList<Path> paths = new ArrayList<>();
+        for (String fileName : fileNames) {
+            Path filePath = Paths.get(Shell.getCurrentDirectory() + File.separator + fileName);
+            boolean skipped = this.index != null && !this.index.mayContain(filePath, this.requiredTrigrams);
+            paths.add(skipped ? null : filePath);
         }
+        return paths;
     }
 
     /**
      * Checks the file exists, gets fileName from private var
-     * if true: wraps the file in a reader and passes to the writer method
+     * if true: passes the file's bytes to the writer method,
+     * unless the trigram index proves the file has no matching line
      * if false: throws an GrepException
      *
-     * @param writer that Application output is written to
+     * @param content the file's bytes if they were read ahead, or null to read the file here
+     * @param writer  that Application output is written to
      * @throws IOException if writer throws an error
      */
-    private void readFromFile(OutputStreamWriter writer) throws IOException {
+    private void readFromFile(byte[] content, OutputStreamWriter writer) throws IOException {
         Path filePath = Paths.get(Shell.getCurrentDirectory() + File.separator + this.filename);
         if (!Files.exists(filePath)) {
             System.out.println("grep: file not found: " + this.filename);
         } else if (!Files.isReadable(filePath)) {
             System.out.println("grep: access not permitted to file " + this.filename);
         } else if (!Files.isDirectory(filePath)) {
-            BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8);
-            writeLines(reader, writer);
+            if (this.index != null && !this.index.mayContain(filePath, this.requiredTrigrams)) {
+                return;
+            }
+            try (InputStream in = content != null ? new ByteArrayInputStream(content) : Files.newInputStream(filePath)) {
+                writeLines(in, writer);
+            }
         } else {
             System.out.println("grep: is a directory: " + this.filename);
         }
     }
 
     /**
-     * Goes line by line from the reader checking if it matches the pattern
+     * Goes line by line through the UTF-8 bytes of the stream checking if each line matches the pattern
+     * Lines are found and matched in the byte buffer; only lines that are written out are decoded
      * if true: writes to stdout
      * if false: does not write to it
      *
-     * @param reader reader of info to write
+     * @param in     stream of UTF-8 encoded lines
      * @param writer that Application output is written to
-     * @throws IOException if reader or writer throws an error
+     * @throws IOException if the stream or writer throws an error
      */
-    private void writeLines(BufferedReader reader, OutputStreamWriter writer) throws IOException {
-        String line;
-        while ((line = reader.readLine()) != null) {
-            Matcher matcher = this.grepPattern.matcher(line);
-            if (matcher.find()) {
-                if (this.printFilename) {
-                    writer.write(this.filename);
-                    writer.write(": ");
+    private void writeLines(InputStream in, OutputStreamWriter writer) throws IOException {
+        writeLines(new ByteLineReader(in), writer);
+    }
+
+    private void writeLines(ByteLineReader lines, OutputStreamWriter writer) throws IOException {
+        LineStage.run(lines, new MatchStage(false), writer, this.printFilename ? this.filename + ": " : null);
+    }
+
+    /**
+     * Matches a single line held in a byte buffer against the patterns in order, stopping at the first it does not match
+     * Literal patterns are searched for as bytes; ASCII lines are matched through a byte-backed view
+     * by the reused matchers; only lines containing other characters are decoded (once) before matching
+     *
+     * @param buffer the bytes holding the line
+     * @param start  index of the first byte of the line
+     * @param end    index after the last byte of the line, excluding the line terminator
+     * @return true if the line contains a match of every pattern
+     */
+    private boolean matchLine(byte[] buffer, int start, int end) {
+        String decoded = null;
+        int matched = 0;
+        for (; matched < this.patterns.length; matched++) {
+            boolean found;
+            if (this.literals[matched] != null) {
+                found = indexOf(buffer, start, end, this.literals[matched]) >= 0;
+            } else if (ByteScanner.isAscii(buffer, start, end)) {
+                this.asciiView.set(buffer, start, end - start);
+                found = this.matchers[matched].reset(this.asciiView).find();
+            } else {
+                if (decoded == null) {
+                    decoded = new String(buffer, start, end - start, StandardCharsets.UTF_8);
                 }
-                writer.write(line);
-                writer.write(System.getProperty("line.separator"));
-                writer.flush();
+                found = this.matchers[matched].reset(decoded).find();
+            }
+            if (!found) {
+                break;
             }
         }
+        this.leadingMatched |= matched >= this.patterns.length - 1;
+        return matched == this.patterns.length;
     }
-}
 
-class Cut implements Application {
     /**
-     * Executes cut command
-     * Checks for wrong argument size, can only be 2 or 3
-     * Checks if there is a file, if so stores the filename
-     * Splits up the ranges specified and processes them
-     *
-     * @param appArgs the arguments input after a command separated by spaces into a list
-     * @param input   string for Application
-     * @param writer  that Application output is written to
-     * @throws IOException throws an error if writer causes an error
+     * Keeps the matching lines of each batch, as ranges of the batch's own buffer
+     * A fused stage also fails at the end of the input as checkLeadingMatched does
      */
-    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
-        if (appArgs.size() < 2 || appArgs.size() > 3) {
-            throw new CutException("wrong number of arguments");
+    private class MatchStage implements LineStage {
+        private final LineBatch matches = new LineBatch();
+        private final boolean fused;
+
+        MatchStage(boolean fused) {
+            this.fused = fused;
         }
 
-        String option = appArgs.get(1);
-        String fileName = appArgs.size() > 2 ? appArgs.get(2) : null;
-        String[] ranges = option.split(",");
+        public LineBatch process(LineBatch batch) {
+            byte[] buffer = batch.buffer();
+            matches.reset(buffer);
+            for (int i = 0; i < batch.count(); i++) {
+                int start = batch.start(i);
+                if (matchLine(buffer, start, start + batch.length(i))) {
+                    matches.add(start, batch.length(i));
+                }
+            }
+            return matches;
+        }
 
-        for (String range : ranges) {
-            processRange(range, fileName, input, writer);
+        @Override
+        public LineBatch finish() {
+            if (fused) {
+                checkLeadingMatched();
+            }
+            return null;
         }
     }
 
     /**
-     * Splits up the range by "-"
-     * If it is an open range (n-), end value is Integer.MAX_VALUE
-     * Else (n-m), end is m
-     *
-     * @param range    the range of bytes to extract
-     * @param fileName the filename, can be null so stdin
-     * @param input    string for Application
-     * @param writer   that Application output is written to
-     * @throws IOException if processLine throws an error
+     * @param pattern the grep pattern
+     * @return the pattern's UTF-8 bytes if it contains no regular expression metacharacters, otherwise null
      */
-    private void processRange(String range, String fileName, String input, OutputStreamWriter writer) throws IOException {
-        String[] bounds = range.split("-");
-        int start = parseBound(bounds[0]);
-        int end = bounds.length > 1 ? parseBound(bounds[1]) : Integer.MAX_VALUE;
-
-        if (fileName == null) {
-            processLine(input, start, end, writer);
-        } else {
-            processFile(fileName, start, end, writer);
+    private static byte[] literalBytes(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("\\^$.|?*+()[]{}".indexOf(pattern.charAt(i)) >= 0) {
+                return null;
+            }
         }
+        return pattern.getBytes(StandardCharsets.UTF_8);
     }
 
-    /**
-     * Helper method for processRange
-     *
-     * @param bound either "" or "int"
-     * @return returns 1 if it is empty, else parses the "int" to int
-     */
-    private int parseBound(String bound) {
-        return bound.isEmpty() ? 1 : Integer.parseInt(bound);
+    private static int indexOf(byte[] bytes, int start, int end, byte[] target) {
+        if (target.length == 0) {
+            return start;
+        }
+        byte first = target[0];
+        int last = end - target.length;
+        for (int i = start; i <= last; i++) {
+            i = ByteScanner.indexOf(bytes, i, last + 1, first);
+            if (i < 0) {
+                return -1;
+            }
+            int j = 1;
+            while (j < target.length && bytes[i + j] == target[j]) {
+                j++;
+            }
+            if (j == target.length) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
-     * Gets the file and reads it in, calling the processLine method on each line
-     *
-     * @param fileName filename
-     * @param start    start of range of bytes included
-     * @param end      end of range of bytes included
-     * @param writer   that Application output is written to
-     * @throws IOException if reader throws an error
+     * A reusable CharSequence over a range of ASCII bytes, so ASCII lines can be matched without decoding
      */
-    private void processFile(String fileName, int start, int end, OutputStreamWriter writer) throws IOException {
-        Path filePath = Paths.get(fileName);
+    private static class AsciiView implements CharSequence {
+        private byte[] bytes;
+        private int offset;
+        private int length;
 
-        if (!Files.isReadable(filePath) || Files.isDirectory(filePath)) {
-            throw new CutException("cannot read " + fileName);
+        void set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
         }
 
-        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                processLine(line, start, end, writer);
-            }
+        public int length() {
+            return length;
         }
-    }
 
-    /**
-     * Checks startIndex and endIndex are lower than lineLength
-     * Makes a substring from the range
-     * Writes the substring
-     *
-     * @param line   either a line from the file or the shell stdin
-     * @param start  start of range of bytes to include
-     * @param end    end of range of bytes to include
-     * @param writer that Application output is written to
-     * @throws IOException if writer throws an error
-     */
-    private void processLine(String line, int start, int end, OutputStreamWriter writer) throws IOException {
-        int lineLength = line.length();
-        int startIndex = Math.min(start, lineLength);
-        int endIndex = Math.min(end, lineLength);
+        public char charAt(int index) {
+            return (char) bytes[offset + index];
+        }
 
-        if (startIndex <= endIndex) {
-            String substring = line.substring(startIndex - 1, endIndex);
-            writer.write(substring);
-            writer.write(System.getProperty("line.separator"));
-            writer.flush();
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, offset + start, end - start, StandardCharsets.US_ASCII);
+        }
+
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.US_ASCII);
         }
     }
 }
 
-class Find implements Application {
+class Cut implements Application {
     /**
-     * Executes find command
-     * Throws a FindException for wrong args
-     * If path specified then use that Path, else current directory
+     * what the ranges select from each line
+     */
+    private enum Mode { CHARACTERS, BYTES, FIELDS }
+
+    private Mode mode;
+    private char delimiter;
+
+    /**
+     * merged, sorted ranges stored as consecutive (start, end) pairs, 1-based and inclusive
+     */
+    private int[] ranges;
+
+    /**
+     * Executes cut command
+     * Checks for wrong argument size, can only be 2 or 3 plus an optional "-d DELIM"
+     * "-b" selects bytes, "-f" selects fields separated by DELIM (a tab by default),
+     * any other option ("-c") selects characters
+     * Parses and merges the ranges once, then makes a single pass over the file or stdin
      *
      * @param appArgs the arguments input after a command separated by spaces into a list
      * @param input   string for Application
      * @param writer  that Application output is written to
-     * @throws IOException throws an error if findFiles causes an error
+     * @throws IOException throws an error if writer causes an error
      */
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
-        if (appArgs.size() < 2) {
-            throw new FindException("wrong number of arguments");
+        String fileName = parseArgs(appArgs);
+        if (fileName == null) {
+            processStdin(input, writer);
+        } else {
+            processFile(fileName, writer);
         }
-        String path = appArgs.size() > 2 ? appArgs.get(2) : Shell.getCurrentDirectory();
-        String pattern = appArgs.get(1);
-        findFiles(path, pattern, writer);
+        writer.flush();
     }
 
     /**
-     * Finds the files
+     * Executes cut command with stdin given as bytes, such as piped output
+     * Bytes and fields split by an ASCII delimiter are cut in batches without decoding stdin
      *
-     * @param path    the path where to look for files
-     * @param pattern the pattern to find in the filenames
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   bytes of stdin
      * @param writer  that Application output is written to
-     * @throws IOException if Files. walk throws an IOException
+     * @throws IOException throws an error if writer causes an error
      */
-    private void findFiles(String path, String pattern, OutputStreamWriter writer) throws IOException {
-        try {
-            Files.walk(Paths.get(path))
-                    .filter(Files::isRegularFile)
-                    .filter(file -> file.getFileName().toString().matches(translatePattern(pattern)))
-                    .forEach(file -> writeResult(file, writer));
-        } catch (SecurityException e) {
-            throw new FindException("not allowed access to starting file");
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        String fileName = parseArgs(appArgs);
+        if (fileName != null) {
+            processFile(fileName, writer);
+        } else if (cutsBytes()) {
+            LineStage.run(new ByteLineReader(input), new CutStage(), writer, null);
+        } else {
+            processStdin(StandardCharsets.UTF_8.decode(input).toString(), writer);
         }
+        writer.flush();
     }
 
     /**
-     * Takes in a Path to a file and the shell stdout.
-     * Finds the relative path of the file to the current directory and writes to output,
-     * followed by a line separator.
+     * Cut as a stage when it cuts bytes or fields split by an ASCII delimiter from stdin
      *
-     * @param file   the Path object representing the file
-     * @param writer the OutputStreamWriter object representing the shell's standard output
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return a stage cutting each line, or null for a file, characters or invalid arguments
      */
-    private void writeResult(Path file, OutputStreamWriter writer) {
-        Path currentDirPath = Paths.get(Shell.getCurrentDirectory());
-        String relativePath = currentDirPath.relativize(file).toString();
+    @Override
+    public LineStage fuse(ArrayList<String> appArgs) {
         try {
-            writer.write(relativePath);
-            writer.write(System.getProperty("line.separator"));
-            writer.flush();
-        } catch (IOException e) {
-            throw new FindException("error while writing result");
+            return parseArgs(appArgs) == null && cutsBytes() ? new CutStage() : null;
+        } catch (CutException e) {
+            return null;
         }
     }
 
     /**
-     * Takes a string representing a wildcard file pattern and replaces all instances of the '*' wildcard with the regular expression .*
-     * Allows the findFiles method to use the matches method to efficiently find files that match the given pattern.
+     * Cut is stateless whenever it reads stdin, since every line is cut on its own
      *
-     * @param pattern the wildcard file pattern to translate
-     * @return the translated pattern with wildcards replaced by regular expressions
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return true if no file is given
      */
-    private String translatePattern(String pattern) {
-        return pattern.replaceAll("\\*", ".*");
+    @Override
+    public boolean isStateless(ArrayList<String> appArgs) {
+        try {
+            return parseArgs(appArgs) == null;
+        } catch (CutException e) {
+            return false;
+        }
     }
-}
 
-class Uniq implements Application {
     /**
-     * Executes uniq command
+     * Parses the options and merges the ranges once
+     *
+     * @return the file name, or null if there is none
+     */
+    private String parseArgs(ArrayList<String> appArgs) {
+        ArrayList<String> args = new ArrayList<>(appArgs);
+        String delimiterArg = null;
+        int d = args.indexOf("-d");
+        if (d >= 0) {
+            if (d + 1 >= args.size()) {
+                throw new CutException("option -d requires an argument");
+            }
+            delimiterArg = args.remove(d + 1);
+            args.remove(d);
+        }
+        if (args.size() < 2 || args.size() > 3) {
+            throw new CutException("wrong number of arguments");
+        }
+
+        String option = args.get(0);
+        this.mode = option.equals("-b") ? Mode.BYTES : option.equals("-f") ? Mode.FIELDS : Mode.CHARACTERS;
+        this.delimiter = '\t';
+        if (delimiterArg != null) {
+            if (this.mode != Mode.FIELDS) {
+                throw new CutException("a delimiter may only be given when selecting fields");
+            }
+            if (delimiterArg.length() != 1) {
+                throw new CutException("the delimiter must be a single character");
+            }
+            this.delimiter = delimiterArg.charAt(0);
+        }
+        this.ranges = parseRanges(args.get(1));
+        return args.size() > 2 ? args.get(2) : null;
+    }
+
+    /**
+     * @return true if the selection can be cut from the UTF-8 bytes of a line: bytes, or fields split by
+     * an ASCII delimiter, whose byte cannot occur inside a multi-byte character
+     */
+    private boolean cutsBytes() {
+        return this.mode == Mode.BYTES || (this.mode == Mode.FIELDS && this.delimiter < 0x80);
+    }
+
+    /**
+     * Parses a comma-separated list of ranges (n, n-m, n- or -m), then sorts them
+     * and merges overlapping or adjacent ranges so each line is sliced in one left-to-right pass
+     *
+     * @param list the ranges given on the command line
+     * @return the merged ranges as consecutive (start, end) pairs
+     */
+    private int[] parseRanges(String list) {
+        String[] parts = list.split(",");
+        int[][] parsed = new int[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            int dash = part.indexOf('-');
+            int start;
+            int end;
+            if (dash < 0) {
+                start = parseBound(part, part);
+                end = start;
+            } else {
+                start = dash == 0 ? 1 : parseBound(part.substring(0, dash), part);
+                end = dash == part.length() - 1 ? Integer.MAX_VALUE : parseBound(part.substring(dash + 1), part);
+                if (dash == 0 && dash == part.length() - 1) {
+                    throw new CutException("invalid range: " + part);
+                }
+            }
+            if (start > end) {
+                throw new CutException("invalid decreasing range: " + part);
+            }
+            parsed[i] = new int[]{start, end};
+        }
+        Arrays.sort(parsed, Comparator.comparingInt(range -> range[0]));
+
+        int[] merged = new int[parsed.length * 2];
+        int count = 0;
+        for (int[] range : parsed) {
+            if (count > 0 && range[0] <= merged[count - 1] + 1L) {
+                merged[count - 1] = Math.max(merged[count - 1], range[1]);
+            } else {
+                merged[count++] = range[0];
+                merged[count++] = range[1];
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    /**
+     * Helper method for parseRanges
+     *
+     * @param bound a positive integer
+     * @param range the range the bound belongs to, for error messages
+     * @return the parsed bound
+     */
+    private int parseBound(String bound, String range) {
+        try {
+            int value = Integer.parseInt(bound);
+            if (value < 1) {
+                throw new CutException("positions are numbered from 1: " + range);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new CutException("invalid range: " + range);
+        }
+    }
+
+    /**
+     * Cuts every line of stdin
+     *
+     * @param input  string for Application
+     * @param writer that Application output is written to
+     * @throws IOException if writer throws an error
+     */
+    private void processStdin(String input, OutputStreamWriter writer) throws IOException {
+        if (this.mode == Mode.BYTES) {
+            ByteLineReader lines = new ByteLineReader(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+            LineStage.run(lines, new CutStage(), writer, null);
+        } else {
+            try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
+                processLines(reader, writer);
+            }
+        }
+    }
+
+    /**
+     * Gets the file and reads it once, cutting every line
+     *
+     * @param fileName filename
+     * @param writer   that Application output is written to
+     * @throws IOException if reader throws an error
+     */
+    private void processFile(String fileName, OutputStreamWriter writer) throws IOException {
+        Path filePath = Paths.get(fileName);
+
+        if (!Files.isReadable(filePath) || Files.isDirectory(filePath)) {
+            throw new CutException("cannot read " + fileName);
+        }
+
+        if (cutsBytes()) {
+            try (InputStream in = Files.newInputStream(filePath)) {
+                LineStage.run(new ByteLineReader(in), new CutStage(), writer, null);
+            }
+        } else {
+            try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
+                processLines(reader, writer);
+            }
+        }
+    }
+
+    /**
+     * Writes the selected characters or fields of each line, writing slices of the line without building substrings
+     *
+     * @param reader lines to cut
+     * @param writer that Application output is written to
+     * @throws IOException if reader or writer throws an error
+     */
+    private void processLines(BufferedReader reader, OutputStreamWriter writer) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Cancellation.checkCurrent();
+            if (this.mode == Mode.FIELDS) {
+                writeFields(line, writer);
+            } else {
+                for (int r = 0; r < this.ranges.length && this.ranges[r] <= line.length(); r += 2) {
+                    int start = this.ranges[r] - 1;
+                    int end = Math.min(this.ranges[r + 1], line.length());
+                    writer.write(line, start, end - start);
+                }
+            }
+            writer.write(System.getProperty("line.separator"));
+        }
+    }
+
+    /**
+     * Writes the selected fields of a line joined by the delimiter
+     * Lines without the delimiter are written whole
+     *
+     * @param line   the line to cut
+     * @param writer that Application output is written to
+     * @throws IOException if writer throws an error
+     */
+    private void writeFields(String line, OutputStreamWriter writer) throws IOException {
+        if (line.indexOf(this.delimiter) < 0) {
+            writer.write(line);
+            return;
+        }
+        boolean first = true;
+        int field = 1;
+        int fieldStart = 0;
+        int r = 0;
+        while (r < this.ranges.length && fieldStart <= line.length()) {
+            int fieldEnd = line.indexOf(this.delimiter, fieldStart);
+            if (fieldEnd < 0) {
+                fieldEnd = line.length();
+            }
+            if (field > this.ranges[r + 1]) {
+                r += 2;
+                continue;
+            }
+            if (field >= this.ranges[r]) {
+                if (!first) {
+                    writer.write(this.delimiter);
+                }
+                writer.write(line, fieldStart, fieldEnd - fieldStart);
+                first = false;
+            }
+            field++;
+            fieldStart = fieldEnd + 1;
+        }
+    }
+
+    /**
+     * Cuts the selected bytes or fields of every line of a batch into a batch of its own
+     */
+    private class CutStage implements LineStage {
+        private final LineBatch cut = new LineBatch();
+
+        public LineBatch process(LineBatch batch) {
+            cut.clear();
+            byte[] buffer = batch.buffer();
+            for (int i = 0; i < batch.count(); i++) {
+                if (mode == Mode.BYTES) {
+                    cutBytes(buffer, batch.start(i), batch.length(i));
+                } else {
+                    cutFields(buffer, batch.start(i), batch.start(i) + batch.length(i));
+                }
+                cut.endLine();
+            }
+            return cut;
+        }
+
+        private void cutBytes(byte[] buffer, int lineStart, int length) {
+            for (int r = 0; r < ranges.length && ranges[r] <= length; r += 2) {
+                int start = lineStart + ranges[r] - 1;
+                int end = lineStart + Math.min(ranges[r + 1], length);
+                cut.append(buffer, start, end - start);
+            }
+        }
+
+        /**
+         * Appends the selected fields of a line joined by the delimiter, found with ByteScanner
+         * Lines without the delimiter are appended whole
+         */
+        private void cutFields(byte[] buffer, int lineStart, int lineEnd) {
+            byte delimiterByte = (byte) delimiter;
+            int fieldEnd = ByteScanner.indexOf(buffer, lineStart, lineEnd, delimiterByte);
+            if (fieldEnd < 0) {
+                cut.append(buffer, lineStart, lineEnd - lineStart);
+                return;
+            }
+            boolean first = true;
+            int field = 1;
+            int fieldStart = lineStart;
+            int r = 0;
+            while (r < ranges.length && fieldStart <= lineEnd) {
+                if (fieldEnd < 0) {
+                    fieldEnd = lineEnd;
+                }
+                if (field > ranges[r + 1]) {
+                    r += 2;
+                    continue;
+                }
+                if (field >= ranges[r]) {
+                    if (!first) {
+                        cut.append(delimiterByte);
+                    }
+                    cut.append(buffer, fieldStart, fieldEnd - fieldStart);
+                    first = false;
+                }
+                field++;
+                fieldStart = fieldEnd + 1;
+                fieldEnd = fieldStart <= lineEnd ? ByteScanner.indexOf(buffer, fieldStart, lineEnd, delimiterByte) : -1;
+            }
+        }
+    }
+}
+
+class Find implements Application {
+    /**
+     * name and prune patterns compiled once per command, null if not given
+     */
+    private Pattern namePattern;
+    private Pattern prunePattern;
+    private int maxDepth = Integer.MAX_VALUE;
+    private boolean findDirectories = false;
+    private boolean sorted = false;
+    private boolean useIndex = false;
+
+    /**
+     * Executes find command
+     * Throws a FindException for wrong args
+     * If path specified then use that Path, else current directory
+     * Options: -name PATTERN, -maxdepth N, -type f|d, -prune PATTERN (do not descend into matching directories)
+     * -sorted (print all results in sorted order instead of in the order they are walked)
+     * and -index (answer from the filename index built by index -names, see FilenameIndex,
+     * refreshing only changed directories)
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if findFiles causes an error
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        if (appArgs.size() < 2) {
+            throw new FindException("wrong number of arguments");
+        }
+        String path = null;
+        for (int i = 0; i < appArgs.size(); i++) {
+            String arg = appArgs.get(i);
+            switch (arg) {
+                case "-name" -> this.namePattern = Pattern.compile(translatePattern(optionValue(appArgs, ++i)));
+                case "-prune" -> this.prunePattern = Pattern.compile(translatePattern(optionValue(appArgs, ++i)));
+                case "-maxdepth" -> this.maxDepth = parseDepth(optionValue(appArgs, ++i));
+                case "-type" -> this.findDirectories = parseType(optionValue(appArgs, ++i));
+                case "-sorted" -> this.sorted = true;
+                case "-index" -> this.useIndex = true;
+                default -> {
+                    if (path != null) {
+                        throw new FindException("unexpected argument " + arg);
+                    }
+                    path = arg;
+                }
+            }
+        }
+        findFiles(path == null ? "." : path, writer);
+    }
+
+    private String optionValue(ArrayList<String> appArgs, int i) {
+        if (i >= appArgs.size()) {
+            throw new FindException("missing argument to " + appArgs.get(i - 1));
+        }
+        return appArgs.get(i);
+    }
+
+    private int parseDepth(String depth) {
+        try {
+            int value = Integer.parseInt(depth);
+            if (value < 0) {
+                throw new FindException("-maxdepth must not be negative");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new FindException("-maxdepth requires a number");
+        }
+    }
+
+    private boolean parseType(String type) {
+        if (type.equals("d")) {
+            return true;
+        } else if (type.equals("f")) {
+            return false;
+        }
+        throw new FindException("unknown type " + type);
+    }
+
+    /**
+     * Finds the files by walking the tree in parallel on a work-stealing pool, one task per directory
+     * Results are written as the tasks finish, in the same order as a sequential depth-first walk (as Files.walk gives):
+     * a directory's entries up to its next subdirectory, then that subdirectory's once its task is joined
+     * With -sorted every result is kept until the walk ends, then written in sorted order
+     * Paths under the current directory are used as given, other relative paths are resolved against it
+     * The starting path is matched by its name as given, so "." never matches a -name pattern with letters
+     * With -index, paths covered by the nearest filename index are walked from the index instead, in name order
+     * within each directory rather than listing order; paths outside it, or with no index at all, fall back to the
+     * live walk, and no index is ever created
+     *
+     * @param path   the path where to look for files
+     * @param writer that Application output is written to
+     * @throws IOException if the writer throws an IOException
+     */
+    private void findFiles(String path, OutputStreamWriter writer) throws IOException {
+        Path currentDirPath = Paths.get(Shell.getCurrentDirectory());
+        Path root = Paths.get(path);
+        if (!root.startsWith(currentDirPath)) {
+            root = currentDirPath.resolve(root);
+        }
+        if (!Files.exists(root)) {
+            throw new FindException(path + " does not exist");
+        }
+
+        ForkJoinPool pool = new ForkJoinPool();
+        Path rootName = Paths.get(path).getFileName();
+        Walker walker = new Walker(currentDirPath, rootName == null ? path : rootName.toString(), writer);
+        try {
+            FilenameIndex index = this.useIndex ? FilenameIndex.locate(currentDirPath) : null;
+            if (walker.visit(root, 0)) {
+                if (index != null && index.covers(root)) {
+                    index.walk(root, walker);
+                } else {
+                    Walker.WalkTask rootTask = walker.new WalkTask(root, 0);
+                    pool.execute(rootTask);
+                    walker.writeResults(rootTask);
+                }
+            }
+            walker.token.check();
+            if (index != null) {
+                saveIndex(index);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (SecurityException e) {
+            throw new FindException("not allowed access to starting file");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (this.sorted) {
+            Collections.sort(walker.results);
+            for (String result : walker.results) {
+                writer.write(result);
+                writer.write(System.getProperty("line.separator"));
+            }
+        }
+        writer.flush();
+    }
+
+    private void saveIndex(FilenameIndex index) {
+        try {
+            index.save();
+        } catch (IOException e) {
+            throw new FindException("could not save the filename index");
+        }
+    }
+
+    /**
+     * Takes a string representing a wildcard file pattern and replaces all instances of the '*' wildcard with the regular expression .*
+     * The result is compiled once per command and matched against every file name.
+     *
+     * @param pattern the wildcard file pattern to translate
+     * @return the translated pattern with wildcards replaced by regular expressions
+     */
+    private String translatePattern(String pattern) {
+        return pattern.replaceAll("\\*", ".*");
+    }
+
+    /**
+     * Shared state of one walk: what paths are relative to, and where results go
+     * Results are written as soon as they are in walk order, or kept in results with -sorted
+     */
+    private class Walker implements FilenameIndex.Visitor {
+        private final Path currentDirPath;
+        private final String rootName;
+        private final OutputStreamWriter writer;
+        private final ArrayList<String> results = new ArrayList<>();
+        /**
+         * the results of the entry being visited outside the walk tasks (the starting path and, with -index, every path)
+         */
+        private final ArrayList<String> visited = new ArrayList<>(1);
+        private final Cancellation token = Cancellation.current();
+
+        Walker(Path currentDirPath, String rootName, OutputStreamWriter writer) {
+            this.currentDirPath = currentDirPath;
+            this.rootName = rootName;
+            this.writer = writer;
+        }
+
+        /**
+         * Reads the type of the path from the file system, then visits it and writes its result
+         * The index directory (.shellindex) below the starting path is never walked
+         *
+         * @param path  the path of the entry
+         * @param depth depth of the entry below the starting path
+         * @return true if the entry is a directory that should be walked
+         * @throws IOException if the writer throws an error
+         */
+        boolean visit(Path path, int depth) throws IOException {
+            visited.clear();
+            boolean descend = visit(path, depth, liveFlags(path, depth), visited);
+            write(visited, 0, visited.size());
+            return descend;
+        }
+
+        private int liveFlags(Path path, int depth) {
+            int flags = FilenameIndex.flagsOf(path);
+            // as in the filename index, .shellindex is reported but never walked, so -index gives the same results
+            if (depth > 0 && path.getFileName().toString().equals(TrigramIndex.INDEX_DIRECTORY)) {
+                flags &= ~FilenameIndex.DESCEND;
+            }
+            return flags;
+        }
+
+        /**
+         * Reports the path if it matches, and decides whether to descend into it, given its type flags
+         * Links are reported by what they point to, but never descended into
+         *
+         * @param path  the path of the entry
+         * @param depth depth of the entry below the starting path
+         * @param flags the entry's FilenameIndex type flags
+         * @return true if the entry is a directory that should be walked
+         */
+        @Override
+        public boolean visit(Path path, int depth, int flags) {
+            visited.clear();
+            boolean descend = visit(path, depth, flags, visited);
+            try {
+                write(visited, 0, visited.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return descend;
+        }
+
+        private boolean visit(Path path, int depth, int flags, List<String> found) {
+            // once cancelled, nothing more is reported or descended into, so the walk ends soon on every thread
+            if (token.isCancelled()) {
+                return false;
+            }
+            report(path, depth, flags, found);
+            return (flags & FilenameIndex.DESCEND) != 0 && depth < maxDepth
+                    && (prunePattern == null || !prunePattern.matcher(name(path, depth)).matches());
+        }
+
+        private String name(Path path, int depth) {
+            return depth == 0 ? rootName : path.getFileName().toString();
+        }
+
+        private void report(Path path, int depth, int flags, List<String> found) {
+            boolean typeMatches = (flags & (findDirectories ? FilenameIndex.DIRECTORY : FilenameIndex.REGULAR_FILE)) != 0;
+            if (!typeMatches || (namePattern != null && !namePattern.matcher(name(path, depth)).matches())) {
+                return;
+            }
+            String relativePath = currentDirPath.relativize(path).toString();
+            if (relativePath.isEmpty()) {
+                relativePath = ".";
+            }
+            found.add(relativePath);
+        }
+
+        private void write(List<String> found, int from, int to) throws IOException {
+            if (sorted) {
+                results.addAll(found.subList(from, to));
+                return;
+            }
+            for (String result : found.subList(from, to)) {
+                writer.write(result);
+                writer.write(System.getProperty("line.separator"));
+            }
+        }
+
+        /**
+         * Writes the results of a task and its subtasks in walk order, waiting for each task as it is reached
+         */
+        private void writeResults(WalkTask task) throws IOException {
+            task.join();
+            token.check();
+            int from = 0;
+            for (int i = 0; i < task.subtasks.size(); i++) {
+                write(task.found, from, task.positions.get(i));
+                writeResults(task.subtasks.get(i));
+                from = task.positions.get(i);
+            }
+            write(task.found, from, task.found.size());
+        }
+
+        /**
+         * Lists one directory, reporting its entries into a buffer and forking a task for each subdirectory
+         */
+        private class WalkTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Path dir;
+            private final int depth;
+            private final ArrayList<String> found = new ArrayList<>();
+            private final ArrayList<WalkTask> subtasks = new ArrayList<>();
+            /**
+             * where in found the results of each subtask go
+             */
+            private final ArrayList<Integer> positions = new ArrayList<>();
+
+            WalkTask(Path dir, int depth) {
+                this.dir = dir;
+                this.depth = depth;
+            }
+
+            @Override
+            protected void compute() {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        if (visit(entry, depth + 1, liveFlags(entry, depth + 1), found)) {
+                            positions.add(found.size());
+                            subtasks.add(new WalkTask(entry, depth + 1));
+                        }
+                    }
+                } catch (IOException | DirectoryIteratorException e) {
+                    // unreadable directories are skipped, as Files.walk callers would have to
+                    subtasks.clear();
+                    positions.clear();
+                    return;
+                }
+                for (WalkTask subtask : subtasks) {
+                    subtask.fork();
+                }
+            }
+        }
+    }
+}
+
+class Uniq implements Application {
+    private boolean ignoreCase = false;
+    private boolean count = false;
+    private boolean repeatedOnly = false;
+    private boolean uniqueOnly = false;
+    private boolean global = false;
+    private boolean offHeap = false;
+
+    /**
+     * Executes uniq command
+     * Options: -i (compare ignoring case, printing lines in lower case), -c (prefix lines with their number of
+     * adjacent occurrences), -d (only print repeated lines), -u (only print lines that are not repeated),
+     * --global (drop every line seen before anywhere in the input, not only adjacent ones) and
+     * --off-heap (keep the --global fingerprints outside the Java heap)
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        uniqLines(parseOptions(appArgs), input, writer);
+    }
+
+    /**
+     * Executes uniq command with stdin given as bytes, such as piped output
+     * Without -i and --global, lines are grouped in batches by comparing their bytes, so stdin is never decoded
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param input   bytes of stdin
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        String fileName = parseOptions(appArgs);
+        if (fileName == null && comparesBytes()) {
+            LineStage.run(new ByteLineReader(input), new GroupStage(), writer, null);
+        } else {
+            uniqLines(fileName, fileName == null ? StandardCharsets.UTF_8.decode(input).toString() : "", writer);
+        }
+    }
+
+    /**
+     * Uniq as a stage when it groups the lines of stdin by their bytes
+     *
+     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @return a stage dropping adjacent repeated lines, or null for a file, -i, --global or invalid options
+     */
+    @Override
+    public LineStage fuse(ArrayList<String> appArgs) {
+        try {
+            return parseOptions(appArgs) == null && comparesBytes() ? new GroupStage() : null;
+        } catch (UniqException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the file name, or null if there is none
+     */
+    private String parseOptions(ArrayList<String> appArgs) {
+        String fileName = null;
+        for (String arg : appArgs) {
+            switch (arg) {
+                case "-i" -> this.ignoreCase = true;
+                case "-c" -> this.count = true;
+                case "-d" -> this.repeatedOnly = true;
+                case "-u" -> this.uniqueOnly = true;
+                case "--global" -> this.global = true;
+                case "--off-heap" -> this.offHeap = true;
+                default -> {
+                    if (fileName != null) {
+                        throw new UniqException("too many arguments");
+                    }
+                    fileName = arg;
+                }
+            }
+        }
+        if (global && (count || repeatedOnly || uniqueOnly)) {
+            throw new UniqException("--global cannot be combined with -c, -d or -u");
+        }
+        if (offHeap && !global) {
+            throw new UniqException("--off-heap requires --global");
+        }
+        return fileName;
+    }
+
+    /**
+     * @return true if equal lines are equal bytes, so lines can be grouped without decoding them
+     */
+    private boolean comparesBytes() {
+        return !ignoreCase && !global;
+    }
+
+    /**
+     * Checks if filename is null
+     * If true, gets stdin
+     * Else, gets the filename
+     * Creates readers
+     *
+     * @param filename filename or null if no filename in command
+     * @param input    string for Application
+     * @param writer   that Application output is written to
+     * @throws IOException if reader throws an error
+     */
+    private void uniqLines(String filename, String input, OutputStreamWriter writer) throws IOException {
+        if (filename == null) {
+            BufferedReader inputReader = new BufferedReader(new StringReader(input));
+            uniqLineChecker(writer, inputReader);
+        } else {
+            // Input is from a file
+            Path filePath = Paths.get(filename);
+
+            if (comparesBytes()) {
+                try (InputStream in = Files.newInputStream(filePath)) {
+                    LineStage.run(new ByteLineReader(in), new GroupStage(), writer, null);
+                } catch (IOException e) {
+                    throw new UniqException("bad filename");
+                }
+                return;
+            }
+            try (BufferedReader fileReader = Files.newBufferedReader(filePath)) {
+                uniqLineChecker(writer, fileReader);
+            } catch (IOException e) {
+                throw new UniqException("bad filename");
+            }
+        }
+    }
+
+
+    /**
+     * Groups adjacent equal lines in a single pass, comparing each line once with the first line of its group
+     * and keeping only that line and a count, then writes each finished group
+     *
+     * @param writer stdout
+     * @param reader stdin or file contents
+     * @throws IOException if writer throws an error
+     */
+    private void uniqLineChecker(OutputStreamWriter writer, BufferedReader reader) throws IOException {
+        if (global) {
+            globalLineChecker(writer, reader);
+            return;
+        }
+        String currentLine;
+        String groupLine = null;
+        int groupSize = 0;
+        while ((currentLine = reader.readLine()) != null) {
+            Cancellation.checkCurrent();
+            if (groupLine != null && (ignoreCase ? groupLine.equalsIgnoreCase(currentLine) : groupLine.equals(currentLine))) {
+                groupSize++;
+                continue;
+            }
+            if (groupLine != null) {
+                writeGroup(groupLine, groupSize, writer);
+            }
+            groupLine = currentLine;
+            groupSize = 1;
+        }
+        if (groupLine != null) {
+            writeGroup(groupLine, groupSize, writer);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes each line the first time it occurs anywhere in the input, in input order
+     * Only a 64-bit fingerprint of every distinct line is kept, never the line itself, so memory grows by
+     * about 10 bytes per distinct line; two different lines share a fingerprint with a probability of
+     * roughly n^2 / 2^65 for n distinct lines, in which case the later one would be dropped
+     *
+     * @param writer stdout
+     * @param reader stdin or file contents
+     * @throws IOException if writer throws an error
+     */
+    private void globalLineChecker(OutputStreamWriter writer, BufferedReader reader) throws IOException {
+        LongHashSet seen = new LongHashSet(offHeap);
+        String currentLine;
+        while ((currentLine = reader.readLine()) != null) {
+            Cancellation.checkCurrent();
+            if (seen.add(fingerprint(currentLine))) {
+                writer.write(ignoreCase ? currentLine.toLowerCase() : currentLine);
+                writer.write(System.getProperty("line.separator"));
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the line (case-folded with -i, matching equalsIgnoreCase),
+     * finished with the length and a final mix so that short lines spread over all 64 bits
+     */
+    private long fingerprint(String line) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (ignoreCase) {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        return LongHashSet.mix(hash ^ line.length());
+    }
+
+    /**
+     * Groups adjacent equal lines batch by batch, comparing bytes
+     * The first line of the open group is referenced in place and only copied when a batch ends while it is open
+     */
+    private class GroupStage implements LineStage {
+        private final LineBatch groups = new LineBatch();
+        private byte[] groupBuffer;
+        private int groupStart;
+        private int groupLength;
+        private int groupSize = 0;
+        private byte[] carried = new byte[256];
+
+        public LineBatch process(LineBatch batch) {
+            groups.clear();
+            byte[] buffer = batch.buffer();
+            for (int i = 0; i < batch.count(); i++) {
+                int start = batch.start(i);
+                int length = batch.length(i);
+                if (groupSize > 0 && Arrays.equals(groupBuffer, groupStart, groupStart + groupLength,
+                        buffer, start, start + length)) {
+                    groupSize++;
+                    continue;
+                }
+                addGroup();
+                groupBuffer = buffer;
+                groupStart = start;
+                groupLength = length;
+                groupSize = 1;
+            }
+            if (groupSize > 0 && groupBuffer == buffer) {
+                // the batch's buffer is reused for the next batch
+                if (carried.length < groupLength) {
+                    carried = new byte[Math.max(groupLength, carried.length * 2)];
+                }
+                System.arraycopy(buffer, groupStart, carried, 0, groupLength);
+                groupBuffer = carried;
+                groupStart = 0;
+            }
+            return groups;
+        }
+
+        @Override
+        public LineBatch finish() {
+            groups.clear();
+            addGroup();
+            return groups;
+        }
+
+        private void addGroup() {
+            if (groupSize == 0 || (repeatedOnly && groupSize < 2) || (uniqueOnly && groupSize > 1)) {
+                return;
+            }
+            if (count) {
+                byte[] field = countField(groupSize).getBytes(StandardCharsets.US_ASCII);
+                groups.append(field, 0, field.length);
+                groups.append((byte) ' ');
+            }
+            groups.append(groupBuffer, groupStart, groupLength);
+            groups.endLine();
+        }
+    }
+
+    private void writeGroup(String line, int size, OutputStreamWriter writer) throws IOException {
+        if ((repeatedOnly && size < 2) || (uniqueOnly && size > 1)) {
+            return;
+        }
+        if (count) {
+            writer.write(countField(size));
+            writer.write(' ');
+        }
+        writer.write(ignoreCase ? line.toLowerCase() : line);
+        writer.write(System.getProperty("line.separator"));
+    }
+
+    /**
+     * Formats a count as uniq -c (and wc) print it
+     *
+     * @param count the count
+     * @return the count right-aligned in a field of 7 characters, or its digits alone if it has more
+     */
+    static String countField(long count) {
+        String number = Long.toString(count);
+        return number.length() >= 7 ? number : " ".repeat(7 - number.length()) + number;
+    }
+}
+
+
+class Sort implements Application {
+    /**
+     * bytes a String and its reference in a list take besides its characters
+     */
+    static final long LINE_OVERHEAD = 56;
+
+    /**
+     * whether equal lines are written only once (-u), and the last line written if so
+     */
+    private boolean unique = false;
+    private String previous;
+
+    /**
+     * Executes sort command
+     * Options: -r (sort in reverse order) and -u (write each distinct line once, as "sort | uniq" would)
      *
      * @param appArgs the arguments input after a command separated by spaces into a list
      * @param input   string for Application
@@ -717,231 +2390,901 @@ class Uniq implements Application {
      * @throws IOException throws an error if writer causes an error
      */
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
-        if (appArgs.size() > 2) {
-            throw new UniqException("too many arguments");
-        }
-        // Can expand new options by adding new booleans
-        boolean ignoreCase = appArgs.get(0).equals("-i");
-        String fileName = null;
-        // if the args are option filename
-        if (appArgs.size() == 2) {
-            fileName = appArgs.get(1);
-        }
-        // need to check for the new booleans here
-        else if (!ignoreCase) {
-            fileName = appArgs.get(0);
+        // Parse the options and file name, -u coming first or after -r
+        ArrayList<String> args = new ArrayList<>(appArgs);
+        int u = args.indexOf("-u");
+        if (u == 0 || (u == 1 && args.get(0).equals("-r"))) {
+            this.unique = true;
+            args.remove(u);
+        }
+        if (args.size() > 2) {
+            throw new SortException("too many arguments");
+        }
+        String fileName = null;
+        boolean reverseOrder = false;
+
+        if (args.size() == 2) {
+            if (args.get(0).equals("-r")) {
+                reverseOrder = true;
+            } else {
+                throw new SortException("option not supported");
+            }
+            fileName = args.get(1);
+        } else if (args.size() == 1) {
+            fileName = args.get(0);
+        }
+
+        // Perform the sort operation
+        sortLines(fileName, reverseOrder, input, writer);
+    }
+
+    /**
+     * Writes a sorted line, unless -u was given and it equals the line written before it
+     * With -u a trailing carriage return is dropped first, as uniq drops it when reading the sorted lines
+     *
+     * @param line   the next line in sorted order
+     * @param writer that Application output is written to
+     * @throws IOException if writer throws an error
+     */
+    private void writeLine(String line, OutputStreamWriter writer) throws IOException {
+        Cancellation.checkCurrent();
+        if (this.unique) {
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            if (line.equals(this.previous)) {
+                return;
+            }
+            this.previous = line;
+        }
+        writer.write(line);
+        writer.write(System.getProperty("line.separator"));
+    }
+
+    /**
+     * @param fileName     filename or null to call readLines
+     * @param reverseOrder if it needs to be reversed (-r)
+     * @param input        string for Application
+     * @param writer       that Application output is written to
+     * @throws IOException if writer throws an error
+     */
+    private void sortLines(String fileName, boolean reverseOrder, String input, OutputStreamWriter writer) throws IOException {
+        if (fileName != null) {
+            sortFile(fileName, reverseOrder, writer);
+            return;
+        }
+        List<String> lines = readLines(input);
+
+        if (reverseOrder) {
+            lines.sort(Collections.reverseOrder());
+        } else {
+            Collections.sort(lines);
+        }
+        Cancellation.checkCurrent();
+        for (String line : lines) {
+            writeLine(line, writer);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Sorts a file through its line index: only the line offsets are sorted, comparing the mapped bytes,
+     * and each line is decoded once as it is written
+     * Bytes compare in code point order, which only differs from String order for characters above U+FFFF
+     *
+     * @param fileName     name of the file to sort
+     * @param reverseOrder if it needs to be reversed (-r)
+     * @param writer       that Application output is written to
+     * @throws IOException if the file cannot be read or writer throws an error
+     */
+    private void sortFile(String fileName, boolean reverseOrder, OutputStreamWriter writer) throws IOException {
+        File file = new File(Shell.getCurrentDirectory(), fileName);
+        Path filePath = file.toPath();
+        if (Files.notExists(filePath) || Files.isDirectory(filePath) || !Files.isReadable(filePath)) {
+            throw new SortException("wrong file argument");
+        }
+        LineIndex lines = LineIndex.open(filePath);
+        // the offsets of the lines, and the line numbers with the buffer they are merged through
+        MemoryBudget.charge(16L * lines.count());
+        for (int line : lines.sortedLines(reverseOrder)) {
+            writeLine(lines.line(line), writer);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Reads lines from stdin and returns a list of lines
+     *
+     * @param input string for Application
+     * @return returns a list of lines
+     */
+    private List<String> readLines(String input) {
+        List<String> lines = new ArrayList<>(Arrays.asList(input.split(System.getProperty("line.separator"))));
+        MemoryBudget.charge(input.length() + LINE_OVERHEAD * lines.size());
+        return lines;
+    }
+}
+
+class Mkdir implements Application {
+    /**
+     * Executes mkdir command
+     * Makes a new folder with the name specified in args
+     *
+     * @param appArgs name(s) of new directories
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException if args is empty
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        if (appArgs.isEmpty()) {
+            throw new MkdirException("missing argument(s)");
+        }
+
+        for (String dirName : appArgs) {
+            createDirectory(dirName);
+        }
+    }
+
+    /**
+     * Creates a new directory with the specified name.
+     * throws Mkdir Exception if the directory already exists, security error or if the creation fails
+     *
+     * @param dirName the name of the new directory to be created
+     * @throws MkdirException if there's an error
+     */
+    private void createDirectory(String dirName) throws MkdirException {
+        File newDir = new File(Shell.getCurrentDirectory() + System.getProperty("file.separator") + dirName);
+        if (newDir.exists()) {
+            throw new MkdirException(dirName + " already exists");
+        }
+
+        if (!newDir.mkdir()) {
+            throw new MkdirException("could not create " + dirName);
+        }
+    }
+}
+
+class Touch implements Application {
+    /**
+     * Executes touch command.
+     * Creates empty files with the names specified in args.
+     *
+     * @param appArgs names of new files
+     * @param input   string for Application (not used for touch)
+     * @param writer  that Application output is written to (not used for touch)
+     * @throws IOException if args is empty or if file creation fails
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        if (appArgs.isEmpty()) {
+            throw new TouchException("missing argument(s)");
+        }
+
+        for (String fileName : appArgs) {
+            createFile(fileName);
+        }
+    }
+
+    /**
+     * Creates a new empty file with the specified name.
+     * Throws TouchException if the file already exists or if the creation fails.
+     *
+     * @param fileName the name of the new file to be created
+     * @throws TouchException if there's an error
+     */
+    private void createFile(String fileName) throws TouchException {
+        File newFile = new File(Shell.getCurrentDirectory() + System.getProperty("file.separator") + fileName);
+        try {
+            if (!newFile.createNewFile()) {
+                throw new TouchException(fileName + " already exists");
+            }
+        } catch (IOException e) {
+            throw new TouchException("could not create " + fileName);
+        }
+    }
+}
+
+class Index implements Application {
+    /**
+     * Executes index command
+     * Builds or incrementally refreshes the trigram index grep uses to skip files,
+     * for the given directory or the current directory
+     * Only files whose size or modification time changed since the last run are re-read
+     * Writes the number of indexed files and how many of them were re-read to stdout
+     * With -names, builds or refreshes the filename index used by find -index instead,
+     * re-listing only directories whose modification time changed, and reports directories
+     * With -lines FILE, saves the line-offset index of FILE next to it for sort and tail to reuse
+     *
+     * @param appArgs optionally -names, then optionally the directory to index; or -lines and a file
+     * @param input   string for Application (not used for index)
+     * @param writer  that Application output is written to
+     * @throws IOException if writer throws an error
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        if (!appArgs.isEmpty() && appArgs.get(0).equals("-lines")) {
+            indexLines(appArgs, writer);
+            return;
+        }
+        boolean names = !appArgs.isEmpty() && appArgs.get(0).equals("-names");
+        int first = names ? 1 : 0;
+        if (appArgs.size() > first + 1) {
+            throw new IndexException("too many arguments");
+        }
+        boolean hasPath = appArgs.size() > first;
+        Path dir = hasPath ? Paths.get(Shell.getCurrentDirectory(), appArgs.get(first))
+                : Paths.get(Shell.getCurrentDirectory());
+        if (!Files.isDirectory(dir)) {
+            throw new IndexException(appArgs.get(first) + " is not an existing directory");
+        }
+        if (names) {
+            indexNames(dir, writer);
+            return;
+        }
+        TrigramIndex index;
+        try {
+            index = TrigramIndex.update(dir);
+        } catch (IOException e) {
+            throw new IndexException("could not index " + dir.getFileName());
+        }
+        writer.write(index.size() + " files indexed, " + index.getReindexed() + " updated");
+        writer.write(System.getProperty("line.separator"));
+        writer.flush();
+    }
+
+    private void indexNames(Path dir, OutputStreamWriter writer) throws IOException {
+        FilenameIndex index = FilenameIndex.open(dir);
+        index.walk(dir, (path, depth, flags) -> true);
+        try {
+            index.save();
+        } catch (IOException e) {
+            throw new IndexException("could not index " + dir.getFileName());
+        }
+        writer.write(index.size() + " directories indexed, " + index.getRelisted() + " updated");
+        writer.write(System.getProperty("line.separator"));
+        writer.flush();
+    }
+
+    private void indexLines(ArrayList<String> appArgs, OutputStreamWriter writer) throws IOException {
+        if (appArgs.size() < 2) {
+            throw new IndexException("missing file argument");
+        }
+        if (appArgs.size() > 2) {
+            throw new IndexException("too many arguments");
+        }
+        Path file = Paths.get(Shell.getCurrentDirectory(), appArgs.get(1));
+        if (!Files.isRegularFile(file)) {
+            throw new IndexException(appArgs.get(1) + " is not an existing file");
+        }
+        LineIndex index;
+        try {
+            index = LineIndex.persist(file);
+        } catch (IOException e) {
+            throw new IndexException("could not index " + file.getFileName());
+        }
+        writer.write(index.count() + " lines indexed");
+        writer.write(System.getProperty("line.separator"));
+        writer.flush();
+    }
+}
+
+class Wc implements Application {
+    /**
+     * files are counted in mapped chunks of this size, so files over 2 GiB need no special case
+     */
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private boolean lines = false;
+    private boolean words = false;
+    private boolean bytes = false;
+
+    /**
+     * whether the last chunk counted ended inside a word
+     */
+    private boolean inWord = false;
+
+    /**
+     * Executes wc command
+     * Counts the newlines, words and bytes of each file, or of stdin if no file is given
+     * Options -l, -w and -c select which counts are printed; without options all three are
+     * Newlines are counted eight bytes at a time with ByteScanner, and bytes alone come from the file size
+     *
+     * @param appArgs optional -l, -w and -c, then the files to count
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        List<String> files = parseOptions(appArgs);
+        if (files.isEmpty()) {
+            ByteBuffer stdin = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+            writeCounts(count(stdin, new long[3]), null, writer);
+        } else {
+            countFiles(files, writer);
         }
-        uniqLines(fileName, ignoreCase, input, writer);
+        writer.flush();
     }
 
     /**
-     * Checks if filename is null
-     * If true, gets stdin
-     * Else, gets the filename
-     * Creates readers
+     * Executes wc on bytes redirected with '<', counting them without decoding
      *
-     * @param filename   filename or null if no filename in command
-     * @param ignoreCase bool, True if command contained option "-i"
-     * @param input      string for Application
-     * @param writer     that Application output is written to
-     * @throws IOException if reader throws an error
+     * @param appArgs optional -l, -w and -c, then the files to count
+     * @param input   bytes of stdin
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
      */
-    private void uniqLines(String filename, boolean ignoreCase, String input, OutputStreamWriter writer) throws IOException {
-        if (filename == null) {
-            BufferedReader inputReader = new BufferedReader(new StringReader(input));
-            uniqLineChecker(ignoreCase, writer, inputReader);
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        List<String> files = parseOptions(appArgs);
+        if (files.isEmpty()) {
+            writeCounts(count(input, new long[3]), null, writer);
         } else {
-            // Input is from a file
-            Path filePath = Paths.get(filename);
+            countFiles(files, writer);
+        }
+        writer.flush();
+    }
 
-            try (BufferedReader fileReader = Files.newBufferedReader(filePath)) {
-                uniqLineChecker(ignoreCase, writer, fileReader);
-            } catch (IOException e) {
-                throw new UniqException("bad filename");
+    private List<String> parseOptions(ArrayList<String> appArgs) {
+        List<String> files = new ArrayList<>();
+        for (String arg : appArgs) {
+            switch (arg) {
+                case "-l" -> this.lines = true;
+                case "-w" -> this.words = true;
+                case "-c" -> this.bytes = true;
+                default -> {
+                    if (arg.startsWith("-") && arg.length() > 1) {
+                        throw new WcException("invalid option " + arg);
+                    }
+                    files.add(arg);
+                }
+            }
+        }
+        if (!lines && !words && !bytes) {
+            lines = true;
+            words = true;
+            bytes = true;
+        }
+        return files;
+    }
+
+    /**
+     * Counts every file in turn, followed by a total line when there is more than one
+     *
+     * @param files  names of the files to count
+     * @param writer that Application output is written to
+     * @throws IOException if writer throws an error
+     */
+    private void countFiles(List<String> files, OutputStreamWriter writer) throws IOException {
+        long[] total = new long[3];
+        for (String fileName : files) {
+            Path filePath = Paths.get(Shell.getCurrentDirectory(), fileName);
+            if (!Files.isRegularFile(filePath) || !Files.isReadable(filePath)) {
+                throw new WcException("cannot read " + fileName);
+            }
+            long[] counts = countFile(filePath);
+            for (int i = 0; i < 3; i++) {
+                total[i] += counts[i];
             }
+            writeCounts(counts, fileName, writer);
+        }
+        if (files.size() > 1) {
+            writeCounts(total, "total", writer);
         }
     }
 
+    private long[] countFile(Path filePath) throws IOException {
+        long[] counts = new long[3];
+        this.inWord = false;
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (!lines && !words) {
+                counts[2] = size;
+                return counts;
+            }
+            for (long start = 0; start < size; start += CHUNK_SIZE) {
+                Cancellation.checkCurrent();
+                count(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start)), counts);
+            }
+        }
+        return counts;
+    }
 
     /**
-     * Compares lines to see if they are unique then writes to a reader
+     * Adds the newlines, words and bytes of a buffer to counts
+     * A word still open at the end of the previous chunk of the same file is continued, not counted again
      *
-     * @param ignoreCase if "-i" option in command
-     * @param writer     stdout
-     * @param reader     stdin or file contents
-     * @throws IOException if writer throws an error
+     * @param buffer the bytes to count
+     * @param counts newlines, words and bytes counted so far
+     * @return counts
      */
-    private void uniqLineChecker(boolean ignoreCase, OutputStreamWriter writer, BufferedReader reader) throws IOException {
-        String currentLine;
-        String previousLine = null;
-        while ((currentLine = reader.readLine()) != null) {
-            if (ignoreCase) {
-                currentLine = currentLine.toLowerCase();
-                previousLine = (previousLine != null) ? previousLine.toLowerCase() : null;
+    private long[] count(ByteBuffer buffer, long[] counts) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        counts[0] += ByteScanner.count(buffer, start, end, (byte) '\n');
+        if (words) {
+            boolean inWord = this.inWord;
+            for (int i = start; i < end; i++) {
+                byte b = buffer.get(i);
+                boolean space = b == ' ' || (b >= '\t' && b <= '\r');
+                if (!space && !inWord) {
+                    counts[1]++;
+                }
+                inWord = !space;
             }
-            if (!Objects.equals(currentLine, previousLine)) {
-                writer.write(currentLine);
-                writer.write(System.getProperty("line.separator"));
-                writer.flush();
+            this.inWord = inWord;
+        }
+        counts[2] += end - start;
+        return counts;
+    }
+
+    private void writeCounts(long[] counts, String name, OutputStreamWriter writer) throws IOException {
+        boolean[] selected = {lines, words, bytes};
+        boolean first = true;
+        for (int i = 0; i < 3; i++) {
+            if (!selected[i]) {
+                continue;
             }
-            previousLine = currentLine;
+            if (!first) {
+                writer.write(' ');
+            }
+            writer.write(Uniq.countField(counts[i]));
+            first = false;
+        }
+        if (name != null) {
+            writer.write(' ');
+            writer.write(name);
         }
+        writer.write(System.getProperty("line.separator"));
     }
 }
 
-
-class Sort implements Application {
+class SetOption implements Application {
     /**
-     * Executes sort command
+     * Executes set command
+     * "set -o NAME" switches a shell option on and "set +o NAME" switches it off;
+     * without arguments, every option is written with whether it is on or off
      *
-     * @param appArgs the arguments input after a command separated by spaces into a list
+     * @param appArgs nothing, or -o or +o followed by an option name
      * @param input   string for Application
      * @param writer  that Application output is written to
      * @throws IOException throws an error if writer causes an error
      */
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
-        // Parse the options and file name
-        if (appArgs.size() > 2) {
-            throw new SortException("too many arguments");
+        if (appArgs.isEmpty()) {
+            for (String option : Shell.OPTIONS) {
+                writer.write(option + (Shell.isEnabled(option) ? " on" : " off"));
+                writer.write(System.getProperty("line.separator"));
+            }
+            writer.flush();
+            return;
         }
-        String fileName = null;
-        boolean reverseOrder = false;
+        if (appArgs.size() != 2) {
+            throw new SetException("wrong number of arguments");
+        }
+        String flag = appArgs.get(0);
+        if (!flag.equals("-o") && !flag.equals("+o")) {
+            throw new SetException("invalid option " + flag);
+        }
+        String option = appArgs.get(1);
+        if (!Shell.OPTIONS.contains(option)) {
+            throw new SetException("unknown option " + option);
+        }
+        Shell.setEnabled(option, flag.equals("-o"));
+    }
+}
 
-        if (appArgs.size() == 2) {
-            if (appArgs.get(0).equals("-r")) {
-                reverseOrder = true;
-            } else {
-                throw new SortException("option not supported");
-            }
-            fileName = appArgs.get(1);
-        } else if (appArgs.size() == 1) {
-            fileName = appArgs.get(0);
+class Jobs implements Application {
+    /**
+     * Executes jobs command
+     * Writes every job started with '&' and not yet waited for, as "[ID] STATE COMMAND",
+     * where STATE is Running, Done or Failed
+     *
+     * @param appArgs no arguments
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        if (!appArgs.isEmpty()) {
+            throw new JobsException("too many arguments");
+        }
+        for (JobTable.Job job : JobTable.list()) {
+            writer.write("[" + job.id + "] " + job.state() + " " + job.text);
+            writer.write(System.getProperty("line.separator"));
         }
+        writer.flush();
+    }
+}
 
-        // Perform the sort operation
-        sortLines(fileName, reverseOrder, input, writer);
+class Wait implements Application {
+    /**
+     * Executes wait command
+     * Waits for the job with the given ID, or for every job, to finish, writes its output and removes it from the jobs.
+     * If a job failed, its error is thrown once the output of every job waited for is written
+     *
+     * @param appArgs nothing, or the ID of a job
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        if (appArgs.size() > 1) {
+            throw new WaitException("too many arguments");
+        }
+        if (appArgs.isEmpty()) {
+            JobTable.waitFor(null, writer);
+            return;
+        }
+        int id;
+        try {
+            id = Integer.parseInt(appArgs.get(0));
+        } catch (NumberFormatException e) {
+            throw new WaitException("invalid job id " + appArgs.get(0));
+        }
+        JobTable.waitFor(List.of(id), writer);
     }
+}
 
+class Parallel implements Application {
     /**
-     * @param fileName     filename or null to call readLines
-     * @param reverseOrder if it needs to be reversed (-r)
-     * @param input        string for Application
-     * @param writer       that Application output is written to
-     * @throws IOException if writer throws an error
+     * bytes of stdin per chunk, before extending the chunk to the end of its last line
      */
-    private void sortLines(String fileName, boolean reverseOrder, String input, OutputStreamWriter writer) throws IOException {
-        List<String> lines = readLines(fileName, input);
+    static final int CHUNK_SIZE = 1 << 20;
 
-        if (reverseOrder) {
-            lines.sort(Collections.reverseOrder());
-        } else {
-            Collections.sort(lines);
+    /**
+     * Executes parallel command
+     * "parallel [-j N] APP [ARGS]..." splits stdin into chunks of whole lines and runs "APP ARGS" on each chunk,
+     * N chunks at a time (by default one per processor), writing the outputs in the order of the chunks.
+     * At most 2N chunks are being run or waiting to be written at once, so the outputs held stay bounded.
+     * Only applications that treat each line of stdin on its own (see `Application.isStateless`) can be run.
+     * If a chunk fails, the outputs of the chunks before it are written and its error is thrown
+     *
+     * @param appArgs the options, the application name and its arguments
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        exec(appArgs, ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), writer);
+    }
+
+    /**
+     * Executes parallel command with stdin given as bytes, which are split without being decoded
+     *
+     * @param appArgs the options, the application name and its arguments
+     * @param input   bytes of stdin
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
+     */
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        if (!appArgs.isEmpty() && appArgs.get(0).equals("-j")) {
+            if (appArgs.size() < 2) {
+                throw new ParallelException("option -j requires an argument");
+            }
+            try {
+                jobs = Integer.parseInt(appArgs.get(1));
+            } catch (NumberFormatException e) {
+                jobs = 0;
+            }
+            if (jobs < 1) {
+                throw new ParallelException("invalid number of jobs " + appArgs.get(1));
+            }
+            i = 2;
         }
-        for (String line : lines) {
-            writer.write(line);
-            writer.write(System.getProperty("line.separator"));
+        if (i == appArgs.size()) {
+            throw new ParallelException("missing application");
+        }
+        String appName = appArgs.get(i);
+        ArrayList<String> args = new ArrayList<>(appArgs.subList(i + 1, appArgs.size()));
+        AppFactory factory = new AppFactory();
+        if (!factory.generateApp(appName).isStateless(args)) {
+            throw new ParallelException(appName + " cannot run in parallel");
+        }
+        if (!input.hasRemaining()) {
+            // the application fails on empty stdin as it would on its own
+            factory.generateApp(appName).exec(args, input, writer);
+            return;
+        }
+
+        Cancellation token = Cancellation.current();
+        MemoryBudget budget = MemoryBudget.current();
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        ArrayDeque<Future<ByteRope>> pending = new ArrayDeque<>();
+        try {
+            int start = input.position();
+            while (start < input.limit()) {
+                int end = chunkEnd(input, start);
+                ByteBuffer chunk = input.slice(start, end - start);
+                pending.add(executor.submit(() -> {
+                    Cancellation.setCurrent(token);
+                    MemoryBudget.setCurrent(budget);
+                    try {
+                        ByteRope output = new ByteRope();
+                        factory.generateApp(appName).exec(args, chunk, new SinkWriter(output));
+                        return output;
+                    } finally {
+                        MemoryBudget.setCurrent(null);
+                    }
+                }));
+                if (pending.size() == 2 * jobs) {
+                    writeOutput(pending.poll(), writer);
+                }
+                start = end;
+            }
+            while (!pending.isEmpty()) {
+                writeOutput(pending.poll(), writer);
+            }
+        } finally {
+            executor.shutdownNow();
         }
         writer.flush();
     }
 
     /**
-     * Reads lines from stdin or file and returns a list of lines
-     *
-     * @param fileName filename or null if stdin
-     * @param input    string for Application
-     * @return returns a list of lines
-     * @throws IOException if reader throws an error
+     * @return the index just after the end of the line holding the chunk's last byte, or the limit of input
      */
-    private List<String> readLines(String fileName, String input) throws IOException {
-        if (fileName == null) {
-            // Read from the provided input string
-            return new ArrayList<>(Arrays.asList(input.split(System.getProperty("line.separator"))));
-        } else {
-            // Read from the specified file
-            File file = new File(Shell.getCurrentDirectory(), fileName);
-            Path filePath = file.toPath();
-            if (Files.notExists(filePath) || Files.isDirectory(filePath) || !Files.isReadable(filePath)) {
-                throw new SortException("wrong file argument");
+    private static int chunkEnd(ByteBuffer input, int start) {
+        int end = (int) Math.min((long) start + CHUNK_SIZE, input.limit());
+        while (end < input.limit() && input.get(end - 1) != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Waits for the output of a chunk and writes it, rethrowing the error of the chunk if it failed
+     */
+    private static void writeOutput(Future<ByteRope> future, OutputStreamWriter writer) throws IOException {
+        try {
+            Cancellation.await(future).writeTo(writer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParallelException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            return Files.readAllLines(filePath, StandardCharsets.UTF_8);
+            throw new IOException(e.getCause());
         }
     }
 }
 
-class Mkdir implements Application {
+class Xargs implements Application {
+    private static final Pattern ITEM = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"|'([^']*)'");
+
+    private int maxItems = Integer.MAX_VALUE;
+    private int workers = 1;
+    private boolean keepOrder = false;
+
     /**
-     * Executes mkdir command
-     * Makes a new folder with the name specified in args
+     * Executes xargs command
+     * "xargs [-n N] [-P N] [-k] [COMMAND [ARG]...]" splits stdin into items separated by whitespace
+     * (an item may be quoted to hold whitespace), and runs "COMMAND ARG... ITEM..." with at most N items (-n) at a time.
+     * The commands are evaluated in this shell, on -P workers (1 by default) that each run in the current directory,
+     * and the output of each is written once it has finished; with -k, in the order of the items.
+     * COMMAND is echo if not given, and runs once without items if stdin has none.
+     * Once every command has finished, the error of the first that failed is thrown
      *
-     * @param appArgs name(s) of new directories
+     * @param appArgs the options, the command and its arguments
      * @param input   string for Application
      * @param writer  that Application output is written to
-     * @throws IOException if args is empty
+     * @throws IOException throws an error if writer causes an error
      */
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
-        if (appArgs.isEmpty()) {
-            throw new MkdirException("missing argument(s)");
+        List<String> command = parseArgs(appArgs);
+        ArrayList<String> items = new ArrayList<>();
+        Matcher matcher = ITEM.matcher(input);
+        while (matcher.find()) {
+            String item = matcher.group(0);
+            items.add(matcher.group(1) != null || matcher.group(2) != null ? item.substring(1, item.length() - 1) : item);
+        }
+        ArrayList<String> batches = new ArrayList<>();
+        for (int i = 0; i < items.size() || batches.isEmpty(); i += maxItems) {
+            ArrayList<String> words = new ArrayList<>(command);
+            words.addAll(items.subList(i, (int) Math.min((long) i + maxItems, items.size())));
+            batches.add(Optimizer.text(words));
         }
 
-        for (String dirName : appArgs) {
-            createDirectory(dirName);
+        String directory = Shell.getCurrentDirectory();
+        Cancellation token = Cancellation.current();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ExecutorCompletionService<ByteRope> completion = new ExecutorCompletionService<>(executor);
+        ArrayDeque<Future<ByteRope>> pending = new ArrayDeque<>();
+        HashMap<Future<ByteRope>, Integer> batchOf = new HashMap<>();
+        RuntimeException failure = null;
+        int failedBatch = batches.size();
+        try {
+            int next = 0;
+            while (next < batches.size() || !pending.isEmpty()) {
+                //keep at most two commands per worker running or waiting to be written
+                if (next < batches.size() && pending.size() < 2 * workers) {
+                    String text = batches.get(next);
+                    Future<ByteRope> future = completion.submit(() -> run(text, directory, token));
+                    pending.add(future);
+                    batchOf.put(future, next++);
+                    continue;
+                }
+                Future<ByteRope> done = keepOrder ? pending.poll() : completion.poll(50, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    token.check();
+                    continue;
+                }
+                pending.remove(done);
+                try {
+                    Cancellation.await(done).writeTo(writer);
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof RuntimeException)) {
+                        throw new IOException(e.getCause());
+                    }
+                    if (batchOf.get(done) < failedBatch) {
+                        failure = (RuntimeException) e.getCause();
+                        failedBatch = batchOf.get(done);
+                    }
+                }
+                batchOf.remove(done);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XargsException("interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+        writer.flush();
+        if (failure != null) {
+            throw failure;
         }
     }
 
     /**
-     * Creates a new directory with the specified name.
-     * throws Mkdir Exception if the directory already exists, security error or if the creation fails
-     *
-     * @param dirName the name of the new directory to be created
-     * @throws MkdirException if there's an error
+     * @return the command and its arguments, after the options
      */
-    private void createDirectory(String dirName) throws MkdirException {
-        File newDir = new File(Shell.getCurrentDirectory() + System.getProperty("file.separator") + dirName);
-        if (newDir.exists()) {
-            throw new MkdirException(dirName + " already exists");
+    private List<String> parseArgs(ArrayList<String> appArgs) {
+        int i = 0;
+        while (i < appArgs.size() && appArgs.get(i).startsWith("-")) {
+            String option = appArgs.get(i);
+            if (option.equals("-k")) {
+                keepOrder = true;
+                i++;
+                continue;
+            }
+            if (!option.equals("-n") && !option.equals("-P")) {
+                break;
+            }
+            if (i + 1 == appArgs.size()) {
+                throw new XargsException("option " + option + " requires an argument");
+            }
+            int value;
+            try {
+                value = Integer.parseInt(appArgs.get(i + 1));
+            } catch (NumberFormatException e) {
+                value = 0;
+            }
+            if (value < 1) {
+                throw new XargsException("invalid number " + appArgs.get(i + 1));
+            }
+            if (option.equals("-n")) {
+                maxItems = value;
+            } else {
+                workers = value;
+            }
+            i += 2;
         }
+        return i == appArgs.size() ? List.of("echo") : appArgs.subList(i, appArgs.size());
+    }
 
-        if (!newDir.mkdir()) {
-            throw new MkdirException("could not create " + dirName);
+    /**
+     * Evaluates a command as a call in the given directory, where a cd it runs stays, under the token of xargs
+     *
+     * @return the output of the command
+     */
+    private static ByteRope run(String text, String directory, Cancellation token) throws IOException {
+        ByteRope output = new ByteRope();
+        Shell.setJobDirectory(directory);
+        Cancellation.setCurrent(token);
+        try {
+            new Call(text, "", output).accept(new Eval());
+        } finally {
+            Shell.setJobDirectory(null);
+            Cancellation.setCurrent(null);
         }
+        return output;
     }
 }
 
-class Touch implements Application {
+class Timeout implements Application {
     /**
-     * Executes touch command.
-     * Creates empty files with the names specified in args.
+     * Executes timeout command
+     * "timeout SECONDS COMMAND [ARG]..." evaluates the command in this shell with stdin passed on to it,
+     * and cancels it if it has not finished after SECONDS (which may have a fraction).
+     * A cancelled command stops at its next check (see `Cancellation`), and what it wrote is written before the error is thrown
      *
-     * @param appArgs names of new files
-     * @param input   string for Application (not used for touch)
-     * @param writer  that Application output is written to (not used for touch)
-     * @throws IOException if args is empty or if file creation fails
+     * @param appArgs the duration, the command and its arguments
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
      */
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
-        if (appArgs.isEmpty()) {
-            throw new TouchException("missing argument(s)");
+        if (appArgs.size() < 2) {
+            throw new TimeoutException("wrong number of arguments");
         }
+        double seconds;
+        try {
+            seconds = Double.parseDouble(appArgs.get(0));
+        } catch (NumberFormatException e) {
+            seconds = Double.NaN;
+        }
+        if (!(seconds > 0) || Double.isInfinite(seconds)) {
+            throw new TimeoutException("invalid time interval " + appArgs.get(0));
+        }
+        ByteRope output = new ByteRope();
+        Call call = new Call(Optimizer.text(appArgs.subList(1, appArgs.size())), input, output);
 
-        for (String fileName : appArgs) {
-            createFile(fileName);
+        Cancellation parent = Cancellation.current();
+        Cancellation token = new Cancellation(parent);
+        ScheduledFuture<?> deadline = token.cancelAfter((long) (seconds * 1000), "timeout: timed out after " + appArgs.get(0) + " seconds");
+        Cancellation.setCurrent(token);
+        try {
+            call.accept(new Eval());
+        } finally {
+            deadline.cancel(false);
+            Cancellation.setCurrent(parent);
+            output.writeTo(writer);
+            writer.flush();
         }
     }
+}
 
+class Ulimit implements Application {
     /**
-     * Creates a new empty file with the specified name.
-     * Throws TouchException if the file already exists or if the creation fails.
+     * Executes ulimit command
+     * "ulimit -m SIZE" sets the memory a pipeline may use (see `MemoryBudget`), in kilobytes,
+     * or with a K, M or G suffix, or "unlimited"; "ulimit [-m]" writes the current limit in kilobytes
      *
-     * @param fileName the name of the new file to be created
-     * @throws TouchException if there's an error
+     * @param appArgs nothing, or -m optionally followed by a size
+     * @param input   string for Application
+     * @param writer  that Application output is written to
+     * @throws IOException throws an error if writer causes an error
      */
-    private void createFile(String fileName) throws TouchException {
-        File newFile = new File(Shell.getCurrentDirectory() + System.getProperty("file.separator") + fileName);
+    public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
+        if (appArgs.size() > 2) {
+            throw new UlimitException("too many arguments");
+        }
+        if (!appArgs.isEmpty() && !appArgs.get(0).equals("-m")) {
+            throw new UlimitException("invalid option " + appArgs.get(0));
+        }
+        if (appArgs.size() == 2) {
+            MemoryBudget.setLimit(parseSize(appArgs.get(1)));
+            return;
+        }
+        long limit = MemoryBudget.getLimit();
+        writer.write(limit == MemoryBudget.UNLIMITED ? "unlimited" : Long.toString(limit / 1024));
+        writer.write(System.getProperty("line.separator"));
+        writer.flush();
+    }
+
+    /**
+     * @return the number of bytes a size stands for
+     */
+    private static long parseSize(String size) {
+        if (size.equals("unlimited")) {
+            return MemoryBudget.UNLIMITED;
+        }
+        long unit = 1024;
+        String digits = size;
+        int suffix = size.isEmpty() ? -1 : "KMG".indexOf(Character.toUpperCase(size.charAt(size.length() - 1)));
+        if (suffix >= 0) {
+            unit = 1024L << (10 * suffix);
+            digits = size.substring(0, size.length() - 1);
+        }
         try {
-            if (!newFile.createNewFile()) {
-                throw new TouchException(fileName + " already exists");
+            long value = Long.parseLong(digits);
+            if (value > 0 && value <= Long.MAX_VALUE / unit) {
+                return value * unit;
             }
-        } catch (IOException e) {
-            throw new TouchException("could not create " + fileName);
+        } catch (NumberFormatException e) {
+            // reported below
         }
+        throw new UlimitException("invalid size " + size);
     }
-}
\ No newline at end of file
+}
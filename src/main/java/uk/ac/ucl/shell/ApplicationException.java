@@ -76,4 +76,60 @@ class TouchException extends ApplicationException {
     public TouchException(String message) {
         super("touch: " + message);
     }
-}
\ No newline at end of file
+}
+
+class IndexException extends ApplicationException {
+    public IndexException(String message) {
+        super("index: " + message);
+    }
+}
+class WcException extends ApplicationException {
+    public WcException(String message) {
+        super("wc: " + message);
+    }
+}
+class SetException extends ApplicationException {
+    public SetException(String message) {
+        super("set: " + message);
+    }
+}
+class WaitException extends ApplicationException {
+    public WaitException(String message) {
+        super("wait: " + message);
+    }
+}
+class JobsException extends ApplicationException {
+    public JobsException(String message) {
+        super("jobs: " + message);
+    }
+}
+class ParallelException extends ApplicationException {
+    public ParallelException(String message) {
+        super("parallel: " + message);
+    }
+}
+class XargsException extends ApplicationException {
+    public XargsException(String message) {
+        super("xargs: " + message);
+    }
+}
+class CancelledException extends ApplicationException {
+    public CancelledException(String message) {
+        super(message);
+    }
+}
+class TimeoutException extends ApplicationException {
+    public TimeoutException(String message) {
+        super("timeout: " + message);
+    }
+}
+class MemoryException extends ApplicationException {
+    public MemoryException(String message) {
+        super("memory: " + message);
+    }
+}
+class UlimitException extends ApplicationException {
+    public UlimitException(String message) {
+        super("ulimit: " + message);
+    }
+}
@@ -0,0 +1,160 @@
+package uk.ac.ucl.shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The `ByteLineReader` class splits a stream of bytes into lines without decoding them.
+ * After each successful call to `next()`, the current line is held in `buffer()` between `start()` and `end()`,
+ * excluding its line terminator ("\n" or "\r\n"). The buffer is reused, so a line is only valid until the next call.
+ */
+public class ByteLineReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private boolean eof = false;
+
+    public ByteLineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads lines from the remaining bytes of a buffer, such as a memory-mapped file
+     * The array behind a heap buffer (such as piped output) is read in place instead of being copied
+     */
+    public ByteLineReader(ByteBuffer input) {
+        this(input.hasArray() ? InputStream.nullInputStream() : new InputStream() {
+            @Override
+            public int read() {
+                return input.hasRemaining() ? input.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (!input.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(length, input.remaining());
+                input.get(bytes, offset, count);
+                return count;
+            }
+        });
+        if (input.hasArray()) {
+            buffer = input.array();
+            position = input.arrayOffset() + input.position();
+            limit = input.arrayOffset() + input.limit();
+            eof = true;
+        }
+    }
+
+    /**
+     * Advances to the next line, reading more of the stream if the buffer holds no complete line.
+     * A line longer than the buffer grows it.
+     *
+     * @return true if there is a next line, false at the end of the stream
+     * @throws IOException if the stream throws an error
+     */
+    public boolean next() throws IOException {
+        int searchFrom = position;
+        while (true) {
+            int newline = ByteScanner.indexOf(buffer, searchFrom, limit, (byte) '\n');
+            if (newline >= 0) {
+                setLine(position, newline > position && buffer[newline - 1] == '\r' ? newline - 1 : newline);
+                position = newline + 1;
+                return true;
+            }
+            if (eof) {
+                if (position < limit) {
+                    setLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            searchFrom = fill();
+        }
+    }
+
+    /**
+     * Fills a batch with the next lines, as many as the batch holds or the buffer has complete
+     * The batch shares the reader's buffer, so its lines are only valid until the next call.
+     *
+     * @param batch the batch to fill
+     * @return true if the batch holds at least one line, false at the end of the stream
+     * @throws IOException if the stream throws an error
+     */
+    public boolean next(LineBatch batch) throws IOException {
+        while (true) {
+            batch.reset(buffer);
+            int newline;
+            while (!batch.isFull() && (newline = ByteScanner.indexOf(buffer, position, limit, (byte) '\n')) >= 0) {
+                int end = newline > position && buffer[newline - 1] == '\r' ? newline - 1 : newline;
+                batch.add(position, end - position);
+                position = newline + 1;
+            }
+            if (batch.count() > 0) {
+                return true;
+            }
+            if (eof) {
+                if (position < limit) {
+                    batch.add(position, limit - position);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Moves the partial line to the front of the buffer, growing it if the line fills it, and reads more after it
+     *
+     * @return the index from which no byte has been searched yet
+     */
+    private int fill() throws IOException {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int searchFrom = limit;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return searchFrom;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int start() {
+        return lineStart;
+    }
+
+    public int end() {
+        return lineEnd;
+    }
+
+    public int length() {
+        return lineEnd - lineStart;
+    }
+
+    private void setLine(int start, int end) {
+        lineStart = start;
+        lineEnd = end;
+    }
+}
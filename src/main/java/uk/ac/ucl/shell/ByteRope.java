@@ -0,0 +1,141 @@
+package uk.ac.ucl.shell;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * The `ByteRope` class collects the output of the left side of a pipe as UTF-8 bytes.
+ * Bytes are appended to a list of segments that double in size up to 1 MiB, so growing never copies what was written.
+ * The right side receives the bytes as a buffer (joined into one array only if there is more than one segment),
+ * and they are decoded into a String only when an application asks for characters.
+ * Every segment, join and decoding is charged to the memory budget of the pipeline writing or reading the rope.
+ */
+public class ByteRope extends OutputStream {
+
+    private static final int FIRST_SEGMENT = 1 << 13;
+    private static final int MAX_SEGMENT = 1 << 20;
+
+    private final ArrayList<byte[]> segments = new ArrayList<>();
+
+    /**
+     * number of bytes used in the last segment
+     */
+    private int used = 0;
+    private long size = 0;
+
+    /**
+     * the decoded bytes, kept until the next write
+     */
+    private String text;
+
+    @Override
+    public void write(int b) {
+        if (segments.isEmpty() || used == segments.get(segments.size() - 1).length) {
+            addSegment(1);
+        }
+        segments.get(segments.size() - 1)[used++] = (byte) b;
+        size++;
+        text = null;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (segments.isEmpty() || used == segments.get(segments.size() - 1).length) {
+                addSegment(length);
+            }
+            byte[] last = segments.get(segments.size() - 1);
+            int chunk = Math.min(length, last.length - used);
+            System.arraycopy(bytes, offset, last, used, chunk);
+            used += chunk;
+            offset += chunk;
+            length -= chunk;
+            size += chunk;
+        }
+        text = null;
+    }
+
+    private void addSegment(int needed) {
+        int length = segments.isEmpty() ? FIRST_SEGMENT
+                : Math.min(segments.get(segments.size() - 1).length * 2, MAX_SEGMENT);
+        length = Math.max(length, Math.min(needed, MAX_SEGMENT));
+        MemoryBudget.charge(length);
+        segments.add(new byte[length]);
+        used = 0;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the bytes written as one buffer backed by an array
+     * More than one segment is joined into a single array once, which later calls then reuse
+     *
+     * @return a buffer over all bytes written
+     */
+    public ByteBuffer toByteBuffer() {
+        if (segments.isEmpty()) {
+            return ByteBuffer.allocate(0);
+        }
+        if (segments.size() > 1) {
+            // the segments are given back once joined, but both are held while copying
+            MemoryBudget.charge(size);
+            byte[] joined = new byte[Math.toIntExact(size)];
+            int position = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                byte[] segment = segments.get(i);
+                int length = i == segments.size() - 1 ? used : segment.length;
+                System.arraycopy(segment, 0, joined, position, length);
+                position += length;
+            }
+            segments.clear();
+            segments.add(joined);
+            MemoryBudget.release(size);
+            used = joined.length;
+        }
+        return ByteBuffer.wrap(segments.get(0), 0, used);
+    }
+
+    /**
+     * Writes every byte written to the rope, segment by segment without joining them
+     * A SinkWriter gets the bytes themselves; any other writer gets them decoded as UTF-8
+     *
+     * @param writer that the bytes are written to
+     * @throws IOException if writer throws an error
+     */
+    public void writeTo(OutputStreamWriter writer) throws IOException {
+        if (!(writer instanceof SinkWriter)) {
+            writer.write(toString());
+            return;
+        }
+        WritableByteChannel sink = ((SinkWriter) writer).channel();
+        for (int i = 0; i < segments.size(); i++) {
+            ByteBuffer bytes = ByteBuffer.wrap(segments.get(i), 0, i == segments.size() - 1 ? used : segments.get(i).length);
+            while (bytes.hasRemaining()) {
+                sink.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes written decoded as UTF-8
+     */
+    @Override
+    public String toString() {
+        if (text == null) {
+            ByteBuffer bytes = toByteBuffer();
+            MemoryBudget.charge(bytes.limit());
+            text = new String(bytes.array(), 0, bytes.limit(), StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,163 @@
+package uk.ac.ucl.shell;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The `ByteScanner` class finds bytes such as '\n' or a field delimiter eight bytes at a time.
+ * Each step loads a long and turns every byte equal to the target into a set high bit (SWAR, "SIMD within a register"),
+ * so a whole word without the target costs a few arithmetic operations instead of eight compares and branches.
+ * The word is loaded little-endian, which makes the lowest set bit the first matching byte.
+ */
+public final class ByteScanner {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long ONES = 0x0101010101010101L;
+
+    private ByteScanner() {
+    }
+
+    /**
+     * @return a word with the high bit of exactly those bytes of word that are zero
+     */
+    private static long zeroBytes(long word) {
+        long low = (word & LOW_BITS) + LOW_BITS;
+        return ~(low | word | LOW_BITS);
+    }
+
+    private static long matches(long word, long pattern) {
+        return zeroBytes(word ^ pattern);
+    }
+
+    /**
+     * @return the index of the first occurrence of target in bytes[start, end), or -1 if there is none
+     */
+    public static int indexOf(byte[] bytes, int start, int end, byte target) {
+        long pattern = (target & 0xFFL) * ONES;
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long found = matches((long) LONGS.get(bytes, i), pattern);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            if (bytes[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first occurrence of target in buffer[start, end), or -1 if there is none
+     */
+    public static int indexOf(ByteBuffer buffer, int start, int end, byte target) {
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset();
+            int found = indexOf(buffer.array(), offset + start, offset + end, target);
+            return found < 0 ? -1 : found - offset;
+        }
+        ByteBuffer words = buffer.order() == ByteOrder.LITTLE_ENDIAN ? buffer
+                : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long pattern = (target & 0xFFL) * ONES;
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long found = matches(words.getLong(i), pattern);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            if (buffer.get(i) == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the last occurrence of target in buffer[start, end), or -1 if there is none
+     */
+    public static int lastIndexOf(ByteBuffer buffer, int start, int end, byte target) {
+        ByteBuffer words = buffer.order() == ByteOrder.LITTLE_ENDIAN ? buffer
+                : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long pattern = (target & 0xFFL) * ONES;
+        int i = end;
+        for (; i - Long.BYTES >= start; i -= Long.BYTES) {
+            long found = matches(words.getLong(i - Long.BYTES), pattern);
+            if (found != 0) {
+                return i - 1 - (Long.numberOfLeadingZeros(found) >>> 3);
+            }
+        }
+        for (i--; i >= start; i--) {
+            if (buffer.get(i) == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of occurrences of target in bytes[start, end)
+     */
+    public static long count(byte[] bytes, int start, int end, byte target) {
+        long pattern = (target & 0xFFL) * ONES;
+        long count = 0;
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            count += Long.bitCount(matches((long) LONGS.get(bytes, i), pattern));
+        }
+        for (; i < end; i++) {
+            if (bytes[i] == target) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of occurrences of target in buffer[start, end)
+     */
+    public static long count(ByteBuffer buffer, int start, int end, byte target) {
+        if (buffer.hasArray()) {
+            return count(buffer.array(), buffer.arrayOffset() + start, buffer.arrayOffset() + end, target);
+        }
+        ByteBuffer words = buffer.order() == ByteOrder.LITTLE_ENDIAN ? buffer
+                : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long pattern = (target & 0xFFL) * ONES;
+        long count = 0;
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            count += Long.bitCount(matches(words.getLong(i), pattern));
+        }
+        for (; i < end; i++) {
+            if (buffer.get(i) == target) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if every byte in bytes[start, end) is ASCII (below 0x80)
+     */
+    public static boolean isAscii(byte[] bytes, int start, int end) {
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            if (((long) LONGS.get(bytes, i) & HIGH_BITS) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+package uk.ac.ucl.shell;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `Cancellation` class is a token that asks the command running under it to stop.
+ * Each thread runs under a current token: `Eval` checks it before every call, and applications check it
+ * once per batch of lines, file or directory, so a cancelled command stops at the next check by throwing
+ * a `CancelledException`, which closes the files and shuts down the threads it was using on its way out.
+ * A token made from a parent is also cancelled when its parent is, so `timeout` can cancel a command
+ * without cancelling the command line around it, while Ctrl-C cancels both.
+ * Threads started for a command (such as those of `parallel` or `xargs`) run under the token of the thread starting them.
+ */
+public class Cancellation {
+
+    private static final Cancellation NEVER = new Cancellation();
+
+    /**
+     * how often a thread waiting for another checks its own token
+     */
+    private static final long POLL_MILLIS = 50;
+
+    private static final InheritableThreadLocal<Cancellation> current = new InheritableThreadLocal<>();
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Cancellation parent;
+    private volatile String reason;
+
+    public Cancellation() {
+        this(null);
+    }
+
+    /**
+     * @param parent a token whose cancellation also cancels this one, or null for none
+     */
+    public Cancellation(Cancellation parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * @return the token of the current thread, which is never cancelled if none was set
+     */
+    public static Cancellation current() {
+        Cancellation token = current.get();
+        return token == null ? NEVER : token;
+    }
+
+    /**
+     * @param token the token the current thread runs under from now on, or null for none
+     */
+    public static void setCurrent(Cancellation token) {
+        if (token == null) {
+            current.remove();
+        } else {
+            current.set(token);
+        }
+    }
+
+    /**
+     * Throws if the token of the current thread has been cancelled
+     *
+     * @throws CancelledException with the reason the token was cancelled for
+     */
+    public static void checkCurrent() {
+        current().check();
+    }
+
+    /**
+     * Waits for a task to finish, checking the token of the current thread while waiting,
+     * so that a command waiting for its own threads (or a job) stops waiting as soon as it is cancelled
+     *
+     * @param future the task to wait for
+     * @param <T>    the type of the task's result
+     * @return the result of the task
+     * @throws CancelledException   if the token is cancelled before the task finishes
+     * @throws ExecutionException   if the task threw an error
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public static <T> T await(Future<T> future) throws ExecutionException, InterruptedException {
+        Cancellation token = current();
+        while (true) {
+            try {
+                return future.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (java.util.concurrent.TimeoutException e) {
+                token.check();
+            }
+        }
+    }
+
+    /**
+     * Cancels the token, unless it has been cancelled already
+     *
+     * @param reason the message of the error thrown by the next check
+     */
+    public void cancel(String reason) {
+        if (this != NEVER && this.reason == null) {
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Cancels the token once a delay has passed
+     *
+     * @param millis the delay in milliseconds
+     * @param reason the message of the error thrown by the next check after that
+     * @return the scheduled cancellation, to be cancelled itself if the command finishes in time
+     */
+    public ScheduledFuture<?> cancelAfter(long millis, String reason) {
+        return timer.schedule(() -> cancel(reason), millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the reason this token or one of its parents was cancelled for, or null if none was
+     */
+    public String reason() {
+        if (reason != null) {
+            return reason;
+        }
+        return parent == null ? null : parent.reason();
+    }
+
+    public boolean isCancelled() {
+        return reason() != null;
+    }
+
+    /**
+     * @throws CancelledException if this token or one of its parents has been cancelled
+     */
+    public void check() {
+        String cause = reason();
+        if (cause != null) {
+            throw new CancelledException(cause);
+        }
+    }
+}
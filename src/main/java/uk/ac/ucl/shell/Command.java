@@ -12,6 +12,11 @@ public abstract class Command {
     private OutputStream output;
     private String input;
 
+    /**
+     * the input as bytes when it comes from a pipe, decoded into input only if asked for as text
+     */
+    private ByteRope inputBytes;
+
     /**
      * Constructs a `Command` object with specified input string and output stream.
      *
@@ -40,11 +45,32 @@ public abstract class Command {
     }
 
     public String getInput() {
+        if (this.input == null && this.inputBytes != null) {
+            this.input = this.inputBytes.toString();
+        }
         return this.input;
     }
 
     public void setInput(String input) {
         this.input = input;
+        this.inputBytes = null;
+    }
+
+    /**
+     * @return the input bytes given by a pipe, or null if the input was given as text
+     */
+    public ByteRope getInputBytes() {
+        return this.inputBytes;
+    }
+
+    /**
+     * Sets the input as UTF-8 bytes, which are only decoded if getInput() is called
+     *
+     * @param inputBytes The input bytes for the command.
+     */
+    public void setInput(ByteRope inputBytes) {
+        this.inputBytes = inputBytes;
+        this.input = null;
     }
 }
 
@@ -163,3 +189,44 @@ class Seq extends Command {
         return right;
     }
 }
+
+/**
+ * The `Background` class represents a command followed by '&', which runs as a job while the shell goes on.
+ */
+class Background extends Command {
+
+    private Command command;
+    private String text;
+
+    /**
+     * Constructs a `Background` object that runs a command as a job.
+     *
+     * @param command The command to run in the background.
+     * @param text    The command as typed, shown by jobs.
+     * @param input   The input string for the background command.
+     * @param output  The output stream where background command results will be directed once waited for.
+     */
+    public Background(Command command, String text, String input, OutputStream output) {
+        super(input, output);
+        this.command = command;
+        this.text = text;
+    }
+
+    /**
+     * Accepts a visitor specific to `Background` commands.
+     *
+     * @param visitor The CommandVisitor used to visit this command.
+     * @throws IOException If an I/O error occurs while visiting the command.
+     */
+    public void accept(CommandVisitor visitor) throws IOException {
+        visitor.visit(this);
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
@@ -14,6 +14,9 @@ public class CommandConverter extends ShellGrammarBaseVisitor<Command> {
      */
     public Command visitSeq1(ShellGrammarParser.Seq1Context ctx) {
         Command left = visit(ctx.left);
+        if (isBlankAfterBackground(ctx.getChildCount(), ctx.left.getText(), ctx.right.getText())) {
+            return left;
+        }
         Command right = visit(ctx.right);
         return new Seq(left, right, "", System.out);
     }
@@ -27,10 +30,46 @@ public class CommandConverter extends ShellGrammarBaseVisitor<Command> {
      */
     public Command visitSeq2(ShellGrammarParser.Seq2Context ctx) {
         Command left = visit(ctx.left);
+        if (isBlankAfterBackground(ctx.getChildCount(), ctx.left.getText(), ctx.right.getText())) {
+            return left;
+        }
         Command right = visit(ctx.right);
         return new Seq(left, right, "", System.out);
     }
 
+    /**
+     * Tells whether the right command of a sequence is only the whitespace after a `&`, as in "a & " or "a & ; b",
+     * which is dropped rather than run as an empty command
+     *
+     * @param childCount the number of children of the sequence, which is 2 if there is no `;` between its commands
+     * @param left       the text of the left command
+     * @param right      the text of the right command
+     * @return true if the right command should be dropped
+     */
+    private static boolean isBlankAfterBackground(int childCount, String left, String right) {
+        return childCount == 2 && left.endsWith("&") && right.isBlank();
+    }
+
+    /**
+     * Visits a Background context, creates a Background command running the command before the `&` as a job.
+     *
+     * @param ctx The Background context to be visited.
+     * @return A Background command holding the command to run.
+     */
+    public Command visitBackground(ShellGrammarParser.BackgroundContext ctx) {
+        return new Background(visit(ctx.command()), ctx.command().getText().trim(), "", System.out);
+    }
+
+    /**
+     * Visits a Foreground context, a command not followed by `&`, which is converted as it is.
+     *
+     * @param ctx The Foreground context to be visited.
+     * @return The command.
+     */
+    public Command visitForeground(ShellGrammarParser.ForegroundContext ctx) {
+        return visit(ctx.command());
+    }
+
     /**
      * Visits a PipeCommand context, creates a Pipe command with left and right commands, and default input/output streams.
      *
@@ -11,4 +11,6 @@ public interface CommandVisitor {
     void visit(Pipe pipe) throws IOException;
 
     void visit(Seq seq) throws IOException;
+
+    void visit(Background background) throws IOException;
 }
@@ -2,6 +2,7 @@ package uk.ac.ucl.shell;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -27,6 +28,41 @@ public abstract class Decorator implements Application {
     public void exec(ArrayList<String> appArgs, String input, OutputStreamWriter writer) throws IOException {
         decoratedApp.exec(appArgs, input, writer);
     }
+
+    /**
+     * Executes the decorated application with stdin given as bytes, so it can still consume them without decoding.
+     *
+     * @param appArgs The arguments for the application.
+     * @param input   The input bytes for the application.
+     * @param writer  The OutputStreamWriter for the application output.
+     * @throws IOException If an I/O error occurs during application execution.
+     */
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+        decoratedApp.exec(appArgs, input, writer);
+    }
+
+    /**
+     * Returns the stage of the decorated application, so decorating an application does not stop it being fused.
+     *
+     * @param appArgs The arguments for the application.
+     * @return The decorated application's stage, or null.
+     */
+    @Override
+    public LineStage fuse(ArrayList<String> appArgs) {
+        return decoratedApp.fuse(appArgs);
+    }
+
+    /**
+     * Returns whether the decorated application is stateless.
+     *
+     * @param appArgs The arguments for the application.
+     * @return The decorated application's answer.
+     */
+    @Override
+    public boolean isStateless(ArrayList<String> appArgs) {
+        return decoratedApp.isStateless(appArgs);
+    }
 }
 
 /**
@@ -60,4 +96,37 @@ class UnsafeDecorator extends Decorator {
         }
 
     }
+
+    /**
+     * Executes the decorated application with stdin given as bytes,
+     * catching any exceptions that occur and writing their messages to the output writer.
+     *
+     * @param appArgs The arguments for the application.
+     * @param input   The input bytes for the application.
+     * @param writer  The OutputStreamWriter for the application output.
+     * @throws IOException If an I/O error occurs during application execution.
+     */
+    @Override
+    public void exec(ArrayList<String> appArgs, ByteBuffer input, OutputStreamWriter writer) throws IOException {
+
+        try {
+            super.exec(appArgs, input, writer);
+        } catch (Exception e) {
+            writer.write(e.getMessage());
+            writer.write(System.getProperty("line.separator"));
+            writer.flush();
+        }
+
+    }
+
+    /**
+     * An unsafe application is never fused, since its errors must be caught where it runs.
+     *
+     * @param appArgs The arguments for the application.
+     * @return null
+     */
+    @Override
+    public LineStage fuse(ArrayList<String> appArgs) {
+        return null;
+    }
 }
\ No newline at end of file
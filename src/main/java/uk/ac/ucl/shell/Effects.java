@@ -0,0 +1,195 @@
+package uk.ac.ucl.shell;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The `Effects` class over-approximates what a command does to the file system, so `Eval` can tell
+ * which commands of a sequence may run at the same time.
+ * Every argument counts as a file read, and every '>' or '>>' target (or the directory given to mkdir or touch,
+ * or the existing filename index find -index refreshes) as a file written. Commands that change the shell itself (cd, set, ulimit), write files their arguments do not name (index),
+ * run commands their arguments do not name in full (xargs) or run another command (timeout),
+ * or run a command substitution, are barriers that always run on their own.
+ * Commands that list directories (ls, find) or have words that may be globbed are taken to read every file.
+ */
+public class Effects {
+
+    private static final Pattern WORD = Pattern.compile("[^\\s\"'><`]+|\"([^\"]*)\"|'([^']*)'|(`)|(<)|(>>)|(>)");
+    private static final List<String> BARRIERS = List.of("cd", "set", "ulimit", "jobs", "wait", "index", "xargs", "timeout");
+    private static final List<String> CREATORS = List.of("mkdir", "touch");
+    private static final List<String> LISTERS = List.of("ls", "find");
+
+    private final Set<Path> reads = new HashSet<>();
+    private final Set<Path> writes = new HashSet<>();
+    private boolean readsEverything = false;
+    private boolean writesBeyondRedirections = false;
+    private boolean barrier = false;
+
+    private Effects() {
+    }
+
+    /**
+     * Finds the effects of a command, resolving file names against the current directory
+     *
+     * @param command a call, pipe or sequence
+     * @return the effects of all its calls
+     */
+    public static Effects of(Command command) {
+        Effects effects = new Effects();
+        effects.add(command);
+        return effects;
+    }
+
+    private void add(Command command) {
+        if (command instanceof Call) {
+            addCall(((Call) command).getAtomicCommand());
+        } else if (command instanceof Pipe) {
+            add(((Pipe) command).getLeft());
+            add(((Pipe) command).getRight());
+        } else if (command instanceof Seq) {
+            add(((Seq) command).getLeft());
+            add(((Seq) command).getRight());
+        } else {
+            barrier = true;
+        }
+    }
+
+    private void addCall(String atomicCommand) {
+        Matcher matcher = WORD.matcher(atomicCommand);
+        ArrayList<String> args = new ArrayList<>();
+        //nextToken = 1 if the next token is an input file, 2 if output file, 0 otherwise
+        int nextToken = 0;
+        while (matcher.find()) {
+            if (matcher.group(3) != null) {
+                barrier = true;
+                return;
+            }
+            if (matcher.group(4) != null) {
+                nextToken = 1;
+                continue;
+            }
+            if (matcher.group(5) != null || matcher.group(6) != null) {
+                nextToken = 2;
+                continue;
+            }
+            String word = matcher.group(0);
+            if (matcher.group(1) != null || matcher.group(2) != null) {
+                word = word.substring(1, word.length() - 1);
+            } else if (word.matches(".*[*?\\[{].*")) {
+                readsEverything = true;
+            }
+            if (nextToken == 2) {
+                writes.add(resolve(word));
+            } else if (nextToken == 1) {
+                reads.add(resolve(word));
+            } else {
+                args.add(word);
+            }
+            nextToken = 0;
+        }
+        if (args.isEmpty()) {
+            return;
+        }
+        String app = args.get(0).startsWith("_") ? args.get(0).substring(1) : args.get(0);
+        List<String> appArgs = args.subList(1, args.size());
+        if (BARRIERS.contains(app)) {
+            barrier = true;
+        } else if (CREATORS.contains(app)) {
+            for (String arg : appArgs) {
+                writes.add(resolve(arg));
+            }
+            writesBeyondRedirections |= !appArgs.isEmpty();
+        } else {
+            readsEverything |= LISTERS.contains(app);
+            for (String arg : appArgs) {
+                reads.add(resolve(arg));
+            }
+            Path index = app.equals("find") && appArgs.contains("-index")
+                    ? FilenameIndex.fileOf(Paths.get(Shell.getCurrentDirectory())) : null;
+            if (index != null) {
+                writes.add(index);
+                writesBeyondRedirections = true;
+            }
+        }
+    }
+
+    private static Path resolve(String fileName) {
+        return Paths.get(Shell.getCurrentDirectory() + File.separator + fileName).toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return true if the command must run on its own, with every command before it finished
+     */
+    public boolean isBarrier() {
+        return barrier;
+    }
+
+    /**
+     * @return the files the command reads, as absolute paths
+     */
+    Set<Path> reads() {
+        return reads;
+    }
+
+    /**
+     * @return the files the command writes, as absolute paths
+     */
+    Set<Path> writes() {
+        return writes;
+    }
+
+    /**
+     * @return true if the command writes files other than its '>' and '>>' targets, which cannot be staged
+     */
+    boolean writesBeyondRedirections() {
+        return writesBeyondRedirections;
+    }
+
+    /**
+     * @return true if the command may read files its arguments do not name
+     */
+    boolean readsEverything() {
+        return readsEverything;
+    }
+
+    /**
+     * @param other the effects of another command
+     * @return true if running the commands at the same time may give a different result than running them in order
+     */
+    public boolean conflictsWith(Effects other) {
+        return writesAny(other.reads, other.writes, other.readsEverything) || other.writesAny(reads, writes, readsEverything);
+    }
+
+    /**
+     * @return true if this writes a file under or equal to one of the paths given, or if it writes anything while
+     * everything is read
+     */
+    private boolean writesAny(Set<Path> otherReads, Set<Path> otherWrites, boolean otherReadsEverything) {
+        if (writes.isEmpty()) {
+            return false;
+        }
+        if (otherReadsEverything) {
+            return true;
+        }
+        for (Path written : writes) {
+            for (Path path : otherReads) {
+                if (written.startsWith(path) || path.startsWith(written)) {
+                    return true;
+                }
+            }
+            for (Path path : otherWrites) {
+                if (written.startsWith(path) || path.startsWith(written)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -1,12 +1,21 @@
 package uk.ac.ucl.shell;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,6 +25,11 @@ import java.util.regex.Pattern;
  */
 public class Eval implements CommandVisitor {
 
+    /**
+     * files at least this large are memory-mapped by a '<' redirection instead of being read onto the heap
+     */
+    static final long MAP_THRESHOLD = 1 << 16;
+
     /**
      * Retrieves the text content from a file.
      *
@@ -25,6 +39,24 @@ public class Eval implements CommandVisitor {
      * @throws FileNotFoundException if the file is a directory or does not exist.
      */
     public static String getFileText(String fileName) throws IOException {
+        ByteBuffer bytes = getFileBytes(fileName);
+        long size = bytes.remaining();
+        MemoryBudget.chargeDecoding(size);
+        String text = StandardCharsets.UTF_8.decode(bytes).toString();
+        MemoryBudget.releaseDecoding(size);
+        return text;
+    }
+
+    /**
+     * Retrieves the bytes of a file for a '<' redirection without decoding them.
+     * Large files are memory-mapped, so their pages are only read as the application consumes them.
+     *
+     * @param fileName The name of the file in the Shell's current directory.
+     * @return A buffer holding the bytes of the file.
+     * @throws IOException           If an I/O error occurs while reading the file.
+     * @throws FileNotFoundException if the file is a directory or does not exist.
+     */
+    public static ByteBuffer getFileBytes(String fileName) throws IOException {
         File f = new File(Shell.getCurrentDirectory() + System.getProperty("file.separator") + fileName);
 
         //if the file doesn't exist or it's a directory, throw an error
@@ -34,13 +66,19 @@ public class Eval implements CommandVisitor {
             throw new FileNotFoundException("File " + fileName + " does not exist");
         }
 
-        //otherwise, read the whole file and return it
-        String content = Files.readString(f.toPath(), StandardCharsets.UTF_8);
-        return content;
+        //otherwise, map the file, or read it if it is small
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                return ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
     }
 
     /**
      * Retrieves an OutputStreamWriter for writing to a file, creating the file if it does not already exist.
+     * The writer is a SinkWriter over the file, so applications can also copy bytes to the file's channel.
      *
      * @param fileName The name of the file.
      * @return The OutputStreamWriter for the file.
@@ -48,6 +86,22 @@ public class Eval implements CommandVisitor {
      * @throws FileNotFoundException if the file is a directory.
      */
     public static OutputStreamWriter getOutputWriter(String fileName) throws IOException {
+        return getOutputWriter(fileName, false);
+    }
+
+    /**
+     * Retrieves an OutputStreamWriter for a '>' or '>>' redirection, creating the file if it does not already exist.
+     * Output goes through a buffer to the file's channel, which is opened in append mode for '>>',
+     * so every write lands at the current end of the file and the existing content is never read or rewritten.
+     * If the current thread stages its outputs (see `StagedOutputs`), a temporary file is written instead.
+     *
+     * @param fileName The name of the file.
+     * @param append   True to append to the file ('>>'), false to truncate it ('>').
+     * @return The OutputStreamWriter for the file.
+     * @throws IOException           If an I/O error occurs while accessing the file.
+     * @throws FileNotFoundException if the file is a directory.
+     */
+    public static OutputStreamWriter getOutputWriter(String fileName, boolean append) throws IOException {
         File f = new File(Shell.getCurrentDirectory() + System.getProperty("file.separator") + fileName);
 
         //throw an error if the file is a directory
@@ -55,14 +109,17 @@ public class Eval implements CommandVisitor {
             throw new FileNotFoundException("Output file may not be a directory");
         }
 
-        //create the file if it doesn't exist, and return a writer for it
-        f.createNewFile();
-        FileWriter fileWriter = new FileWriter(f);
-        return fileWriter;
+        //create the file if it doesn't exist, or the file standing in for it if outputs are staged, and return a writer for it
+        StagedOutputs staged = StagedOutputs.current();
+        FileChannel channel = staged != null ? staged.open(f.toPath(), append)
+                : FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        return new SinkWriter(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), channel);
     }
 
     /**
      * Parses the atomic command and extracts application name, arguments, input and output file names.
+     * Files redirected to with '>>' are added to the output file names as well.
      *
      * @param atomicCommand   The atomic command to parse.
      * @param appArgs         The list to store application arguments.
@@ -73,77 +130,113 @@ public class Eval implements CommandVisitor {
      * @throws RuntimeException if no tokens are found while processing the command.
      */
     public static String patternMatcher(String atomicCommand, ArrayList<String> appArgs, ArrayList<String> inputFileNames, ArrayList<String> outputFileNames) throws IOException {
+        return patternMatcher(atomicCommand, appArgs, inputFileNames, outputFileNames, outputFileNames);
+    }
+
+    /**
+     * Parses the atomic command and extracts application name, arguments, input, output and append file names.
+     *
+     * @param atomicCommand   The atomic command to parse.
+     * @param appArgs         The list to store application arguments.
+     * @param inputFileNames  The list to store input file names.
+     * @param outputFileNames The list to store output file names ('>').
+     * @param appendFileNames The list to store append file names ('>>').
+     * @return The name of the application.
+     * @throws IOException      If an I/O error occurs while processing the command.
+     * @throws RuntimeException if no tokens are found while processing the command.
+     */
+    public static String patternMatcher(String atomicCommand, ArrayList<String> appArgs, ArrayList<String> inputFileNames, ArrayList<String> outputFileNames, ArrayList<String> appendFileNames) throws IOException {
         //define patterns to find in atomicCommand and create matcher
-        String patterns = "[^\\s\"'><`]+|\"([^\"]*)\"|'([^']*)'|`([^`]*)`|(<)|(>)|(>)";
+        String patterns = "[^\\s\"'><`]+|\"([^\"]*)\"|'([^']*)'|`([^`]*)`|(<)|(>>)|(>)";
         Pattern pattern = Pattern.compile(patterns);
         Matcher matcher = pattern.matcher(atomicCommand);
         ArrayList<String> tokens = new ArrayList<String>();
 
-        //nextToken = 1 if the next token is an input file, 2 if output file, 0 otherwise
-        int nextToken = 0;
-        while (matcher.find()) {
-
-            //group 3 matches backquoted strings and handles command substitution
-            if (matcher.group(3) != null) {
-                //extract subcommand from backquotes
-                String backQuoted = matcher.group(0).trim();
-                String subCommand = backQuoted.substring(1, backQuoted.length() - 1);
-                //run subcommand and store its output
-                ByteArrayOutputStream subOutput = new ByteArrayOutputStream();
-                Call c = new Call(subCommand, "", subOutput);
-                c.accept(new Eval());
-                String subOutputString = subOutput.toString();
-
-                //substitute the backquoted command with its output to continue matching
-                atomicCommand = subOutputString + " " + atomicCommand.substring(matcher.end(0));
-                matcher = pattern.matcher(atomicCommand);
-
-                //if group 3 matched, next token isn't input or output
-                nextToken = 0;
-                continue;
-            }
-
-            //group 4 matches '<' and group 5 matches '>'
-            if (matcher.group(4) != null) {
-                nextToken = 1;
-                continue;
-            }
-            if (matcher.group(5) != null) {
-                nextToken = 2;
-                continue;
-            }
+        //start the backquoted commands that may run at the same time; their outputs are taken in order below
+        Substitution substitution = Substitution.start(atomicCommand, pattern);
+        //text from index originalFrom on is still that of the atomic command, from index originalOffset on
+        int originalFrom = 0, originalOffset = 0;
 
-            //group 1 matches double quoted text and group 2 matches single quoted text
-            if (matcher.group(1) != null || matcher.group(2) != null) {
-                String quoted = matcher.group(0).trim();
-                if (nextToken == 0) tokens.add(quoted.substring(1, quoted.length() - 1));
-                else if (nextToken == 1) inputFileNames.add(quoted.substring(1, quoted.length() - 1));
-                else outputFileNames.add(quoted.substring(1, quoted.length() - 1));
+        //nextToken = 1 if the next token is an input file, 2 if output file, 3 if append file, 0 otherwise
+        int nextToken = 0;
+        try {
+            while (matcher.find()) {
+
+                //group 3 matches backquoted strings and handles command substitution
+                if (matcher.group(3) != null) {
+                    //extract subcommand from backquotes
+                    String backQuoted = matcher.group(0).trim();
+                    String subCommand = backQuoted.substring(1, backQuoted.length() - 1);
+                    //run subcommand, or wait for it if it was started, and take its output
+                    int start = matcher.start(0) >= originalFrom ? originalOffset + matcher.start(0) - originalFrom : -1;
+                    String subOutputString = substitution.output(start, subCommand);
+
+                    //substitute the backquoted command with its output to continue matching
+                    int end = matcher.end(0);
+                    if (end >= originalFrom) {
+                        originalOffset += end - originalFrom;
+                        originalFrom = subOutputString.length() + 1;
+                    } else {
+                        originalFrom = subOutputString.length() + 1 + originalFrom - end;
+                    }
+                    atomicCommand = subOutputString + " " + atomicCommand.substring(end);
+                    matcher = pattern.matcher(atomicCommand);
+
+                    //if group 3 matched, next token isn't input or output
+                    nextToken = 0;
+                    continue;
+                }
 
-                //group 0 always matches, so we handle it last, and only if none others found a match
-            } else {
-                //get the text and trim it
-                String nonQuote = matcher.group(0).trim();
-
-                //perform globbing on the text
-                ArrayList<String> globbingResult = new ArrayList<String>();
-                Path dir = Paths.get(Shell.getCurrentDirectory());
-                DirectoryStream<Path> stream = Files.newDirectoryStream(dir, nonQuote);
-                for (Path entry : stream) {
-                    globbingResult.add(entry.getFileName().toString());
+                //group 4 matches '<', group 5 matches '>>' and group 6 matches '>'
+                if (matcher.group(4) != null) {
+                    nextToken = 1;
+                    continue;
                 }
-                if (globbingResult.isEmpty()) {
-                    globbingResult.add(nonQuote);
+                if (matcher.group(5) != null) {
+                    nextToken = 3;
+                    continue;
+                }
+                if (matcher.group(6) != null) {
+                    nextToken = 2;
+                    continue;
                 }
 
-                //add globbing results to tokens,
-                if (nextToken == 0) tokens.addAll(globbingResult);
-                else if (nextToken == 1) inputFileNames.addAll(globbingResult);
-                else outputFileNames.addAll(globbingResult);
-            }
+                //group 1 matches double quoted text and group 2 matches single quoted text
+                if (matcher.group(1) != null || matcher.group(2) != null) {
+                    String quoted = matcher.group(0).trim();
+                    if (nextToken == 0) tokens.add(quoted.substring(1, quoted.length() - 1));
+                    else if (nextToken == 1) inputFileNames.add(quoted.substring(1, quoted.length() - 1));
+                    else if (nextToken == 2) outputFileNames.add(quoted.substring(1, quoted.length() - 1));
+                    else appendFileNames.add(quoted.substring(1, quoted.length() - 1));
+
+                    //group 0 always matches, so we handle it last, and only if none others found a match
+                } else {
+                    //get the text and trim it
+                    String nonQuote = matcher.group(0).trim();
+
+                    //perform globbing on the text
+                    ArrayList<String> globbingResult = new ArrayList<String>();
+                    Path dir = Paths.get(Shell.getCurrentDirectory());
+                    DirectoryStream<Path> stream = Files.newDirectoryStream(dir, nonQuote);
+                    for (Path entry : stream) {
+                        globbingResult.add(entry.getFileName().toString());
+                    }
+                    if (globbingResult.isEmpty()) {
+                        globbingResult.add(nonQuote);
+                    }
+
+                    //add globbing results to tokens,
+                    if (nextToken == 0) tokens.addAll(globbingResult);
+                    else if (nextToken == 1) inputFileNames.addAll(globbingResult);
+                    else if (nextToken == 2) outputFileNames.addAll(globbingResult);
+                    else appendFileNames.addAll(globbingResult);
+                }
 
-            //if none of groups 4,5 matched and called continue, then next token isn't input or output
-            nextToken = 0;
+                //if none of groups 4,5,6 matched and called continue, then next token isn't input or output
+                nextToken = 0;
+            }
+        } finally {
+            substitution.close();
         }
 
         //if there are no tokens, the atomicCommand is invalid
@@ -175,37 +268,100 @@ public class Eval implements CommandVisitor {
      * @throws RuntimeException if more than one I/O files are specified.
      */
     public static void runApp(String appName, ArrayList<String> appArgs, ArrayList<String> inputFileNames, ArrayList<String> outputFileNames, String callInput, OutputStream callOutput) throws IOException {
-        //generate correct app with unsafe decorator if need be
-        Application app;
+        runApp(appName, appArgs, inputFileNames, outputFileNames, new ArrayList<>(), callInput, callOutput);
+    }
+
+    /**
+     * Runs an application of the given name with provided arguments, input files, output files and append files.
+     * A '<' file is passed to the application as bytes, which it may consume without decoding them into a String.
+     * A '>' or '>>' file is closed once the application is done.
+     *
+     * @param appName         The name of the application to run.
+     * @param appArgs         The arguments for the application.
+     * @param inputFileNames  The input file names for the application.
+     * @param outputFileNames The output file names for the application ('>').
+     * @param appendFileNames The append file names for the application ('>>').
+     * @param callInput       The input for the command.
+     * @param callOutput      The output stream for the command.
+     * @throws IOException      If an I/O error occurs during application execution.
+     * @throws RuntimeException if more than one I/O files are specified.
+     */
+    public static void runApp(String appName, ArrayList<String> appArgs, ArrayList<String> inputFileNames, ArrayList<String> outputFileNames, ArrayList<String> appendFileNames, String callInput, OutputStream callOutput) throws IOException {
+        runApp(appName, appArgs, inputFileNames, outputFileNames, appendFileNames, callInput, null, callOutput);
+    }
+
+    /**
+     * Runs an application whose input comes from a pipe as bytes.
+     * The bytes are passed to the application undecoded; only applications that need characters decode them.
+     *
+     * @param appName         The name of the application to run.
+     * @param appArgs         The arguments for the application.
+     * @param inputFileNames  The input file names for the application.
+     * @param outputFileNames The output file names for the application ('>').
+     * @param appendFileNames The append file names for the application ('>>').
+     * @param callInput       The input bytes for the command.
+     * @param callOutput      The output stream for the command.
+     * @throws IOException      If an I/O error occurs during application execution.
+     * @throws RuntimeException if more than one I/O files are specified.
+     */
+    public static void runApp(String appName, ArrayList<String> appArgs, ArrayList<String> inputFileNames, ArrayList<String> outputFileNames, ArrayList<String> appendFileNames, ByteRope callInput, OutputStream callOutput) throws IOException {
+        runApp(appName, appArgs, inputFileNames, outputFileNames, appendFileNames, null, callInput, callOutput);
+    }
+
+    /**
+     * Generates the application of the given name, with the unsafe decorator if the name starts with '_'.
+     *
+     * @param appName The name of the application.
+     * @return The generated application.
+     * @throws RuntimeException if there is no application with the given name.
+     */
+    private static Application generateApp(String appName) {
         AppFactory a = new AppFactory();
         if (appName.charAt(0) != '_') {
-            app = a.generateApp(appName);
-        } else {
-            appName = appName.substring(1, appName.length());
-            app = new UnsafeDecorator(a.generateApp(appName));
+            return a.generateApp(appName);
         }
+        return new UnsafeDecorator(a.generateApp(appName.substring(1)));
+    }
+
+    private static void runApp(String appName, ArrayList<String> appArgs, ArrayList<String> inputFileNames, ArrayList<String> outputFileNames, ArrayList<String> appendFileNames, String callInput, ByteRope callBytes, OutputStream callOutput) throws IOException {
+        Application app = generateApp(appName);
 
         //initialize app's input and output as those of the Call object
-        OutputStreamWriter appWriter = new OutputStreamWriter(callOutput);
-        String appInput = callInput;
+        OutputStreamWriter appWriter = new SinkWriter(callOutput);
+        ByteBuffer fileInput = null;
 
-        //set app's output to the '>' redirection, given only one '>' was present
+        //set app's input to the '<' redirection, given only one '<' was present
         if (inputFileNames.size() > 1) {
             throw new RuntimeException("Only one input redirection permitted");
         } else if (inputFileNames.size() == 1) {
-            appInput = getFileText(inputFileNames.get(0));
+            fileInput = getFileBytes(inputFileNames.get(0));
         }
 
-        //set app's input to the '<' redirection, given only one '<' was present
-        if (outputFileNames.size() > 1) {
+        //set app's output to the '>' or '>>' redirection, given only one was present
+        if (outputFileNames.size() + appendFileNames.size() > 1) {
             throw new RuntimeException("Only one output redirection permitted");
         }
+        boolean redirected = outputFileNames.size() + appendFileNames.size() == 1;
         if (outputFileNames.size() == 1) {
-            appWriter = getOutputWriter(outputFileNames.get(0));
+            appWriter = getOutputWriter(outputFileNames.get(0), false);
+        } else if (appendFileNames.size() == 1) {
+            appWriter = getOutputWriter(appendFileNames.get(0), true);
         }
 
         //execute app
-        app.exec(appArgs, appInput, appWriter);
+        try {
+            if (fileInput != null) {
+                app.exec(appArgs, fileInput, appWriter);
+            } else if (callBytes != null) {
+                app.exec(appArgs, callBytes.toByteBuffer(), appWriter);
+            } else {
+                app.exec(appArgs, callInput, appWriter);
+            }
+        } finally {
+            if (redirected) {
+                appWriter.close();
+            }
+        }
     }
 
     /**
@@ -215,37 +371,196 @@ public class Eval implements CommandVisitor {
      * @throws IOException If an I/O error occurs during execution.
      */
     public void visit(Call call) throws IOException {
+        Cancellation.checkCurrent();
+        boolean budgeted = MemoryBudget.open();
+        try {
+            runCall(call);
+        } finally {
+            if (budgeted) {
+                MemoryBudget.close();
+            }
+        }
+    }
+
+    private static void runCall(Call call) throws IOException {
         //Split atomic command into its app name, arguments, input files, and output files,
-        ArrayList<String> appArgs = new ArrayList<>(), inputFileNames = new ArrayList<>(), outputFileNames = new ArrayList<>();
-        String appName = patternMatcher(call.getAtomicCommand(), appArgs, inputFileNames, outputFileNames);
+        ArrayList<String> appArgs = new ArrayList<>(), inputFileNames = new ArrayList<>(), outputFileNames = new ArrayList<>(), appendFileNames = new ArrayList<>();
+        String appName = patternMatcher(call.getAtomicCommand(), appArgs, inputFileNames, outputFileNames, appendFileNames);
 
-        //Convert the patternMatcher outputs into the app's arguments and run the app
-        runApp(appName, appArgs, inputFileNames, outputFileNames, call.getInput(), call.getOutput());
+        //Convert the patternMatcher outputs into the app's arguments and run the app, passing piped input as bytes
+        if (call.getInputBytes() != null) {
+            runApp(appName, appArgs, inputFileNames, outputFileNames, appendFileNames, call.getInputBytes(), call.getOutput());
+        } else {
+            runApp(appName, appArgs, inputFileNames, outputFileNames, appendFileNames, call.getInput(), call.getOutput());
+        }
 
     }
 
     /**
      * Visits a Pipe command, executes the left command, passes its output to the right command,
      * executes the right command, and passes its output to the Pipe command's output stream.
+     * Adjacent calls that can run as stages (see `Application.fuse`) are fused: their stages run in one loop
+     * that pushes each batch of lines through all of them, so none of their intermediate outputs is held.
      *
      * @param pipe The Pipe command to be visited.
      * @throws IOException If an I/O error occurs during execution.
      */
     public void visit(Pipe pipe) throws IOException {
-        //run the left Command while storing its output in a byte stream
-        ByteArrayOutputStream leftOutput = new ByteArrayOutputStream();
+        //every buffer of the pipeline is charged to one memory budget, opened by the outermost pipe
+        boolean budgeted = MemoryBudget.open();
+        try {
+            runPipe(pipe);
+        } finally {
+            if (budgeted) {
+                MemoryBudget.close();
+            }
+        }
+    }
+
+    private void runPipe(Pipe pipe) throws IOException {
+        ArrayList<Call> calls = new ArrayList<>();
+        if (Shell.isEnabled("fusion") && flatten(pipe, calls)) {
+            runFused(pipe, calls);
+            return;
+        }
+
+        //run the left Command while storing its output in a rope of byte segments
+        ByteRope leftOutput = new ByteRope();
         pipe.getLeft().setOutput(leftOutput);
         pipe.getLeft().accept(this);
 
-        //convert the byte stream to a string and set it as input of the right Command
-        String leftOutString = leftOutput.toString();
-        pipe.getRight().setInput(leftOutString);
+        //set the bytes as input of the right Command, which decodes them only if it needs text
+        pipe.getRight().setInput(leftOutput);
 
         //set the output of the right Command to that of the pipe object, and run the right Command
         pipe.getRight().setOutput(pipe.getOutput());
         pipe.getRight().accept(this);
     }
 
+    /**
+     * Runs the calls of a pipeline from left to right, each run of two or more calls that can be fused as one loop.
+     * The stages of a run are made just before it starts, after everything to its left has run,
+     * and only calls without command substitution or redirections are fused, so making them has no side effects.
+     *
+     * @param pipe  The Pipe command holding the calls.
+     * @param calls The calls of the pipeline, from left to right.
+     * @throws IOException If an I/O error occurs during execution.
+     */
+    private void runFused(Pipe pipe, ArrayList<Call> calls) throws IOException {
+        if (Shell.isEnabled("explain")) {
+            System.err.println("explain: " + explain(calls));
+        }
+        ByteRope input = pipe.getInputBytes();
+        String text = input == null ? pipe.getInput() : null;
+        int i = 0;
+        while (i < calls.size()) {
+            ArrayList<LineStage> stages = fusibleRun(calls, i);
+            int next = stages.size() >= 2 ? i + stages.size() : i + 1;
+            OutputStream output = next == calls.size() ? pipe.getOutput() : new ByteRope();
+            if (stages.size() >= 2) {
+                ByteBuffer bytes = input != null ? input.toByteBuffer() : ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+                LineStage.run(new ByteLineReader(bytes), stages, new SinkWriter(output), null);
+            } else {
+                Call call = calls.get(i);
+                if (input != null) {
+                    call.setInput(input);
+                } else {
+                    call.setInput(text);
+                }
+                call.setOutput(output);
+                call.accept(this);
+            }
+            if (next < calls.size()) {
+                input = (ByteRope) output;
+            }
+            i = next;
+        }
+    }
+
+    /**
+     * Collects the calls of a pipeline from left to right
+     *
+     * @return false if the pipeline holds a command other than calls and pipes
+     */
+    private static boolean flatten(Command command, ArrayList<Call> calls) {
+        if (command instanceof Call) {
+            calls.add((Call) command);
+            return true;
+        }
+        if (command instanceof Pipe) {
+            return flatten(((Pipe) command).getLeft(), calls) && flatten(((Pipe) command).getRight(), calls);
+        }
+        return false;
+    }
+
+    /**
+     * @return the stages of the calls from calls[from] up to the first call that cannot be fused
+     */
+    private static ArrayList<LineStage> fusibleRun(ArrayList<Call> calls, int from) {
+        ArrayList<LineStage> stages = new ArrayList<>();
+        for (int i = from; i < calls.size(); i++) {
+            LineStage stage = stageOf(calls.get(i));
+            if (stage == null) {
+                break;
+            }
+            stages.add(stage);
+        }
+        return stages;
+    }
+
+    /**
+     * Makes the stage of a call that can be fused
+     * Calls with command substitution or redirections are never fused, and neither is a call that fails to parse,
+     * which is left to fail when it is run on its own
+     *
+     * @param call the call to fuse
+     * @return the call's stage, or null if it cannot be fused
+     */
+    private static LineStage stageOf(Call call) {
+        if (call.getAtomicCommand().indexOf('`') >= 0) {
+            return null;
+        }
+        ArrayList<String> appArgs = new ArrayList<>(), inputFileNames = new ArrayList<>(), outputFileNames = new ArrayList<>(), appendFileNames = new ArrayList<>();
+        try {
+            String appName = patternMatcher(call.getAtomicCommand(), appArgs, inputFileNames, outputFileNames, appendFileNames);
+            if (!inputFileNames.isEmpty() || !outputFileNames.isEmpty() || !appendFileNames.isEmpty()) {
+                return null;
+            }
+            return generateApp(appName).fuse(appArgs);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Describes how a pipeline is run: its calls separated by " | ", with each run of fused calls in "fused[...]"
+     *
+     * @param calls The calls of the pipeline, from left to right.
+     * @return the plan of the pipeline
+     */
+    static String explain(ArrayList<Call> calls) {
+        StringBuilder plan = new StringBuilder();
+        int i = 0;
+        while (i < calls.size()) {
+            int fused = fusibleRun(calls, i).size();
+            int next = fused >= 2 ? i + fused : i + 1;
+            if (i > 0) {
+                plan.append(" | ");
+            }
+            if (fused >= 2) {
+                plan.append("fused[");
+            }
+            for (int j = i; j < next; j++) {
+                plan.append(j > i ? " | " : "").append(calls.get(j).getAtomicCommand().trim());
+            }
+            if (fused >= 2) {
+                plan.append("]");
+            }
+            i = next;
+        }
+        return plan.toString();
+    }
+
     /**
      * Visits a Seq command, executes the left command, then executes the right command.
      *
@@ -253,8 +568,157 @@ public class Eval implements CommandVisitor {
      * @throws IOException If an I/O error occurs during execution.
      */
     public void visit(Seq seq) throws IOException {
-        //run the left Command, then the right
-        seq.getLeft().accept(this);
-        seq.getRight().accept(this);
+        //run the Commands from left to right, those that are independent at the same time if the parallel option is on
+        ArrayList<Command> commands = new ArrayList<>();
+        flatten(seq, commands);
+        runSequence(commands);
+    }
+
+    /**
+     * Visits a Background command, starting its command in the job table and returning without waiting for it.
+     * Its output is held until `wait` is run for it.
+     *
+     * @param background The Background command to be visited.
+     */
+    public void visit(Background background) {
+        JobTable.start(background.getCommand(), background.getText());
+    }
+
+    private static void flatten(Seq seq, ArrayList<Command> commands) {
+        for (Command command : new Command[]{seq.getLeft(), seq.getRight()}) {
+            if (command instanceof Seq) {
+                flatten((Seq) command, commands);
+            } else {
+                commands.add(command);
+            }
+        }
+    }
+
+    /**
+     * Runs the commands of a sequence in order, or with the parallel option on (which may be switched by one of them),
+     * those that do not depend on each other at the same time.
+     * From left to right, each command joins the group of commands before it unless it is a barrier,
+     * writes files other than its redirections or conflicts with one of them (see `Effects`);
+     * a group is finished before the next one starts, so a command runs after every command it may depend on.
+     * The output of each command of a group is held until the commands before it have written theirs,
+     * and the files it redirects to are staged (see `StagedOutputs`) until then.
+     * If a command fails, the commands after it in its group are stopped, their output and staged files are dropped,
+     * and its error is thrown, so nothing they did remains.
+     *
+     * @param commands The commands of the sequence, from left to right.
+     * @throws IOException If an I/O error occurs during execution.
+     */
+    private void runSequence(ArrayList<Command> commands) throws IOException {
+        int i = 0;
+        while (i < commands.size()) {
+            if (!Shell.isEnabled("parallel")) {
+                commands.get(i++).accept(this);
+                continue;
+            }
+            ArrayList<Effects> group = new ArrayList<>(List.of(Effects.of(commands.get(i))));
+            int next = i + 1;
+            while (!group.get(0).isBarrier() && next < commands.size()) {
+                Effects effects = Effects.of(commands.get(next));
+                //files written other than by redirection cannot be staged, so a command writing them only starts a group
+                if (effects.isBarrier() || effects.writesBeyondRedirections()
+                        || group.stream().anyMatch(effects::conflictsWith)) {
+                    break;
+                }
+                group.add(effects);
+                next++;
+            }
+            if (group.size() == 1) {
+                commands.get(i).accept(this);
+            } else {
+                runGroup(commands.subList(i, next));
+            }
+            i = next;
+        }
+    }
+
+    private static void runGroup(List<Command> group) throws IOException {
+        //one thread per command, as a command often waits on a file rather than a processor
+        ExecutorService pool = Executors.newFixedThreadPool(group.size());
+        Cancellation token = new Cancellation(Cancellation.current());
+        ArrayList<Future<?>> runs = new ArrayList<>();
+        ArrayList<StagedOutputs> staged = new ArrayList<>();
+        //the commands before this one have succeeded and their files are in place
+        int committed = 0;
+        try {
+            ArrayList<OutputStream> outputs = new ArrayList<>();
+            ArrayList<ByteRope> buffers = new ArrayList<>();
+            for (Command command : group) {
+                outputs.add(command.getOutput());
+                ByteRope buffer = new ByteRope();
+                buffers.add(buffer);
+                command.setOutput(buffer);
+                StagedOutputs files = new StagedOutputs();
+                staged.add(files);
+                runs.add(pool.submit(() -> {
+                    Cancellation.setCurrent(token);
+                    StagedOutputs.setCurrent(files);
+                    try {
+                        command.accept(new Eval());
+                    } finally {
+                        Cancellation.setCurrent(null);
+                        StagedOutputs.setCurrent(null);
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < group.size(); i++) {
+                try {
+                    Cancellation.await(runs.get(i));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for a command");
+                } catch (ExecutionException e) {
+                    //as in order, the files of the failed command are written, and those of the commands after it are not
+                    committed = i + 1;
+                    staged.get(i).commit();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+                committed = i + 1;
+                staged.get(i).commit();
+                ByteBuffer bytes = buffers.get(i).toByteBuffer();
+                outputs.get(i).write(bytes.array(), bytes.arrayOffset(), bytes.limit());
+                outputs.get(i).flush();
+            }
+        } finally {
+            if (committed < runs.size()) {
+                abandon(runs.subList(committed, runs.size()), staged.subList(committed, staged.size()), token);
+            }
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Stops the commands of a group that were not committed, waits for them to finish and discards their staged files
+     */
+    private static void abandon(List<Future<?>> runs, List<StagedOutputs> staged, Cancellation token) {
+        token.cancel("an earlier command failed");
+        boolean interrupted = false;
+        for (int i = 0; i < runs.size(); i++) {
+            while (true) {
+                try {
+                    runs.get(i).get();
+                    break;
+                } catch (ExecutionException e) {
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            staged.get(i).discard();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
@@ -0,0 +1,305 @@
+package uk.ac.ucl.shell;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `FilenameIndex` class is a locate-style database of the names in a directory tree, used by `find -index`.
+ * It records every directory under a root with its modification time and the names and types of its entries,
+ * and is stored as `files.db` under `.shellindex` in the root directory.
+ * Directory paths and the names within each directory are front-coded (stored as the length of the prefix
+ * shared with the previous one plus the remaining suffix), so the database stays small for deep trees.
+ * A walk over the index only lists the directories whose modification time has changed since they were recorded.
+ */
+public class FilenameIndex {
+
+    static final String INDEX_FILE = "files.db";
+
+    private static final int MAGIC = 0x53484E58;
+    private static final int VERSION = 1;
+
+    /**
+     * entry flags: regular file or directory (following links), and whether a walk may descend into it
+     */
+    static final int REGULAR_FILE = 1;
+    static final int DIRECTORY = 2;
+    static final int DESCEND = 4;
+
+    private final Path root;
+    private final TreeMap<String, DirRecord> records;
+    private boolean dirty = false;
+    private int relisted = 0;
+
+    /**
+     * Receives the entries of a walk over the index.
+     */
+    public interface Visitor {
+        /**
+         * @param path  the entry's path
+         * @param depth the entry's depth below the starting directory
+         * @param flags the entry's REGULAR_FILE, DIRECTORY and DESCEND flags
+         * @return true if the walk should descend into the entry
+         */
+        boolean visit(Path path, int depth, int flags);
+    }
+
+    /**
+     * The recorded state of one directory: its modification time and its sorted entries.
+     */
+    private static class DirRecord {
+        final long modified;
+        final String[] names;
+        final byte[] flags;
+
+        DirRecord(long modified, String[] names, byte[] flags) {
+            this.modified = modified;
+            this.names = names;
+            this.flags = flags;
+        }
+    }
+
+    private FilenameIndex(Path root, TreeMap<String, DirRecord> records) {
+        this.root = root;
+        this.records = records;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the number of directories recorded in the index
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * @return the number of directories listed again by walks since the index was opened
+     */
+    public int getRelisted() {
+        return relisted;
+    }
+
+    /**
+     * Finds the index of the nearest enclosing directory that has one, so a whole tree shares one database
+     * Indexes are only created by `index -names`, so a directory with no index above it has none
+     *
+     * @param directory the directory to start looking from
+     * @return the nearest index, or null if neither the directory nor any of its parents has one
+     */
+    public static FilenameIndex locate(Path directory) {
+        Path file = fileOf(directory);
+        return file == null ? null : open(file.getParent().getParent());
+    }
+
+    /**
+     * @param directory the directory to start looking from
+     * @return the file of the index `locate` finds, or null if it finds none
+     */
+    static Path fileOf(Path directory) {
+        for (Path dir = directory.toAbsolutePath().normalize(); dir != null; dir = dir.getParent()) {
+            if (Files.isRegularFile(dir.resolve(TrigramIndex.INDEX_DIRECTORY).resolve(INDEX_FILE))) {
+                return dir.resolve(TrigramIndex.INDEX_DIRECTORY).resolve(INDEX_FILE);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads the index stored in the given root directory, or starts an empty one if there is none
+     *
+     * @param directory the directory the index covers
+     * @return the loaded or empty index
+     */
+    public static FilenameIndex open(Path directory) {
+        Path root = directory.toAbsolutePath().normalize();
+        Path indexFile = root.resolve(TrigramIndex.INDEX_DIRECTORY).resolve(INDEX_FILE);
+        TreeMap<String, DirRecord> records = new TreeMap<>();
+        if (Files.isRegularFile(indexFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    int count = in.readInt();
+                    String previousDir = "";
+                    for (int i = 0; i < count; i++) {
+                        previousDir = readFrontCoded(in, previousDir);
+                        long modified = in.readLong();
+                        String[] names = new String[in.readInt()];
+                        byte[] flags = new byte[names.length];
+                        String previousName = "";
+                        for (int j = 0; j < names.length; j++) {
+                            flags[j] = in.readByte();
+                            previousName = readFrontCoded(in, previousName);
+                            names[j] = previousName;
+                        }
+                        records.put(previousDir, new DirRecord(modified, names, flags));
+                    }
+                }
+            } catch (IOException e) {
+                // a corrupt database is rebuilt from scratch by the next walk
+                records.clear();
+            }
+        }
+        return new FilenameIndex(root, records);
+    }
+
+    /**
+     * Checks whether the index covers a path
+     *
+     * @param path an absolute path
+     * @return true if the path is the root of the index or below it
+     */
+    public boolean covers(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(root);
+    }
+
+    /**
+     * Walks the entries below a directory covered by the index, in sorted order within each directory
+     * Directories whose modification time changed since they were recorded, or that were never recorded,
+     * are listed again and their records replaced; all other entries come from the index alone
+     *
+     * @param start   the directory to start from, which the visitor has already visited
+     * @param visitor receives every entry and decides where to descend
+     */
+    public void walk(Path start, Visitor visitor) {
+        walk(start.toAbsolutePath().normalize(), start, 0, visitor);
+    }
+
+    private void walk(Path absolute, Path dir, int depth, Visitor visitor) {
+        DirRecord record = refresh(absolute);
+        if (record == null) {
+            return;
+        }
+        for (int i = 0; i < record.names.length; i++) {
+            Path child = dir.resolve(record.names[i]);
+            if (visitor.visit(child, depth + 1, record.flags[i]) && (record.flags[i] & DESCEND) != 0) {
+                walk(absolute.resolve(record.names[i]), child, depth + 1, visitor);
+            }
+        }
+    }
+
+    /**
+     * Writes the index to `.shellindex` in its root directory if any directory was re-listed
+     *
+     * @throws IOException if the index cannot be written
+     */
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Path directory = Files.createDirectories(root.resolve(TrigramIndex.INDEX_DIRECTORY));
+        Path temp = Files.createTempFile(directory, INDEX_FILE, ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(records.size());
+            String previousDir = "";
+            for (Map.Entry<String, DirRecord> e : records.entrySet()) {
+                writeFrontCoded(out, previousDir, e.getKey());
+                previousDir = e.getKey();
+                DirRecord record = e.getValue();
+                out.writeLong(record.modified);
+                out.writeInt(record.names.length);
+                String previousName = "";
+                for (int j = 0; j < record.names.length; j++) {
+                    out.writeByte(record.flags[j]);
+                    writeFrontCoded(out, previousName, record.names[j]);
+                    previousName = record.names[j];
+                }
+            }
+        }
+        Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    /**
+     * Returns the record of a directory, listing it again if its modification time has changed
+     * When a directory is re-listed, the records of subdirectories that no longer exist are dropped
+     *
+     * @param dir absolute path of the directory
+     * @return the up-to-date record, or null if the directory cannot be read
+     */
+    private DirRecord refresh(Path dir) {
+        String key = root.relativize(dir).toString().replace(File.separatorChar, '/');
+        DirRecord record = records.get(key);
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS).to(TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            return null;
+        }
+        if (record != null && record.modified == modified) {
+            return record;
+        }
+
+        ArrayList<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            return null;
+        }
+        names.sort(null);
+        byte[] flags = new byte[names.size()];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = (byte) flagsOf(dir.resolve(names.get(i)));
+            if (names.get(i).equals(TrigramIndex.INDEX_DIRECTORY)) {
+                // the index's own files change on every save, so they are listed but never walked
+                flags[i] &= ~DESCEND;
+            }
+        }
+        DirRecord refreshed = new DirRecord(modified, names.toArray(new String[0]), flags);
+
+        if (record != null) {
+            for (int i = 0; i < record.names.length; i++) {
+                if ((record.flags[i] & DESCEND) != 0 && !names.contains(record.names[i])) {
+                    String child = key.isEmpty() ? record.names[i] : key + "/" + record.names[i];
+                    records.remove(child);
+                    records.subMap(child + "/", child + "/\uffff").clear();
+                }
+            }
+        }
+        records.put(key, refreshed);
+        relisted++;
+        dirty = true;
+        return refreshed;
+    }
+
+    /**
+     * @return the REGULAR_FILE, DIRECTORY and DESCEND flags of a path, or 0 if it cannot be read
+     */
+    static int flagsOf(Path path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isSymbolicLink()) {
+                // links are reported by what they point to, but never descended into
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                return (attrs.isRegularFile() ? REGULAR_FILE : 0) | (attrs.isDirectory() ? DIRECTORY : 0);
+            }
+            return (attrs.isRegularFile() ? REGULAR_FILE : 0) | (attrs.isDirectory() ? DIRECTORY | DESCEND : 0);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void writeFrontCoded(DataOutputStream out, String previous, String current) throws IOException {
+        int shared = 0;
+        int limit = Math.min(previous.length(), current.length());
+        while (shared < limit && previous.charAt(shared) == current.charAt(shared)) {
+            shared++;
+        }
+        out.writeShort(shared);
+        out.writeUTF(current.substring(shared));
+    }
+
+    private static String readFrontCoded(DataInputStream in, String previous) throws IOException {
+        int shared = in.readUnsignedShort();
+        return previous.substring(0, shared) + in.readUTF();
+    }
+}
@@ -0,0 +1,142 @@
+package uk.ac.ucl.shell;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The `JobTable` class holds the commands started in the background with '&', numbered from 1.
+ * Each job runs on its own thread of a shared executor, in a copy of the current directory taken when it starts,
+ * and its output is held until it is waited for; output redirected to a file goes to the file as it is written.
+ * A job stays in the table, finished or not, until it is waited for.
+ */
+public class JobTable {
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final TreeMap<Integer, Job> jobs = new TreeMap<>();
+
+    private JobTable() {
+    }
+
+    /**
+     * A command running in the background, with the output it has written so far
+     */
+    static class Job {
+        final int id;
+        final String text;
+        final ByteRope output = new ByteRope();
+
+        /**
+         * a job is not cancelled with the command line that started it, such as by Ctrl-C
+         */
+        final Cancellation token = new Cancellation();
+        Future<?> future;
+
+        Job(int id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        /**
+         * @return "Running", "Done", or "Failed" if the command threw an error
+         */
+        String state() {
+            if (!future.isDone()) {
+                return "Running";
+            }
+            try {
+                future.get();
+                return "Done";
+            } catch (InterruptedException | ExecutionException e) {
+                return "Failed";
+            }
+        }
+    }
+
+    /**
+     * Starts a command in the background
+     *
+     * @param command the command to run
+     * @param text    the command as typed
+     * @return the number of the job
+     */
+    public static synchronized int start(Command command, String text) {
+        int id = jobs.isEmpty() ? 1 : jobs.lastKey() + 1;
+        Job job = new Job(id, text);
+        command.setOutput(job.output);
+        String directory = Shell.getCurrentDirectory();
+        job.future = executor.submit(() -> {
+            Shell.setJobDirectory(directory);
+            Cancellation.setCurrent(job.token);
+            try {
+                command.accept(new Eval());
+            } finally {
+                Shell.setJobDirectory(null);
+                Cancellation.setCurrent(null);
+            }
+            return null;
+        });
+        jobs.put(id, job);
+        return id;
+    }
+
+    /**
+     * @return the jobs in the table, in the order they were started
+     */
+    public static synchronized List<Job> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Waits for jobs to finish, writes their output in order and removes them from the table
+     *
+     * @param ids    the numbers of the jobs to wait for, or null for every job
+     * @param writer that the output of the jobs is written to
+     * @throws IOException          if writer throws an error
+     * @throws WaitException        if a job does not exist or failed, once the output of every job is written
+     */
+    public static void waitFor(List<Integer> ids, OutputStreamWriter writer) throws IOException {
+        ArrayList<Job> waited = new ArrayList<>();
+        synchronized (JobTable.class) {
+            for (int id : ids == null ? new ArrayList<>(jobs.keySet()) : ids) {
+                Job job = jobs.get(id);
+                if (job == null) {
+                    throw new WaitException("no such job " + id);
+                }
+                waited.add(job);
+            }
+        }
+        String failure = null;
+        for (Job job : waited) {
+            try {
+                Cancellation.await(job.future);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WaitException("interrupted");
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = "job " + job.id + ": " + e.getCause().getMessage();
+                }
+            }
+            job.output.writeTo(writer);
+            writer.flush();
+            synchronized (JobTable.class) {
+                jobs.remove(job.id);
+            }
+        }
+        if (failure != null) {
+            throw new WaitException(failure);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package uk.ac.ucl.shell;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The `LineBatch` class holds up to a few thousand lines as ranges of one byte array, without their line terminators.
+ * A batch either refers to lines in a buffer it shares with whoever filled it (such as the `ByteLineReader` it came from,
+ * or the batch a filtering stage received), or to lines appended to a buffer of its own.
+ * Stages (see `LineStage`) take and return whole batches, so their loops run over int arrays
+ * instead of making a call, a String and a write per line.
+ */
+public class LineBatch {
+
+    static final int CAPACITY = 4096;
+
+    private byte[] buffer;
+    private byte[] owned = new byte[1 << 12];
+    private final int[] starts;
+    private final int[] lengths;
+    private int count = 0;
+
+    /**
+     * next free byte of the owned buffer, and where the line being appended to it starts
+     */
+    private int position = 0;
+    private int lineStart = 0;
+
+    /**
+     * bytes written out when the writer accepts bytes, reused from batch to batch
+     */
+    private byte[] output = new byte[0];
+
+    public LineBatch() {
+        this(CAPACITY);
+    }
+
+    public LineBatch(int capacity) {
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.buffer = owned;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int start(int line) {
+        return starts[line];
+    }
+
+    public int length(int line) {
+        return lengths[line];
+    }
+
+    public boolean isFull() {
+        return count == starts.length;
+    }
+
+    /**
+     * Empties the batch; lines added next refer to the given buffer
+     *
+     * @param shared the buffer holding the lines
+     */
+    public void reset(byte[] shared) {
+        buffer = shared;
+        count = 0;
+    }
+
+    /**
+     * Adds a line of the shared buffer
+     */
+    public void add(int start, int length) {
+        starts[count] = start;
+        lengths[count] = length;
+        count++;
+    }
+
+    /**
+     * Empties the batch; lines added next are copied into its own buffer with append and endLine
+     */
+    public void clear() {
+        buffer = owned;
+        count = 0;
+        position = 0;
+        lineStart = 0;
+    }
+
+    /**
+     * Appends bytes to the line being built in the batch's own buffer
+     */
+    public void append(byte[] bytes, int start, int length) {
+        ensureRoom(length);
+        System.arraycopy(bytes, start, owned, position, length);
+        position += length;
+    }
+
+    public void append(byte b) {
+        ensureRoom(1);
+        owned[position++] = b;
+    }
+
+    /**
+     * Ends the line being built, so the next append starts a new line
+     */
+    public void endLine() {
+        add(lineStart, position - lineStart);
+        lineStart = position;
+    }
+
+    private void ensureRoom(int length) {
+        if (position + length > owned.length) {
+            owned = Arrays.copyOf(owned, Math.max(owned.length * 2, position + length));
+            buffer = owned;
+        }
+    }
+
+    /**
+     * Writes every line followed by the line separator
+     * A SinkWriter gets the UTF-8 bytes in one write per batch when the line separator is "\n";
+     * any other writer gets each line decoded
+     *
+     * @param writer that the lines are written to
+     * @param prefix text written before every line, or null for none
+     * @throws IOException if writer throws an error
+     */
+    public void writeTo(OutputStreamWriter writer, String prefix) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        String separator = System.getProperty("line.separator");
+        if (writer instanceof SinkWriter && separator.equals("\n")) {
+            byte[] prefixBytes = prefix == null ? new byte[0] : prefix.getBytes(StandardCharsets.UTF_8);
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                size += prefixBytes.length + lengths[i] + 1;
+            }
+            if (output.length < size) {
+                output = new byte[Math.max(size, output.length * 2)];
+            }
+            int at = 0;
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(prefixBytes, 0, output, at, prefixBytes.length);
+                at += prefixBytes.length;
+                System.arraycopy(buffer, starts[i], output, at, lengths[i]);
+                at += lengths[i];
+                output[at++] = '\n';
+            }
+            WritableByteChannel sink = ((SinkWriter) writer).channel();
+            ByteBuffer bytes = ByteBuffer.wrap(output, 0, at);
+            while (bytes.hasRemaining()) {
+                sink.write(bytes);
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (prefix != null) {
+                writer.write(prefix);
+            }
+            writer.write(new String(buffer, starts[i], lengths[i], StandardCharsets.UTF_8));
+            writer.write(separator);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package uk.ac.ucl.shell;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * The `LineIndex` class gives random access to the lines of a file by their start offsets.
+ * The file is memory-mapped (in segments of up to 1 GiB) and its line starts are found in one pass into a long array,
+ * after which any line's bytes can be reached in O(1) without decoding anything before it.
+ * An index can be persisted next to its file as `.NAME.lidx`, which is reused for as long as the
+ * file's size and modification time are unchanged; `index -lines FILE` creates one.
+ */
+public class LineIndex {
+
+    static final String SUFFIX = ".lidx";
+
+    private static final int MAGIC = 0x4C494458;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    /**
+     * line i starts at offsets[i] and ends before offsets[i + 1] - 1, the position of its '\n';
+     * a last line without a newline gets the sentinel size + 1, so the same rule holds for it
+     */
+    private final long[] offsets;
+    private final int count;
+
+    private LineIndex(MappedByteBuffer[] segments, long size, long[] offsets, int count) {
+        this.segments = segments;
+        this.size = size;
+        this.offsets = offsets;
+        this.count = count;
+    }
+
+    /**
+     * @return the number of lines in the index
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Opens the line index of a file, reusing its persisted index if that is still fresh
+     * A stale persisted index is rebuilt and saved again; otherwise nothing is written
+     *
+     * @param file the file to index
+     * @return the index of all lines of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static LineIndex open(Path file) throws IOException {
+        Path indexFile = indexFileOf(file);
+        boolean persisted = Files.isRegularFile(indexFile);
+        if (persisted) {
+            LineIndex loaded = load(file, indexFile);
+            if (loaded != null) {
+                return loaded;
+            }
+        }
+        LineIndex built = build(file);
+        if (persisted) {
+            built.save(file);
+        }
+        return built;
+    }
+
+    /**
+     * Builds the line index of a file and saves it next to the file
+     *
+     * @param file the file to index
+     * @return the index of all lines of the file
+     * @throws IOException if the file cannot be read or the index cannot be written
+     */
+    public static LineIndex persist(Path file) throws IOException {
+        LineIndex index = build(file);
+        index.save(file);
+        return index;
+    }
+
+    /**
+     * Indexes only the last lines of a file, scanning backwards from its end, so the rest is never read
+     *
+     * @param file  the file to index
+     * @param lines how many lines to index at most
+     * @return an index of the last lines of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static LineIndex lastLines(Path file, int lines) throws IOException {
+        MappedByteBuffer[] segments = map(file);
+        long size = Files.size(file);
+        LineIndex whole = new LineIndex(segments, size, null, 0);
+        long end = size;
+        long sentinel = size + 1;
+        if (size > 0 && whole.byteAt(size - 1) == '\n') {
+            end = size - 1;
+            sentinel = size;
+        }
+        long[] starts = new long[Math.max(lines, 0) + 1];
+        int found = 0;
+        long position = end;
+        if (size > 0) {
+            while (found < lines) {
+                long newline = whole.lastNewline(position);
+                starts[found++] = newline + 1;
+                if (newline < 0) {
+                    break;
+                }
+                position = newline;
+            }
+        }
+        // starts were found last line first
+        long[] offsets = new long[found + 1];
+        for (int i = 0; i < found; i++) {
+            offsets[i] = starts[found - 1 - i];
+        }
+        offsets[found] = sentinel;
+        return new LineIndex(segments, size, offsets, found);
+    }
+
+    /**
+     * Maps the file and records the start of every line in a single pass over its bytes
+     */
+    static LineIndex build(Path file) throws IOException {
+        MappedByteBuffer[] segments = map(file);
+        long size = Files.size(file);
+        long[] offsets = new long[1024];
+        int count = 0;
+        long lineStart = 0;
+        long base = 0;
+        for (MappedByteBuffer segment : segments) {
+            Cancellation.checkCurrent();
+            int limit = segment.limit();
+            for (int i = ByteScanner.indexOf(segment, 0, limit, (byte) '\n'); i >= 0;
+                 i = ByteScanner.indexOf(segment, i + 1, limit, (byte) '\n')) {
+                if (count + 1 >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[count++] = lineStart;
+                lineStart = base + i + 1;
+            }
+            base += limit;
+        }
+        if (lineStart < size) {
+            // a last line without a newline
+            if (count + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length + 2);
+            }
+            offsets[count++] = lineStart;
+            offsets[count] = size + 1;
+        } else {
+            // one past the final '\n', which is the same rule as for every other line
+            offsets[count] = lineStart;
+        }
+        return new LineIndex(segments, size, offsets, count);
+    }
+
+    /**
+     * @return the length in bytes of line i, without its line terminator ("\n" or "\r\n")
+     */
+    public int length(int i) {
+        long start = offsets[i];
+        long end = offsets[i + 1] - 1;
+        if (end > start && byteAt(end - 1) == '\r') {
+            end--;
+        }
+        return (int) (end - start);
+    }
+
+    /**
+     * @return the bytes of line i, without its line terminator
+     */
+    public byte[] bytes(int i) {
+        byte[] line = new byte[length(i)];
+        long start = offsets[i];
+        for (int copied = 0; copied < line.length; ) {
+            MappedByteBuffer segment = segments[(int) ((start + copied) >>> SEGMENT_BITS)];
+            int offset = (int) ((start + copied) & (SEGMENT_SIZE - 1));
+            int chunk = Math.min(line.length - copied, segment.limit() - offset);
+            segment.get(offset, line, copied, chunk);
+            copied += chunk;
+        }
+        return line;
+    }
+
+    /**
+     * @return line i decoded as UTF-8, without its line terminator
+     */
+    public String line(int i) {
+        return new String(bytes(i), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares two lines byte by byte (as unsigned values, which is the order of their code points)
+     *
+     * @return a negative number, zero or a positive number as line a sorts before, with or after line b
+     */
+    public int compare(int a, int b) {
+        long startA = offsets[a];
+        long startB = offsets[b];
+        int lengthA = length(a);
+        int lengthB = length(b);
+        int common = Math.min(lengthA, lengthB);
+        for (int i = 0; i < common; i++) {
+            int difference = (byteAt(startA + i) & 0xFF) - (byteAt(startB + i) & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    /**
+     * Sorts the line numbers of the index by the content of their lines, without creating a String per line
+     * The sort is a stable merge sort on a primitive int array
+     *
+     * @param reverse true to sort in descending order
+     * @return the line numbers in sorted order
+     */
+    public int[] sortedLines(boolean reverse) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            Cancellation.checkCurrent();
+            for (int low = 0; low < count - width; low += 2 * width) {
+                int middle = low + width;
+                int high = Math.min(low + 2 * width, count);
+                merge(order, buffer, low, middle, high, reverse);
+            }
+        }
+        return order;
+    }
+
+    private void merge(int[] order, int[] buffer, int low, int middle, int high, boolean reverse) {
+        System.arraycopy(order, low, buffer, low, high - low);
+        int left = low;
+        int right = middle;
+        for (int i = low; i < high; i++) {
+            if (left < middle && (right >= high || (reverse ? compare(buffer[right], buffer[left]) <= 0
+                    : compare(buffer[left], buffer[right]) <= 0))) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * @return the position of the last '\n' before the given position, or -1 if there is none
+     */
+    private long lastNewline(long before) {
+        for (int segment = (int) ((before - 1) >>> SEGMENT_BITS); segment >= 0 && before > 0; segment--) {
+            long base = (long) segment << SEGMENT_BITS;
+            int found = ByteScanner.lastIndexOf(segments[segment], 0, (int) (before - base), (byte) '\n');
+            if (found >= 0) {
+                return base + found;
+            }
+            before = base;
+        }
+        return -1;
+    }
+
+    private byte byteAt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    private static MappedByteBuffer[] map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            return segments;
+        }
+    }
+
+    static Path indexFileOf(Path file) {
+        Path name = file.getFileName();
+        return file.resolveSibling("." + name + SUFFIX);
+    }
+
+    /**
+     * Writes the index next to its file, with the size and modification time of the file it describes
+     * Offsets are stored as varint-encoded gaps, which are one or two bytes for typical line lengths
+     */
+    private void save(Path file) throws IOException {
+        Path indexFile = indexFileOf(file);
+        Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(size);
+            out.writeLong(Files.getLastModifiedTime(file).toMillis());
+            out.writeInt(count);
+            long previous = 0;
+            for (int i = 0; i <= count; i++) {
+                long gap = offsets[i] - previous;
+                previous = offsets[i];
+                while ((gap & ~0x7FL) != 0) {
+                    out.writeByte((int) ((gap & 0x7F) | 0x80));
+                    gap >>>= 7;
+                }
+                out.writeByte((int) gap);
+            }
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the persisted index, or null if it is missing, corrupt or describes another version of the file
+     */
+    private static LineIndex load(Path file, Path indexFile) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            long size = Files.size(file);
+            if (in.readInt() != MAGIC || in.readLong() != size
+                    || in.readLong() != Files.getLastModifiedTime(file).toMillis()) {
+                return null;
+            }
+            int count = in.readInt();
+            long[] offsets = new long[count + 1];
+            long previous = 0;
+            for (int i = 0; i <= count; i++) {
+                long gap = 0;
+                int shift = 0;
+                int b;
+                do {
+                    b = in.readUnsignedByte();
+                    gap |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                previous += gap;
+                offsets[i] = previous;
+            }
+            return new LineIndex(map(file), size, offsets, count);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
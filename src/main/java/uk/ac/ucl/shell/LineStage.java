@@ -0,0 +1,112 @@
+package uk.ac.ucl.shell;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+/**
+ * The `LineStage` interface is the batched form of a line-by-line application such as grep or cut.
+ * A stage receives a `LineBatch` and returns the batch of lines it outputs, which may share the input's buffer.
+ * The returned batch is written before the next batch is read, so a stage may reuse it.
+ */
+public interface LineStage {
+
+    /**
+     * @param batch the next lines of the input, valid only until this method returns
+     * @return the lines to output for them
+     */
+    LineBatch process(LineBatch batch);
+
+    /**
+     * @return true once the stage will output nothing more, so the rest of the input need not be read
+     */
+    default boolean isDone() {
+        return false;
+    }
+
+    /**
+     * @return the lines the stage still holds at the end of the input, or null if there are none
+     */
+    default LineBatch finish() {
+        return null;
+    }
+
+    /**
+     * Runs a stage over all lines of a reader and writes its output
+     *
+     * @param lines  the input lines
+     * @param stage  the stage to run
+     * @param writer that the output is written to
+     * @param prefix text written before every output line, or null for none
+     * @throws IOException if the reader or writer throws an error
+     */
+    static void run(ByteLineReader lines, LineStage stage, OutputStreamWriter writer, String prefix) throws IOException {
+        run(lines, List.of(stage), writer, prefix);
+    }
+
+    /**
+     * Runs a chain of stages as one loop: each batch read is pushed through every stage before the next is read,
+     * so no stage's whole output is ever held. Reading stops as soon as any stage is done.
+     * At the end of the input the stages are finished in order, each one's remaining lines going through the rest.
+     * The current thread's cancellation token is checked before each batch.
+     *
+     * @param lines  the input lines
+     * @param stages the stages, the output of each being the input of the next
+     * @param writer that the output of the last stage is written to
+     * @param prefix text written before every output line, or null for none
+     * @throws IOException if the reader or writer throws an error
+     */
+    static void run(ByteLineReader lines, List<LineStage> stages, OutputStreamWriter writer, String prefix) throws IOException {
+        LineBatch batch = new LineBatch();
+        Cancellation token = Cancellation.current();
+        while (stages.stream().noneMatch(LineStage::isDone) && lines.next(batch)) {
+            token.check();
+            push(batch, stages, 0, writer, prefix);
+        }
+        for (int i = 0; i < stages.size(); i++) {
+            LineBatch rest = stages.get(i).finish();
+            if (rest != null) {
+                push(rest, stages, i + 1, writer, prefix);
+            }
+        }
+        writer.flush();
+    }
+
+    private static void push(LineBatch batch, List<LineStage> stages, int from, OutputStreamWriter writer, String prefix) throws IOException {
+        for (int i = from; i < stages.size() && batch.count() > 0; i++) {
+            batch = stages.get(i).process(batch);
+        }
+        batch.writeTo(writer, prefix);
+    }
+
+    /**
+     * Wraps a stage that, like the application it comes from, fails when stdin is empty
+     *
+     * @param stage the stage to wrap
+     * @param error the error the application throws for empty stdin
+     * @return a stage that throws error when finished without having received a line
+     */
+    static LineStage requiringInput(LineStage stage, RuntimeException error) {
+        return new LineStage() {
+            private boolean received = false;
+
+            public LineBatch process(LineBatch batch) {
+                received = true;
+                return stage.process(batch);
+            }
+
+            @Override
+            public boolean isDone() {
+                return stage.isDone();
+            }
+
+            @Override
+            public LineBatch finish() {
+                if (!received) {
+                    throw error;
+                }
+                return stage.finish();
+            }
+        };
+    }
+}
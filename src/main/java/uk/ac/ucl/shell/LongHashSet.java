@@ -0,0 +1,135 @@
+package uk.ac.ucl.shell;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * The `LongHashSet` class is a set of primitive longs using open addressing with linear probing.
+ * Slots hold the values themselves (0 marks an empty slot, so 0 is tracked separately), which costs
+ * 8 bytes per slot and no objects per value. The table doubles once it is 80% full.
+ * Slots are kept either in a long array on the heap or, off-heap, in direct buffers of at most 2^27 slots each,
+ * so large sets neither count towards the heap limit nor are scanned by the garbage collector.
+ */
+public class LongHashSet {
+
+    private static final int SEGMENT_BITS = 27;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final boolean offHeap;
+    private long[] heapSlots;
+    private LongBuffer[] directSlots;
+    private long capacity;
+    private long size = 0;
+    private boolean containsZero = false;
+
+    /**
+     * @param offHeap true to keep the table in direct memory instead of on the heap
+     */
+    public LongHashSet(boolean offHeap) {
+        this.offHeap = offHeap;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return the number of values in the set
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Adds a value to the set
+     *
+     * @param value the value to add
+     * @return true if the value was not in the set before
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        long mask = capacity - 1;
+        for (long slot = mix(value) & mask; ; slot = (slot + 1) & mask) {
+            long current = get(slot);
+            if (current == value) {
+                return false;
+            }
+            if (current == 0) {
+                set(slot, value);
+                size++;
+                if (size * 5 > capacity * 4) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldHeapSlots = heapSlots;
+        LongBuffer[] oldDirectSlots = directSlots;
+        long oldCapacity = capacity;
+        allocate(capacity * 2);
+        long mask = capacity - 1;
+        for (long i = 0; i < oldCapacity; i++) {
+            long value = offHeap ? oldDirectSlots[(int) (i >>> SEGMENT_BITS)].get((int) (i & (SEGMENT_SIZE - 1)))
+                    : oldHeapSlots[(int) i];
+            if (value != 0) {
+                long slot = mix(value) & mask;
+                while (get(slot) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                set(slot, value);
+            }
+        }
+    }
+
+    private void allocate(long newCapacity) {
+        capacity = newCapacity;
+        if (!offHeap) {
+            if (newCapacity > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("set too large for the heap, use the off-heap variant");
+            }
+            heapSlots = new long[(int) newCapacity];
+            return;
+        }
+        int segmentSize = (int) Math.min(newCapacity, SEGMENT_SIZE);
+        directSlots = new LongBuffer[(int) (newCapacity / segmentSize)];
+        for (int i = 0; i < directSlots.length; i++) {
+            // direct memory is zeroed on allocation, which marks every slot empty
+            directSlots[i] = ByteBuffer.allocateDirect(segmentSize * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+    }
+
+    private long get(long slot) {
+        return offHeap ? directSlots[(int) (slot >>> SEGMENT_BITS)].get((int) (slot & (SEGMENT_SIZE - 1)))
+                : heapSlots[(int) slot];
+    }
+
+    private void set(long slot, long value) {
+        if (offHeap) {
+            directSlots[(int) (slot >>> SEGMENT_BITS)].put((int) (slot & (SEGMENT_SIZE - 1)), value);
+        } else {
+            heapSlots[(int) slot] = value;
+        }
+    }
+
+    /**
+     * Spreads the bits of a value over the whole word (the MurmurHash3 finaliser), so that linear probing
+     * stays short even for values that differ only in their high bits
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,136 @@
+package uk.ac.ucl.shell;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The `MemoryBudget` class caps the heap a single pipeline may fill, so that a pipeline holding too much
+ * (such as a huge file piped into sort) fails with a `MemoryException` instead of running the whole JVM out of memory.
+ * `Eval` opens a budget for each pipeline, or call outside a pipeline, that it runs, and the buffers that grow with
+ * the input are charged to it before they are allocated: pipe buffers (`ByteRope`), stdin decoded into text,
+ * the lines sort and tail hold, and files read with `Eval.getFileText`.
+ * Buffers that only live while another is made from them (such as the characters decoded into a String)
+ * are given back once it is made; others are only given back when the pipeline ends,
+ * so the total is an upper bound of what the pipeline holds at once.
+ * The budget belongs to the thread running the pipeline: threads working on its data (those of `parallel`)
+ * are given it, while commands run on other threads (background jobs, xargs) open budgets of their own.
+ * The limit applies to every budget and is set with ulimit. As in other shells there is none by default,
+ * and nothing is counted until one is set.
+ */
+public class MemoryBudget {
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static volatile long limit = UNLIMITED;
+
+    private static final ThreadLocal<MemoryBudget> current = new ThreadLocal<>();
+
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * @return the number of bytes a pipeline may use, or UNLIMITED
+     */
+    public static long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param bytes the number of bytes a pipeline may use from now on, or UNLIMITED
+     */
+    public static void setLimit(long bytes) {
+        limit = bytes;
+    }
+
+    /**
+     * Opens a budget for the current thread, unless it already has one
+     *
+     * @return true if a budget was opened, which the caller must then close
+     */
+    public static boolean open() {
+        if (current.get() != null) {
+            return false;
+        }
+        current.set(new MemoryBudget());
+        return true;
+    }
+
+    /**
+     * Closes the budget of the current thread
+     */
+    public static void close() {
+        current.remove();
+    }
+
+    /**
+     * @return the budget of the current thread, or null if it has none
+     */
+    public static MemoryBudget current() {
+        return current.get();
+    }
+
+    /**
+     * @param budget the budget the current thread charges from now on, or null for none
+     */
+    public static void setCurrent(MemoryBudget budget) {
+        if (budget == null) {
+            current.remove();
+        } else {
+            current.set(budget);
+        }
+    }
+
+    /**
+     * Charges bytes about to be allocated to the budget of the current thread; nothing is charged without one
+     *
+     * @param bytes the number of bytes
+     * @throws MemoryException if the budget's total would exceed the limit
+     */
+    public static void charge(long bytes) {
+        MemoryBudget budget = current.get();
+        if (budget == null || limit == UNLIMITED) {
+            return;
+        }
+        long total = budget.used.addAndGet(bytes);
+        if (total > limit) {
+            throw new MemoryException("pipeline needs more than the limit of " + limit / 1024 + " kB (see ulimit)");
+        }
+    }
+
+    /**
+     * Gives back bytes charged to the budget of the current thread, once what they were charged for is unreachable
+     *
+     * @param bytes the number of bytes
+     */
+    public static void release(long bytes) {
+        MemoryBudget budget = current.get();
+        if (budget != null && limit != UNLIMITED) {
+            budget.used.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * Charges the decoding of UTF-8 bytes into a String, which holds up to two bytes per character in a CharBuffer
+     * and (for text that is not all Latin-1) in the String made from it; the CharBuffer is given back afterwards
+     *
+     * @param bytes the number of bytes decoded
+     * @throws MemoryException if the budget's total would exceed the limit
+     */
+    public static void chargeDecoding(long bytes) {
+        charge(3 * bytes);
+    }
+
+    /**
+     * Gives back the CharBuffer of a decoding charged with chargeDecoding
+     *
+     * @param bytes the number of bytes decoded
+     */
+    public static void releaseDecoding(long bytes) {
+        release(2 * bytes);
+    }
+
+    /**
+     * @return the number of bytes charged so far
+     */
+    public long used() {
+        return used.get();
+    }
+}
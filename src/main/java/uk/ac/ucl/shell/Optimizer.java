@@ -0,0 +1,263 @@
+package uk.ac.ucl.shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The `Optimizer` class rewrites the Command tree made by `CommandConverter` into a cheaper equivalent before `Eval` runs it.
+ * Each rule merges two adjacent calls of a pipeline into one call that does the same work in a single pass,
+ * and is switched on or off with set, under the option named after it:
+ * rewrite-cat-grep:  "cat FILE | grep PATTERN" becomes "grep PATTERN FILE"
+ * rewrite-grep-grep: "grep P [FILE] | grep Q" becomes "grep P --and Q [FILE]"
+ * rewrite-sort-uniq: "sort [-r] [FILE] | uniq" becomes "sort -u [-r] [FILE]"
+ * Only calls made of plain words (no command substitution, redirection or globbing) are rewritten,
+ * so a rewritten call has exactly the arguments the calls it replaces had.
+ */
+public class Optimizer {
+
+    private static final Pattern WORD = Pattern.compile("[^\\s\"'><`]+|\"([^\"]*)\"|'([^']*)'");
+    private static final Pattern PLAIN = Pattern.compile("[^\\s\"'><`*?\\[{\\\\]+");
+
+    /**
+     * set once a call that may change the current directory or a file has been passed,
+     * after which the files a rule depends on can no longer be checked before the command line runs
+     */
+    private boolean filesMayChange = false;
+
+    /**
+     * set once a call that may switch a rule has been passed, after which no rule is applied
+     */
+    private boolean optionsMayChange = false;
+
+    /**
+     * Rewrites the pipelines of a command, from left to right
+     *
+     * @param command the command to optimize
+     * @return the optimized command, which is command itself if no rule applied
+     */
+    public Command optimize(Command command) {
+        if (command instanceof Seq) {
+            Seq seq = (Seq) command;
+            Command left = optimize(seq.getLeft());
+            Command right = optimize(seq.getRight());
+            if (left == seq.getLeft() && right == seq.getRight()) {
+                return seq;
+            }
+            return new Seq(left, right, seq.getInput(), seq.getOutput());
+        }
+        if (command instanceof Background) {
+            Background background = (Background) command;
+            Command inner = optimize(background.getCommand());
+            if (inner == background.getCommand()) {
+                return background;
+            }
+            return new Background(inner, background.getText(), background.getInput(), background.getOutput());
+        }
+        ArrayList<Call> calls = new ArrayList<>();
+        if (!flatten(command, calls)) {
+            return command;
+        }
+        boolean emptyInput = command.getInputBytes() == null && command.getInput().isEmpty();
+        boolean rewritten = false;
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i + 1 < calls.size() && !merged; i++) {
+                List<Call> before = calls.subList(0, i);
+                if (optionsMayChange || before.stream().anyMatch(Optimizer::mayChangeOptions)) {
+                    break;
+                }
+                boolean checkFiles = !filesMayChange && before.stream().noneMatch(Optimizer::mayChangeFiles);
+                Call call = merge(calls.get(i), calls.get(i + 1), i == 0 && emptyInput, checkFiles);
+                if (call != null) {
+                    calls.set(i, call);
+                    calls.remove(i + 1);
+                    merged = rewritten = true;
+                }
+            }
+        }
+        filesMayChange |= calls.stream().anyMatch(Optimizer::mayChangeFiles);
+        optionsMayChange |= calls.stream().anyMatch(Optimizer::mayChangeOptions);
+        if (!rewritten) {
+            return command;
+        }
+        Command result = calls.get(0);
+        for (int i = 1; i < calls.size(); i++) {
+            result = new Pipe(result, calls.get(i), "", System.out);
+        }
+        if (command.getInputBytes() != null) {
+            result.setInput(command.getInputBytes());
+        } else {
+            result.setInput(command.getInput());
+        }
+        result.setOutput(command.getOutput());
+        return result;
+    }
+
+    private static boolean flatten(Command command, ArrayList<Call> calls) {
+        if (command instanceof Call) {
+            calls.add((Call) command);
+            return true;
+        }
+        if (command instanceof Pipe) {
+            return flatten(((Pipe) command).getLeft(), calls) && flatten(((Pipe) command).getRight(), calls);
+        }
+        return false;
+    }
+
+    /**
+     * Applies the first enabled rule that fits two adjacent calls
+     *
+     * @param left       the call whose output is piped
+     * @param right      the call reading it
+     * @param emptyInput whether left reads nothing from stdin
+     * @param checkFiles whether the files left reads can be checked now, before the command line runs
+     * @return the call replacing both, or null if no rule applies
+     */
+    private static Call merge(Call left, Call right, boolean emptyInput, boolean checkFiles) {
+        List<String> first = words(left.getAtomicCommand());
+        List<String> second = words(right.getAtomicCommand());
+        if (first == null || second == null || first.isEmpty() || second.isEmpty()) {
+            return null;
+        }
+        String firstApp = first.get(0);
+        String secondApp = second.get(0);
+
+        // cat also writes its stdin, and fails where grep would not on a missing or empty file
+        if (Shell.isEnabled("rewrite-cat-grep") && firstApp.equals("cat") && first.size() == 2 && emptyInput
+                && secondApp.equals("grep") && second.size() == 2 && checkFiles && isNonEmptyFile(first.get(1))) {
+            return call(List.of("grep", second.get(1), first.get(1)));
+        }
+
+        // with more than one file, the first grep's output lines start with their file names
+        if (Shell.isEnabled("rewrite-grep-grep") && firstApp.equals("grep") && first.size() >= 2
+                && secondApp.equals("grep") && second.size() == 2) {
+            ArrayList<String> patterns = new ArrayList<>(List.of(first.get(1)));
+            int i = 2;
+            while (i + 1 < first.size() && first.get(i).equals("--and")) {
+                patterns.add(first.get(i + 1));
+                i += 2;
+            }
+            patterns.add(second.get(1));
+            if (first.size() - i <= 1 && !first.get(first.size() - 1).equals("--and")
+                    && patterns.stream().allMatch(Optimizer::compiles)) {
+                ArrayList<String> merged = new ArrayList<>(first.subList(0, i));
+                merged.add("--and");
+                merged.add(second.get(1));
+                merged.addAll(first.subList(i, first.size()));
+                return call(merged);
+            }
+        }
+
+        if (Shell.isEnabled("rewrite-sort-uniq") && firstApp.equals("sort") && !first.contains("-u")
+                && secondApp.equals("uniq") && second.size() == 1) {
+            ArrayList<String> merged = new ArrayList<>(List.of("sort", "-u"));
+            merged.addAll(first.subList(1, first.size()));
+            return call(merged);
+        }
+        return null;
+    }
+
+    /**
+     * Splits an atomic command into its words as `Eval.patternMatcher` would
+     *
+     * @return the words, or null if the command has a substitution, a redirection or a word that may be globbed
+     */
+    static List<String> words(String atomicCommand) {
+        if (atomicCommand.indexOf('`') >= 0 || atomicCommand.indexOf('<') >= 0 || atomicCommand.indexOf('>') >= 0) {
+            return null;
+        }
+        ArrayList<String> words = new ArrayList<>();
+        Matcher matcher = WORD.matcher(atomicCommand);
+        while (matcher.find()) {
+            String word = matcher.group(0);
+            if (matcher.group(1) != null || matcher.group(2) != null) {
+                words.add(word.substring(1, word.length() - 1));
+            } else if (PLAIN.matcher(word).matches()) {
+                words.add(word);
+            } else {
+                return null;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * @return a call of the words, each quoted unless it is plain
+     */
+    private static Call call(List<String> words) {
+        return new Call(text(words), "", System.out);
+    }
+
+    /**
+     * Joins words into the text of an atomic command that `Eval.patternMatcher` splits back into the same words
+     *
+     * @return the words separated by spaces, each quoted unless it is plain
+     */
+    static String text(List<String> words) {
+        StringBuilder text = new StringBuilder();
+        for (String word : words) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            if (PLAIN.matcher(word).matches()) {
+                text.append(word);
+            } else if (word.indexOf('\'') < 0) {
+                text.append('\'').append(word).append('\'');
+            } else {
+                text.append('"').append(word).append('"');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return true if the call may change the current directory or a file, or cannot be told apart from one that may
+     */
+    private static boolean mayChangeFiles(Call call) {
+        return runs(call, List.of("cd", "mkdir", "touch", "index", "xargs", "timeout"));
+    }
+
+    /**
+     * @return true if the call may switch a rule, or cannot be told apart from one that may
+     */
+    private static boolean mayChangeOptions(Call call) {
+        List<String> words = words(call.getAtomicCommand());
+        return runs(call, List.of("set")) && (words == null || words.stream().anyMatch(word -> word.startsWith("rewrite-")));
+    }
+
+    private static boolean runs(Call call, List<String> apps) {
+        List<String> words = words(call.getAtomicCommand());
+        if (words == null || words.isEmpty()) {
+            return true;
+        }
+        String app = words.get(0).startsWith("_") ? words.get(0).substring(1) : words.get(0);
+        return apps.contains(app);
+    }
+
+    private static boolean isNonEmptyFile(String fileName) {
+        Path filePath = Paths.get(Shell.getCurrentDirectory() + File.separator + fileName);
+        try {
+            return Files.isRegularFile(filePath) && Files.isReadable(filePath) && Files.size(filePath) > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean compiles(String regex) {
+        try {
+            Pattern.compile(regex);
+            return true;
+        } catch (PatternSyntaxException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package uk.ac.ucl.shell;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The `ReadAhead` class reads the files of a multi-file command ahead of the application that consumes them.
+ * While the application works on one file, up to `depth` of the following files are read concurrently
+ * on a small pool, so many small files on a slow disk cost one round of latency instead of one each.
+ * Files are still handed out strictly in argument order.
+ * The files being read ahead never take more than `budget` bytes together: a file larger than the budget
+ * is left for the application to read itself, while one that does not fit yet is only started (with the files after it)
+ * once the files before it have been consumed and their bytes given back.
+ */
+public class ReadAhead implements Closeable {
+
+    static final int DEFAULT_DEPTH = 8;
+    static final long DEFAULT_BUDGET = 64L << 20;
+
+    private final List<Path> files;
+    private final int depth;
+    private final long budget;
+    private final Future<byte[]>[] pending;
+    private final long[] sizes;
+    private ExecutorService pool;
+    private long reserved = 0;
+    private int nextToSchedule = 0;
+    private int nextToDeliver = 0;
+
+    /**
+     * @param files  the files in the order they will be consumed; null entries are never read ahead
+     * @param depth  how many files may be read ahead at once
+     * @param budget how many bytes the files read ahead may take together
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ReadAhead(List<Path> files, int depth, long budget) {
+        this.files = files;
+        this.depth = depth;
+        this.budget = budget;
+        this.pending = new Future[files.size()];
+        this.sizes = new long[files.size()];
+    }
+
+    public ReadAhead(List<Path> files) {
+        this(files, DEFAULT_DEPTH, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Returns the content of the next file, waiting for it if it is still being read
+     * The application must call this exactly once per file, in order, including for files it then skips
+     *
+     * @return the bytes of the next file, or null if it was not read ahead (or could not be read),
+     * in which case the application reads it (and reports any error) itself
+     * @throws CancelledException if the command is cancelled while waiting for the file
+     */
+    public byte[] next() {
+        schedule();
+        int current = nextToDeliver++;
+        Future<byte[]> content = pending[current];
+        pending[current] = null;
+        if (content == null) {
+            return null;
+        }
+        boolean cancelled = false;
+        try {
+            // a cancelled command stops waiting for a slow file, giving its bytes back on the way out
+            return Cancellation.await(content);
+        } catch (CancelledException e) {
+            cancelled = true;
+            content.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            reserved -= sizes[current];
+            if (!cancelled) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Starts reading the files after the current one, in order, while the depth and budget allow it
+     */
+    private void schedule() {
+        while (nextToSchedule < files.size() && nextToSchedule - nextToDeliver < depth) {
+            Path path = files.get(nextToSchedule);
+            long size = -1;
+            if (path != null) {
+                try {
+                    size = Files.isRegularFile(path) ? Files.size(path) : -1;
+                } catch (IOException e) {
+                    size = -1;
+                }
+            }
+            if (size >= 0 && size <= budget && reserved + size > budget) {
+                // wait until the files before it have been consumed
+                return;
+            }
+            if (size >= 0 && size <= budget && nextToSchedule > nextToDeliver) {
+                if (pool == null) {
+                    pool = Executors.newFixedThreadPool(depth, runnable -> {
+                        Thread thread = new Thread(runnable, "read-ahead");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                reserved += size;
+                sizes[nextToSchedule] = size;
+                pending[nextToSchedule] = pool.submit(() -> Files.readAllBytes(path));
+            }
+            nextToSchedule++;
+        }
+    }
+
+    /**
+     * Stops reading ahead; files not consumed yet are dropped
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -6,21 +6,82 @@ import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class represents a shell application that interprets and executes user inputs
  */
 public class Shell {
 
-    private static String currentDirectory = System.getProperty("user.dir");
+    private static volatile String currentDirectory = System.getProperty("user.dir");
+
+    /**
+     * names of the options that can be switched with set, and the options currently switched on
+     * fusion: run adjacent line-by-line applications of a pipeline in one loop
+     * explain: write the plan of every pipeline to stderr before running it
+     * memoize: reuse the output of a command substitution run before in the same command line (see `Substitution`)
+     * parallel: run the independent commands of a sequence, and of the substitutions of a call, at the same time
+     * rewrite-*: apply a rule of `Optimizer`
+     */
+    static final List<String> OPTIONS = List.of("explain", "fusion", "memoize", "parallel", "rewrite-cat-grep", "rewrite-grep-grep", "rewrite-sort-uniq");
+    private static final Set<String> enabledOptions = ConcurrentHashMap.newKeySet();
+
+    static {
+        //set changes the options on the thread running it while jobs read them on theirs
+        enabledOptions.addAll(List.of("fusion", "rewrite-cat-grep", "rewrite-grep-grep", "rewrite-sort-uniq"));
+    }
+
+    /**
+     * the current directory of a background job and the threads it starts, which cd in a job changes
+     * without changing the shell's
+     */
+    private static final InheritableThreadLocal<String> jobDirectory = new InheritableThreadLocal<>();
+
+    /**
+     * the token of the command line being run in interactive mode, which Ctrl-C cancels
+     */
+    private static volatile Cancellation running;
 
     public static String getCurrentDirectory() {
-        return currentDirectory;
+        String directory = jobDirectory.get();
+        return directory != null ? directory : currentDirectory;
     }
 
     public static void setCurrentDirectory(String s) {
-        currentDirectory = s;
+        if (jobDirectory.get() != null) {
+            jobDirectory.set(s);
+        } else {
+            currentDirectory = s;
+        }
+    }
+
+    /**
+     * Gives the current thread, and the threads it starts, a current directory of their own, or takes it away
+     *
+     * @param directory the directory, or null to use the shell's again
+     */
+    static void setJobDirectory(String directory) {
+        if (directory == null) {
+            jobDirectory.remove();
+        } else {
+            jobDirectory.set(directory);
+        }
+    }
+
+    public static boolean isEnabled(String option) {
+        return enabledOptions.contains(option);
+    }
+
+    public static void setEnabled(String option, boolean enabled) {
+        if (enabled) {
+            enabledOptions.add(option);
+        } else {
+            enabledOptions.remove(option);
+        }
     }
 
     /**
@@ -43,22 +104,73 @@ public class Shell {
             } catch (Exception e) {
                 System.err.println("COMP0010 shell: " + e.getMessage());
             }
+            //background jobs still running are waited for, and their output printed, before the shell exits
+            try {
+                JobTable.waitFor(null, new SinkWriter(System.out));
+            } catch (Exception e) {
+                System.err.println("COMP0010 shell: " + e.getMessage());
+            }
         } else {
+            //Ctrl-C cancels the command line being run (but not background jobs), and ends the shell at the prompt
+            onInterrupt(() -> {
+                Cancellation token = running;
+                if (token != null) {
+                    token.cancel("interrupted");
+                } else {
+                    System.out.println();
+                    System.exit(130);
+                }
+            });
             try (Scanner input = new Scanner(System.in)) {
                 while (true) {
                     String prompt = currentDirectory + "> ";
                     System.out.print(prompt);
+                    //the end of stdin ends the shell
+                    if (!input.hasNextLine()) {
+                        System.out.println();
+                        break;
+                    }
                     try {
                         String cmdline = input.nextLine();
+                        running = new Cancellation();
+                        Cancellation.setCurrent(running);
                         eval(cmdline);
                     } catch (Exception e) {
                         System.err.println("COMP0010 shell: " + e.getMessage());
+                    } finally {
+                        running = null;
+                        Cancellation.setCurrent(null);
                     }
                 }
             }
         }
     }
 
+    /**
+     * Runs a handler on every SIGINT instead of ending the JVM. sun.misc.Signal is loaded by reflection,
+     * as it is not a standard API; without it, SIGINT ends the JVM as usual.
+     *
+     * @param handler the handler to run
+     */
+    private static void onInterrupt(Runnable handler) { //pragma: no cover
+        try {
+            Class<?> signalClass = Class.forName("sun.misc.Signal");
+            Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+            Object signal = signalClass.getConstructor(String.class).newInstance("INT");
+            Object signalHandler = Proxy.newProxyInstance(handlerClass.getClassLoader(), new Class<?>[]{handlerClass},
+                    (proxy, method, methodArgs) -> {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(handler, methodArgs);
+                        }
+                        handler.run();
+                        return null;
+                    });
+            signalClass.getMethod("handle", signalClass, handlerClass).invoke(null, signal, signalHandler);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("COMP0010 shell: Ctrl-C will end the shell: " + e.getMessage());
+        }
+    }
+
     /**
      * Evaluates a command line input by parsing it into a tree, converting it into a Command tree, and running the Command tree.
      *
@@ -74,10 +186,11 @@ public class Shell {
         ShellGrammarParser parser = new ShellGrammarParser(tokenStream);
         ParseTree tree = parser.root();
 
-        //convert it into a Command tree using CommandConverter
-        Command c = tree.accept(new CommandConverter());
+        //convert it into a Command tree using CommandConverter, and rewrite it into a cheaper equivalent
+        Command c = new Optimizer().optimize(tree.accept(new CommandConverter()));
 
-        //run the Command tree
+        //run the Command tree, with no substitution output kept from the command line before
+        Substitution.reset();
         c.accept(new Eval());
     }
 }
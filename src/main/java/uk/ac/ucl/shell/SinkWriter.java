@@ -0,0 +1,52 @@
+package uk.ac.ucl.shell;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The `SinkWriter` class is the writer `Eval` hands to applications.
+ * Besides writing characters like any `OutputStreamWriter`, it exposes the byte sink underneath,
+ * so applications that copy bytes unchanged (like `cat` on files) can skip decoding and encoding them.
+ */
+public class SinkWriter extends OutputStreamWriter {
+
+    private final OutputStream out;
+    private final FileChannel fileChannel;
+
+    public SinkWriter(OutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * @param out         the stream characters are written to
+     * @param fileChannel the file channel the stream writes to in the end, or null if it does not write to a file
+     */
+    public SinkWriter(OutputStream out, FileChannel fileChannel) {
+        super(out);
+        this.out = out;
+        this.fileChannel = fileChannel;
+    }
+
+    /**
+     * Flushes any characters written so far and returns a channel writing straight to the sink
+     * For a file this is the file's own channel, which lets `FileChannel.transferTo` copy between files in the kernel
+     *
+     * @return a channel writing to the underlying sink
+     * @throws IOException if flushing throws an error
+     */
+    public WritableByteChannel channel() throws IOException {
+        flush();
+        if (fileChannel != null) {
+            return fileChannel;
+        }
+        if (out instanceof FileOutputStream) {
+            return ((FileOutputStream) out).getChannel();
+        }
+        return Channels.newChannel(out);
+    }
+}
@@ -0,0 +1,132 @@
+package uk.ac.ucl.shell;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The `StagedOutputs` class holds back the '>' and '>>' files of a command run in a parallel group (see
+ * `Eval.runSequence`), so that none of them takes effect unless every command before it in the group has succeeded.
+ * While the command runs, each file it redirects to is written to a temporary file in the same directory.
+ * Once it is committed, a '>' file is moved over its target and a '>>' file is appended to it.
+ */
+class StagedOutputs {
+
+    private static final ThreadLocal<StagedOutputs> current = new ThreadLocal<>();
+
+    private final ArrayList<Staged> files = new ArrayList<>();
+
+    /**
+     * A temporary file standing in for the target of a redirection.
+     */
+    private static class Staged {
+        final Path temp;
+        final Path target;
+        final boolean append;
+
+        Staged(Path temp, Path target, boolean append) {
+            this.temp = temp;
+            this.target = target;
+            this.append = append;
+        }
+    }
+
+    /**
+     * @return the outputs the current thread stages its redirections in, or null if they are written in place
+     */
+    static StagedOutputs current() {
+        return current.get();
+    }
+
+    /**
+     * @param outputs the outputs the current thread stages its redirections in from now on, or null for none
+     */
+    static void setCurrent(StagedOutputs outputs) {
+        if (outputs == null) {
+            current.remove();
+        } else {
+            current.set(outputs);
+        }
+    }
+
+    /**
+     * Creates the temporary file standing in for a redirection target
+     *
+     * @param target the file redirected to
+     * @param append true for '>>', false for '>'
+     * @return a channel for writing the temporary file
+     * @throws IOException if the temporary file cannot be created
+     */
+    FileChannel open(Path target, boolean append) throws IOException {
+        Path temp = target.resolveSibling("." + target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        files.add(new Staged(temp, target, append));
+        return channel;
+    }
+
+    /**
+     * Puts every staged file in place, in the order they were opened, once the command has closed them
+     *
+     * @throws IOException if a target cannot be written
+     */
+    void commit() throws IOException {
+        try {
+            for (Staged file : files) {
+                if (file.append) {
+                    appendTo(file.temp, file.target);
+                    Files.delete(file.temp);
+                } else {
+                    keepPermissions(file.target, file.temp);
+                    Files.move(file.temp, file.target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } finally {
+            discard();
+        }
+    }
+
+    /**
+     * Deletes the staged files that were not put in place, leaving their targets as they were
+     */
+    void discard() {
+        for (Staged file : files) {
+            try {
+                Files.deleteIfExists(file.temp);
+            } catch (IOException e) {
+                // a temporary file that cannot be deleted is left behind, but its target is untouched
+            }
+        }
+        files.clear();
+    }
+
+    private static void appendTo(Path temp, Path target) throws IOException {
+        try (FileChannel from = FileChannel.open(temp, StandardOpenOption.READ);
+             FileChannel to = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.APPEND)) {
+            long size = from.size();
+            for (long position = 0; position < size; ) {
+                position += from.transferTo(position, size - position, to);
+            }
+        }
+    }
+
+    /**
+     * Gives the temporary file the permissions of the target it replaces, as writing the target in place would
+     */
+    private static void keepPermissions(Path target, Path temp) throws IOException {
+        if (!Files.exists(target)) {
+            return;
+        }
+        try {
+            Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system: the file keeps the permissions it was created with
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package uk.ac.ucl.shell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The `Substitution` class evaluates the backquoted commands of an atomic command for `Eval.patternMatcher`.
+ * With the parallel option on, the backquoted commands written in a call are started together before it is parsed,
+ * if none is a barrier and none conflicts with another (see `Effects`); `patternMatcher` then takes each output
+ * when it reaches the command, in order. Commands that appear only in the output of another are run when reached.
+ * With the memoize option on, the output of a command that writes nothing is kept until the end of the command line,
+ * and reused by an identical command run in the same directory while the files it reads are unchanged.
+ */
+public class Substitution {
+
+    private static final ConcurrentHashMap<String, String> memo = new ConcurrentHashMap<>();
+
+    /**
+     * the commands started together, by the index of their opening backquote in the atomic command
+     */
+    private final HashMap<Integer, String> commands = new HashMap<>();
+    private final HashMap<Integer, Future<String>> outputs = new HashMap<>();
+    /**
+     * the token of the commands started together, cancelled once the atomic command is parsed
+     */
+    private final Cancellation token = new Cancellation(Cancellation.current());
+    private ExecutorService pool;
+
+    private Substitution() {
+    }
+
+    /**
+     * Forgets the outputs kept for memoization, at the start of a command line
+     */
+    public static void reset() {
+        memo.clear();
+    }
+
+    /**
+     * Starts the backquoted commands of an atomic command that can run at the same time
+     *
+     * @param atomicCommand the atomic command
+     * @param pattern       the pattern `patternMatcher` splits it with, whose group 3 is a backquoted command
+     * @return the substitutions of the atomic command, to be closed once it is parsed
+     */
+    static Substitution start(String atomicCommand, Pattern pattern) {
+        Substitution substitution = new Substitution();
+        if (!Shell.isEnabled("parallel")) {
+            return substitution;
+        }
+        Matcher matcher = pattern.matcher(atomicCommand);
+        ArrayList<Effects> effects = new ArrayList<>();
+        while (matcher.find()) {
+            if (matcher.group(3) != null) {
+                Effects command = Effects.of(new Call(matcher.group(3), "", System.out));
+                //only the first command may write, so nothing remains of those after one that fails
+                boolean writes = !command.writes().isEmpty() && !effects.isEmpty();
+                if (command.isBarrier() || writes || effects.stream().anyMatch(command::conflictsWith)) {
+                    return substitution;
+                }
+                effects.add(command);
+                substitution.commands.put(matcher.start(), matcher.group(3));
+            }
+        }
+        if (substitution.commands.size() < 2) {
+            substitution.commands.clear();
+            return substitution;
+        }
+        //one thread per command, as a substitution often waits on a file rather than a processor
+        String directory = Shell.getCurrentDirectory();
+        substitution.pool = Executors.newFixedThreadPool(substitution.commands.size(), runnable -> {
+            Thread thread = new Thread(runnable, "substitution");
+            thread.setDaemon(true);
+            return thread;
+        });
+        substitution.commands.forEach((start, command) -> substitution.outputs.put(start, substitution.pool.submit(() -> {
+            Shell.setJobDirectory(directory);
+            Cancellation.setCurrent(substitution.token);
+            try {
+                return evaluate(command);
+            } finally {
+                Shell.setJobDirectory(null);
+                Cancellation.setCurrent(null);
+            }
+        })));
+        return substitution;
+    }
+
+    /**
+     * Returns the output of a backquoted command, waiting for it if it was started, or running it now if not
+     *
+     * @param start   the index of the opening backquote in the atomic command, or -1 if it is in the output of another
+     * @param command the command between the backquotes
+     * @return the output of the command
+     * @throws IOException if an I/O error occurs while running the command
+     */
+    String output(int start, String command) throws IOException {
+        if (!command.equals(commands.get(start)) || !outputs.containsKey(start)) {
+            return evaluate(command);
+        }
+        try {
+            return Cancellation.await(outputs.remove(start));
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a command substitution");
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Stops the commands started together whose output was not taken, and shuts down their threads
+     */
+    void close() {
+        if (pool != null) {
+            token.cancel("substitution not needed");
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs a command and returns its output, or the output it had before if it is memoized
+     */
+    private static String evaluate(String command) throws IOException {
+        String key = Shell.isEnabled("memoize") ? key(command) : null;
+        if (key != null) {
+            String output = memo.get(key);
+            if (output != null) {
+                return output;
+            }
+        }
+        ByteArrayOutputStream subOutput = new ByteArrayOutputStream();
+        new Call(command, "", subOutput).accept(new Eval());
+        String output = subOutput.toString();
+        if (key != null) {
+            memo.put(key, output);
+        }
+        return output;
+    }
+
+    /**
+     * @return the command, the current directory, and the modification time and size of every file the command reads,
+     * or null if the command may write a file, change the shell or read files it does not name
+     */
+    private static String key(String command) throws IOException {
+        Effects effects = Effects.of(new Call(command, "", System.out));
+        if (effects.isBarrier() || effects.readsEverything() || !effects.writes().isEmpty()) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(command).append('\0').append(Shell.getCurrentDirectory());
+        List<Path> reads = new ArrayList<>(effects.reads());
+        reads.sort(null);
+        for (Path path : reads) {
+            key.append('\0').append(path);
+            if (Files.exists(path)) {
+                key.append(':').append(Files.getLastModifiedTime(path).toMillis()).append(':').append(Files.size(path));
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,409 @@
+package uk.ac.ucl.shell;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The `TrigramIndex` class is an on-disk index recording, for every file under a root directory,
+ * the set of byte trigrams (3-byte sequences) the file contains.
+ * It is built by the `index` application and stored under `.shellindex` in the root directory.
+ * `grep` consults it to skip files that cannot contain a match for its pattern.
+ */
+public class TrigramIndex {
+
+    static final String INDEX_DIRECTORY = ".shellindex";
+    static final String INDEX_FILE = "trigrams.idx";
+
+    private static final int MAGIC = 0x53484958;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path root;
+    private final Map<String, Entry> entries;
+    private int reindexed = 0;
+
+    /**
+     * The indexed state of a single file: its size and modification time when it was indexed,
+     * and its sorted, distinct trigrams.
+     */
+    static class Entry {
+        final long size;
+        final long modified;
+        final int[] trigrams;
+
+        Entry(long size, long modified, int[] trigrams) {
+            this.size = size;
+            this.modified = modified;
+            this.trigrams = trigrams;
+        }
+    }
+
+    private TrigramIndex(Path root, Map<String, Entry> entries) {
+        this.root = root.toAbsolutePath().normalize();
+        this.entries = entries;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getReindexed() {
+        return reindexed;
+    }
+
+    /**
+     * Loads the index stored in the given root directory.
+     *
+     * @param root the directory the index was built for
+     * @return the loaded index, or null if there is no readable index in the directory
+     */
+    public static TrigramIndex load(Path root) {
+        Path indexFile = root.resolve(INDEX_DIRECTORY).resolve(INDEX_FILE);
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                int[] trigrams = new int[in.readInt()];
+                int previous = 0;
+                for (int j = 0; j < trigrams.length; j++) {
+                    previous += readVarInt(in);
+                    trigrams[j] = previous;
+                }
+                entries.put(path, new Entry(size, modified, trigrams));
+            }
+            return new TrigramIndex(root, entries);
+        } catch (IOException e) {
+            // a truncated or corrupt index is treated as absent, so grep falls back to scanning
+            return null;
+        }
+    }
+
+    /**
+     * Builds or incrementally refreshes the index of the given root directory and writes it to disk.
+     * Files whose size and modification time are unchanged since the previous build are not re-read.
+     *
+     * @param directory the directory to index
+     * @return the refreshed index
+     * @throws IOException if the directory cannot be walked or the index cannot be written
+     */
+    public static TrigramIndex update(Path directory) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        TrigramIndex previous = load(root);
+        Map<String, Entry> old = previous == null ? new HashMap<>() : previous.entries;
+        Map<String, Entry> entries = new HashMap<>();
+        TrigramCollector collector = new TrigramCollector();
+        int[] updated = {0};
+
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.getFileName() != null && dir.getFileName().toString().equals(INDEX_DIRECTORY)
+                        ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String key = key(root, file);
+                long modified = attrs.lastModifiedTime().toMillis();
+                Entry entry = old.get(key);
+                if (entry == null || entry.size != attrs.size() || entry.modified != modified) {
+                    try {
+                        entry = new Entry(attrs.size(), modified, collector.collect(file));
+                        updated[0]++;
+                    } catch (IOException e) {
+                        // unreadable files are left out of the index and are always scanned
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+                entries.put(key, entry);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        TrigramIndex index = new TrigramIndex(root, entries);
+        index.reindexed = updated[0];
+        index.save();
+        return index;
+    }
+
+    /**
+     * Checks whether a file may contain all the given trigrams.
+     * Files that are not in the index, or have changed since they were indexed, may contain anything.
+     *
+     * @param file     the file to check
+     * @param required the trigrams a matching file must contain
+     * @return false only if the index proves the file cannot contain a match
+     */
+    public boolean mayContain(Path file, int[] required) {
+        Path absolute = file.toAbsolutePath().normalize();
+        if (!absolute.startsWith(root)) {
+            return true;
+        }
+        Entry entry = entries.get(key(root, absolute));
+        if (entry == null) {
+            return true;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(absolute, BasicFileAttributes.class);
+            if (attrs.size() != entry.size || attrs.lastModifiedTime().toMillis() != entry.modified) {
+                return true;
+            }
+        } catch (IOException e) {
+            return true;
+        }
+        for (int trigram : required) {
+            if (Arrays.binarySearch(entry.trigrams, trigram) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derives the trigrams that every line matching the given regular expression must contain.
+     * Only literal runs that are mandatory in every match contribute; patterns with alternation,
+     * inline flags, lookaround, quoting or escapes taking an argument yield no requirements.
+     *
+     * @param regex the regular expression given to grep
+     * @return the sorted required trigrams, or null if the index cannot narrow the search
+     */
+    public static int[] requiredTrigrams(String regex) {
+        ArrayList<String> runs = new ArrayList<>();
+        ArrayDeque<Integer> groups = new ArrayDeque<>();
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            switch (c) {
+                case '|':
+                    return null;
+                case '\\':
+                    if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                        // character classes, back-references and \Q quoting end the literal run
+                        if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                            return null;
+                        }
+                        // escapes taking an argument (such as \x41, \0101, \cA, \k<name>, \p{L}, \N{name} and the u escape)
+                        // would leave it to be read as literal text, so they are not narrowed
+                        if (i + 1 < regex.length() && "xu0ckpPN".indexOf(regex.charAt(i + 1)) >= 0) {
+                            return null;
+                        }
+                        endRun(runs, run);
+                        i += 2;
+                        // a back-reference may have more than one digit
+                        if (Character.isDigit(regex.charAt(i - 1))) {
+                            while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                                i++;
+                            }
+                        }
+                    } else {
+                        run.append(regex.charAt(i + 1));
+                        i += 2;
+                    }
+                    continue;
+                case '[':
+                    endRun(runs, run);
+                    i = skipCharacterClass(regex, i);
+                    continue;
+                case '(':
+                    if (i + 1 < regex.length() && regex.charAt(i + 1) == '?'
+                            && !(i + 2 < regex.length() && regex.charAt(i + 2) == ':')) {
+                        return null;
+                    }
+                    endRun(runs, run);
+                    groups.push(runs.size());
+                    i += regex.startsWith("(?:", i) ? 3 : 1;
+                    continue;
+                case ')':
+                    endRun(runs, run);
+                    int groupStart = groups.isEmpty() ? runs.size() : groups.pop();
+                    if (i + 1 < regex.length() && "?*{".indexOf(regex.charAt(i + 1)) >= 0) {
+                        // an optional group contributes nothing that every match must contain
+                        runs.subList(groupStart, runs.size()).clear();
+                    }
+                    break;
+                case '*':
+                case '?':
+                case '{':
+                    // the preceding character is optional or repeated an unknown number of times
+                    if (run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    endRun(runs, run);
+                    if (c == '{') {
+                        int close = regex.indexOf('}', i);
+                        i = close < 0 ? regex.length() : close + 1;
+                        continue;
+                    }
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    endRun(runs, run);
+                    break;
+                default:
+                    run.append(c);
+            }
+            i++;
+        }
+        endRun(runs, run);
+
+        TrigramCollector collector = new TrigramCollector();
+        for (String literal : runs) {
+            byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            collector.add(bytes, 0, bytes.length);
+        }
+        int[] trigrams = collector.finish();
+        return trigrams.length == 0 ? null : trigrams;
+    }
+
+    /**
+     * Writes the index to `.shellindex` in its root directory, replacing any previous index atomically.
+     *
+     * @throws IOException if the index cannot be written
+     */
+    private void save() throws IOException {
+        Path directory = Files.createDirectories(root.resolve(INDEX_DIRECTORY));
+        Path temp = Files.createTempFile(directory, INDEX_FILE, ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeInt(entry.trigrams.length);
+                int previous = 0;
+                for (int trigram : entry.trigrams) {
+                    writeVarInt(out, trigram - previous);
+                    previous = trigram;
+                }
+            }
+        }
+        Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String key(Path root, Path file) {
+        return root.relativize(file.toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+
+    private static void endRun(ArrayList<String> runs, StringBuilder run) {
+        if (run.length() >= 3) {
+            runs.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    private static int skipCharacterClass(String regex, int open) {
+        int i = open + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        while (i < regex.length() && regex.charAt(i) != ']') {
+            i += regex.charAt(i) == '\\' ? 2 : 1;
+        }
+        return i + 1;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Accumulates the distinct trigrams of a byte stream in a reusable 2^24-bit set.
+     */
+    static class TrigramCollector {
+        private final long[] seen = new long[1 << 18];
+        private int[] found = new int[1024];
+        private int count = 0;
+
+        int[] collect(Path file) throws IOException {
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buffer = new byte[BUFFER_SIZE + 2];
+                int carried = 0;
+                int read;
+                while ((read = in.read(buffer, carried, BUFFER_SIZE)) > 0) {
+                    int length = carried + read;
+                    add(buffer, 0, length);
+                    carried = Math.min(2, length);
+                    System.arraycopy(buffer, length - carried, buffer, 0, carried);
+                }
+            }
+            return finish();
+        }
+
+        void add(byte[] bytes, int offset, int length) {
+            for (int i = offset; i + 2 < offset + length; i++) {
+                int trigram = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+                long bit = 1L << (trigram & 63);
+                if ((seen[trigram >>> 6] & bit) == 0) {
+                    seen[trigram >>> 6] |= bit;
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = trigram;
+                }
+            }
+        }
+
+        int[] finish() {
+            int[] trigrams = Arrays.copyOf(found, count);
+            for (int i = 0; i < count; i++) {
+                seen[found[i] >>> 6] = 0;
+            }
+            count = 0;
+            Arrays.sort(trigrams);
+            return trigrams;
+        }
+    }
+}
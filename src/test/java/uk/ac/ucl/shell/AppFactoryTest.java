@@ -68,5 +68,8 @@ public class AppFactoryTest {
 
         app = a.generateApp("mkdir");
         assertTrue(app instanceof Mkdir);
+
+        app = a.generateApp("index");
+        assertTrue(app instanceof Index);
     }
 }
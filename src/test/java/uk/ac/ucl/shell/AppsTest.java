@@ -7,6 +7,8 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -14,6 +16,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -170,6 +173,31 @@ public class AppsTest {
         }
     }
 
+    @Test
+    public void testLsLongFormat() throws IOException {
+        new Ls().exec(new ArrayList<>(List.of("-l", "subDirectory")), "", writer);
+        String output = capture.toString();
+        assertTrue(output, output.matches("-[-rwx]{9} \\d+ \\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2} subemptyFile.txt" + sSeperator));
+    }
+
+    @Test
+    public void testLsRecursiveKeepsDepthFirstOrder() throws IOException {
+        Files.createDirectories(Paths.get(subDirectoryPath, "nested", "deeper"));
+        Files.createFile(Paths.get(subDirectoryPath, "nested", "deeper", "leaf.txt"));
+        new Ls().exec(new ArrayList<>(List.of("-R", "subDirectory")), "", writer);
+        String separator = System.getProperty("file.separator");
+        String nested = "subDirectory" + separator + "nested";
+        String[] lines = capture.toString().split(sSeperator, -1);
+        assertEquals("subDirectory:", lines[0]);
+        assertTrue(lines[1].contains("subemptyFile.txt") && lines[1].contains("nested"));
+        assertEquals("", lines[2]);
+        assertEquals(nested + ":", lines[3]);
+        assertEquals("deeper\t", lines[4]);
+        assertEquals("", lines[5]);
+        assertEquals(nested + separator + "deeper:", lines[6]);
+        assertEquals("leaf.txt\t", lines[7]);
+    }
+
     @Test
     public void testPwdValidExecution() throws IOException {
         Application pwd = new Pwd();
@@ -405,6 +433,17 @@ public class AppsTest {
         assertEquals(output, expectedOutput);
     }
 
+    @Test
+    public void testCatCopiesBytesToSink() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        SinkWriter sinkWriter = new SinkWriter(sink);
+        ArrayList<String> args = new ArrayList<>(Arrays.asList("singleLine.txt", emptyFileName, "multipleLines.txt"));
+        new Cat().exec(args, "", sinkWriter);
+        String expected = "This is a single line." + sSeperator + "Line 1" + sSeperator + "Line 2" + sSeperator
+                + "Line 3" + sSeperator;
+        assertEquals(expected, sink.toString());
+    }
+
     @Test
     public void testCatReadFromNonexistentFile() throws IOException {
         // Create arguments for Cat with a nonexistent file
@@ -547,6 +586,51 @@ public class AppsTest {
         head.exec(args, "", writer);
     }
 
+    @Test
+    public void testHeadBytesFromFile() throws IOException {
+        new Head().exec(new ArrayList<>(Arrays.asList("-c", "8", multipleLinesFileName)), "", writer);
+        assertEquals("Line 1" + sSeperator + "L", capture.toString());
+    }
+
+    @Test
+    public void testHeadBytesFromFileToSink() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        new Head().exec(new ArrayList<>(Arrays.asList("-c", "100", singleLineFileName)), "", new SinkWriter(sink));
+        assertEquals(singleLineFileContent, sink.toString());
+    }
+
+    @Test
+    public void testHeadBytesFromFileDecodesCharactersSplitBetweenReads() throws IOException {
+        String content = "a" + "\u00e9".repeat(100000);
+        Files.writeString(Paths.get(Shell.getCurrentDirectory(), "accents.txt"), content);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        OutputStreamWriter utf8Writer = new OutputStreamWriter(decoded, StandardCharsets.UTF_8);
+        new Head().exec(new ArrayList<>(Arrays.asList("-c", "150001", "accents.txt")), "", utf8Writer);
+        assertEquals(content.substring(0, 75001), decoded.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testHeadBytesFromStdinCountsEncodedBytes() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        new Head().exec(new ArrayList<>(Arrays.asList("-c", "4")), "a\u00e9\u20ac", new SinkWriter(sink));
+        byte[] expected = Arrays.copyOf("a\u00e9\u20ac".getBytes(StandardCharsets.UTF_8), 4);
+        assertArrayEquals(expected, sink.toByteArray());
+    }
+
+    @Test
+    public void testHeadLinesFromStdinBytes() throws IOException {
+        ByteBuffer input = ByteBuffer.wrap("a\r\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+        new Head().exec(new ArrayList<>(Arrays.asList("-n", "2")), input, writer);
+        assertEquals("a" + sSeperator + "b" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testHeadInvalidByteCount() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("head: second arg is not an integer");
+        new Head().exec(new ArrayList<>(Arrays.asList("-c", "x")), "abc", writer);
+    }
+
     // Tail
     @Test
     public void testTailReadFromNonexistentFile() throws IOException {
@@ -586,6 +670,24 @@ public class AppsTest {
         assertEquals(singleLineFileContent + sSeperator, output);
     }
 
+    @Test
+    public void testTailReadFromFileEndingInNewline() throws IOException {
+        Files.write(Paths.get(directoryPath, "trailing.txt"), "a\nb\n\nc\r\nd\n".getBytes(StandardCharsets.UTF_8));
+        new Tail().exec(new ArrayList<>(List.of("-n", "3", "trailing.txt")), "", writer);
+        assertEquals("" + sSeperator + "c" + sSeperator + "d" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testTailStdinBytes() throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append(i).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(input.toString().getBytes(StandardCharsets.UTF_8));
+        new Tail().exec(new ArrayList<>(List.of("-n", "3")), bytes, writer);
+        assertEquals("9997" + sSeperator + "9998" + sSeperator + "9999" + sSeperator, capture.toString());
+    }
+
     @Test
     public void testTailInvalidOperation() throws IOException {
         ArrayList<String> args = new ArrayList<String>(Arrays.asList(singleLineFileName, "-n"));
@@ -729,6 +831,173 @@ public class AppsTest {
         grep.exec(args, "", writer);
     }
 
+    @Test
+    public void testGrepLiteralMatchesNonAsciiFile() throws IOException {
+        Files.writeString(Paths.get(directoryPath, "unicode.txt"), "caf\u00e9 au lait\r\nth\u00e9 vert\nlatte\n");
+        OutputStreamWriter utf8Writer = new OutputStreamWriter(capture, StandardCharsets.UTF_8);
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("\u00e9", "unicode.txt"));
+        Application grep = new Grep();
+        grep.exec(args, "", utf8Writer);
+        assertEquals("caf\u00e9 au lait" + sSeperator + "th\u00e9 vert" + sSeperator,
+                capture.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGrepRegexMatchesAsciiAndNonAsciiLines() throws IOException {
+        Files.writeString(Paths.get(directoryPath, "unicode.txt"), "caf\u00e9 au lait\nlatte\nmilk\n");
+        OutputStreamWriter utf8Writer = new OutputStreamWriter(capture, StandardCharsets.UTF_8);
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("^[a-z]+ ?l?at", "unicode.txt"));
+        Application grep = new Grep();
+        grep.exec(args, "", utf8Writer);
+        assertEquals("latte" + sSeperator, capture.toString(StandardCharsets.UTF_8));
+
+        // '.' must match the single character \u00e9 rather than one of its two UTF-8 bytes
+        capture.reset();
+        args = new ArrayList<String>(Arrays.asList("f. a", "unicode.txt"));
+        new Grep().exec(args, "", utf8Writer);
+        assertEquals("caf\u00e9 au lait" + sSeperator, capture.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGrepStdinKeepsEmptyLines() throws IOException {
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("^$"));
+        Application grep = new Grep();
+        grep.exec(args, "a\n\nb\r\n\n", writer);
+        assertEquals(sSeperator + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testGrepWithIndexSkipsFilesWithoutMatch() throws IOException {
+        new Index().exec(new ArrayList<>(), "", writer);
+        capture.reset();
+
+        ArrayList<String> args = new ArrayList<String>(
+                Arrays.asList("Line \\d", multipleLinesFileName, singleLineFileName));
+        Application grep = new Grep();
+        grep.exec(args, "", writer);
+        String output = capture.toString();
+        String expected = "multipleLines.txt: Line 1" + sSeperator + "multipleLines.txt: Line 2" + sSeperator
+                + "multipleLines.txt: Line 3" + sSeperator;
+        assertEquals(expected, output);
+    }
+
+    @Test
+    public void testGrepWithIndexMatchesEscapesTakingArguments() throws IOException {
+        Files.writeString(Paths.get(Shell.getCurrentDirectory(), "escapes.txt"), "xyz\tAbc here");
+        Files.writeString(Paths.get(Shell.getCurrentDirectory(), "nothing.txt"), "nothing");
+        new Index().exec(new ArrayList<>(), "", writer);
+        for (String pattern : new String[]{"\\x41bc", "\\x{41}bc", "\\u0041bc", "\\0101bc", "z\\cIAbc",
+                "\\p{Lu}bc here", "\\pLbc here", "\\P{Ll}bc here", "\\N{LATIN CAPITAL LETTER A}bc"}) {
+            capture.reset();
+            new Grep().exec(new ArrayList<>(Arrays.asList(pattern, "escapes.txt", "nothing.txt")), "", writer);
+            assertEquals(pattern, "escapes.txt: xyz\tAbc here" + sSeperator, capture.toString());
+        }
+    }
+
+    @Test
+    public void testGrepWithIndexScansChangedFiles() throws IOException {
+        new Index().exec(new ArrayList<>(), "", writer);
+        FileWriter fileWriter = new FileWriter(singleLine);
+        fileWriter.write("Line 4 was added later.");
+        fileWriter.close();
+
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("Line 4", singleLineFileName));
+        Application grep = new Grep();
+        capture.reset();
+        grep.exec(args, "", writer);
+        assertEquals("Line 4 was added later." + sSeperator, capture.toString());
+    }
+
+    // Index
+
+    @Test
+    public void testIndexIsIncremental() throws IOException {
+        Application index = new Index();
+        index.exec(new ArrayList<>(), "", writer);
+        assertEquals("7 files indexed, 7 updated" + sSeperator, capture.toString());
+
+        FileWriter fileWriter = new FileWriter(abcPath);
+        fileWriter.write("DDD");
+        fileWriter.close();
+        capture.reset();
+        index.exec(new ArrayList<>(), "", writer);
+        assertEquals("7 files indexed, 1 updated" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testIndexNamesRelistsChangedDirectories() throws IOException {
+        Application index = new Index();
+        index.exec(new ArrayList<>(List.of("-names")), "", writer);
+        assertEquals("3 directories indexed, 3 updated" + sSeperator, capture.toString());
+        assertTrue(Files.isRegularFile(Paths.get(directoryPath, ".shellindex", "files.db")));
+
+        Files.createFile(Paths.get(subDirectoryPath, "added.txt"));
+        capture.reset();
+        index.exec(new ArrayList<>(List.of("-names")), "", writer);
+        // the root changed when .shellindex was created, and subDirectory when added.txt was
+        assertEquals("3 directories indexed, 2 updated" + sSeperator, capture.toString());
+
+        capture.reset();
+        index.exec(new ArrayList<>(List.of("-names")), "", writer);
+        assertEquals("3 directories indexed, 0 updated" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testIndexLinesIsReusedBySort() throws IOException {
+        new Index().exec(new ArrayList<>(List.of("-lines", multipleLinesFileName)), "", writer);
+        assertEquals("3 lines indexed" + sSeperator, capture.toString());
+        assertTrue(Files.isRegularFile(Paths.get(directoryPath, ".multipleLines.txt.lidx")));
+
+        capture.reset();
+        new Sort().exec(new ArrayList<>(List.of("-r", multipleLinesFileName)), "", writer);
+        assertEquals("Line 3" + sSeperator + "Line 2" + sSeperator + "Line 1" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testIndexLinesMissingFile() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("index: missing file argument");
+        new Index().exec(new ArrayList<>(List.of("-lines")), "", writer);
+    }
+
+    @Test
+    public void testWcCountsFilesAndTotal() throws IOException {
+        new Wc().exec(new ArrayList<>(List.of(multipleLinesFileName, singleLineFileName)), "", writer);
+        int multipleLinesBytes = ("Line 1" + sSeperator + "Line 2" + sSeperator + "Line 3").length();
+        String expected = String.format("%7d %7d %7d %s", 2, 6, multipleLinesBytes, multipleLinesFileName) + sSeperator
+                + String.format("%7d %7d %7d %s", 0, 5, 22, singleLineFileName) + sSeperator
+                + String.format("%7d %7d %7d %s", 2, 11, multipleLinesBytes + 22, "total") + sSeperator;
+        assertEquals(expected, capture.toString());
+    }
+
+    @Test
+    public void testWcOptionsOnStdin() throws IOException {
+        new Wc().exec(new ArrayList<>(List.of("-l")), "a b\n\nc\n", writer);
+        new Wc().exec(new ArrayList<>(List.of("-w", "-c")), ByteBuffer.wrap("  one\ttwo ".getBytes(StandardCharsets.UTF_8)), writer);
+        assertEquals("      3" + sSeperator + "      2      10" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testWcMissingFile() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("wc: cannot read missing.txt");
+        new Wc().exec(new ArrayList<>(List.of("missing.txt")), "", writer);
+    }
+
+    @Test
+    public void testIndexNonexistentDirectory() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("index: nonexistentDirectory is not an existing directory");
+        new Index().exec(new ArrayList<>(List.of("nonexistentDirectory")), "", writer);
+    }
+
+    @Test
+    public void testIndexTooManyArgs() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("index: too many arguments");
+        new Index().exec(new ArrayList<>(List.of("a", "b")), "", writer);
+    }
+
     // Cut
     @Test
     public void testCutInvalidArgsOne() throws IOException {
@@ -756,8 +1025,7 @@ public class AppsTest {
         Application cut = new Cut();
         cut.exec(args, "", writer);
         String output = capture.toString();
-        String expected = "Line" + sSeperator + "Line" + sSeperator + "Line" + sSeperator + " 1" + sSeperator + " 2"
-                + sSeperator + " 3" + sSeperator;
+        String expected = "Line 1" + sSeperator + "Line 2" + sSeperator + "Line 3" + sSeperator;
         assertEquals(expected, output);
     }
 
@@ -777,18 +1045,18 @@ public class AppsTest {
         Application cut = new Cut();
         cut.exec(args, input, writer);
         String output = capture.toString();
-        String expected = "Line" + sSeperator;
+        String expected = "Line" + sSeperator + "Line" + sSeperator + "Line" + sSeperator;
         assertEquals(expected, output);
     }
 
     @Test
     public void testCutValidArgNoEndBoundInput() throws IOException {
-        ArrayList<String> args = new ArrayList<String>(Arrays.asList("-n", "2"));
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("-n", "2-"));
         String input = read(multipleLines, 0, false, -1);
         Application cut = new Cut();
         cut.exec(args, input, writer);
         String output = capture.toString();
-        String expected = input.substring(1) + sSeperator;
+        String expected = "ine 1" + sSeperator + "ine 2" + sSeperator + "ine 3" + sSeperator;
         assertEquals(expected, output);
     }
 
@@ -799,10 +1067,68 @@ public class AppsTest {
         Application cut = new Cut();
         cut.exec(args, input, writer);
         String output = capture.toString();
-        String expected = input.substring(0, 3) + sSeperator;
+        String expected = "Lin" + sSeperator + "Lin" + sSeperator + "Lin" + sSeperator;
         assertEquals(expected, output);
     }
 
+    @Test
+    public void testCutSinglePositionsAndOverlappingRanges() throws IOException {
+        Application cut = new Cut();
+        cut.exec(new ArrayList<>(Arrays.asList("-b", "1")), "abc\n", writer);
+        cut.exec(new ArrayList<>(Arrays.asList("-b", "2-,3-")), "abc\n", writer);
+        cut.exec(new ArrayList<>(Arrays.asList("-c", "5,1-2,2-3")), "abcdef\nab\n", writer);
+        String expected = "a" + sSeperator + "bc" + sSeperator + "abce" + sSeperator + "ab" + sSeperator;
+        assertEquals(expected, capture.toString());
+    }
+
+    @Test
+    public void testCutBytesFromFile() throws IOException {
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("-b", "1,6", multipleLines));
+        Application cut = new Cut();
+        cut.exec(args, "", writer);
+        assertEquals("L1" + sSeperator + "L2" + sSeperator + "L3" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testCutFields() throws IOException {
+        Application cut = new Cut();
+        cut.exec(new ArrayList<>(Arrays.asList("-d", ",", "-f", "1,3-")), "a,b,c,d\nno delimiter\nx,y\n", writer);
+        cut.exec(new ArrayList<>(Arrays.asList("-f", "2")), "a\tb\tc", writer);
+        String expected = "a,c,d" + sSeperator + "no delimiter" + sSeperator + "x" + sSeperator + "b" + sSeperator;
+        assertEquals(expected, capture.toString());
+    }
+
+    @Test
+    public void testCutFieldsFromFile() throws IOException {
+        Path fields = Files.write(Paths.get(directoryPath, "fields.csv"),
+                "a,b,c,d\nno delimiter\nx,yz,\r\nlast,".getBytes(StandardCharsets.UTF_8));
+        new Cut().exec(new ArrayList<>(Arrays.asList("-d", ",", "-f", "2-", fields.toString())), "", writer);
+        String expected = "b,c,d" + sSeperator + "no delimiter" + sSeperator + "yz," + sSeperator + sSeperator;
+        assertEquals(expected, capture.toString());
+    }
+
+    @Test
+    public void testCutStdinBytes() throws IOException {
+        ByteBuffer input = ByteBuffer.wrap("a,b,c\nxyz\n".getBytes(StandardCharsets.UTF_8));
+        new Cut().exec(new ArrayList<>(Arrays.asList("-d", ",", "-f", "2-")), input, writer);
+        new Cut().exec(new ArrayList<>(Arrays.asList("-b", "2-")), ByteBuffer.wrap("abc\n".getBytes(StandardCharsets.UTF_8)), writer);
+        assertEquals("b,c" + sSeperator + "xyz" + sSeperator + "bc" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testCutDelimiterWithoutFields() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("cut: a delimiter may only be given when selecting fields");
+        new Cut().exec(new ArrayList<>(Arrays.asList("-d", ",", "-b", "1")), "a,b", writer);
+    }
+
+    @Test
+    public void testCutDecreasingRange() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("cut: invalid decreasing range: 3-1");
+        new Cut().exec(new ArrayList<>(Arrays.asList("-b", "3-1")), "abc", writer);
+    }
+
     // Find
     @Test
     public void testFindInvalidArg() throws IOException {
@@ -818,7 +1144,7 @@ public class AppsTest {
     @Test
     public void testFindValidArgThree() throws IOException {
         ArrayList<String> args = new ArrayList<String>(
-                Arrays.asList("", ".*", Shell.getCurrentDirectory() + "/subDirectory"));
+                Arrays.asList("-name", ".*", Shell.getCurrentDirectory() + "/subDirectory"));
         Application find = new Find();
         find.exec(args, "", writer);
         String output = capture.toString();
@@ -827,7 +1153,7 @@ public class AppsTest {
 
     @Test
     public void testFindValidNoPathArgThree() throws IOException {
-        ArrayList<String> args = new ArrayList<String>(Arrays.asList("", ".*"));
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("-name", ".*"));
         Application find = new Find();
         find.exec(args, "", writer);
         String output = capture.toString();
@@ -841,6 +1167,112 @@ public class AppsTest {
         }
     }
 
+    @Test
+    public void testFindSortedWithMaxDepth() throws IOException {
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("-name", "*.txt", "-maxdepth", "1", "-sorted"));
+        Application find = new Find();
+        find.exec(args, "", writer);
+        String expected = "abc.txt" + sSeperator + "emptyFile.txt" + sSeperator + "mixedContent.txt" + sSeperator
+                + "multipleLines.txt" + sSeperator + "singleLine.txt" + sSeperator + "testGrep.txt" + sSeperator;
+        assertEquals(expected, capture.toString());
+    }
+
+    @Test
+    public void testFindDirectoriesWithPrune() throws IOException {
+        Files.createDirectory(Paths.get(subDirectoryPath, "nested"));
+        Files.createDirectory(Paths.get(subDirectoryEmpty, "hidden"));
+        ArrayList<String> args = new ArrayList<String>(
+                Arrays.asList("-type", "d", "-prune", "*empty", "-sorted", "-name", "*e*"));
+        Application find = new Find();
+        find.exec(args, "", writer);
+        String separator = System.getProperty("file.separator");
+        String expected = "subDirectory" + sSeperator + "subDirectory" + separator + "nested" + sSeperator
+                + "subDirectoryempty" + sSeperator;
+        assertEquals(expected, capture.toString());
+    }
+
+    @Test
+    public void testFindWritesInWalkOrder() throws IOException {
+        Path nested = Files.createDirectories(Paths.get(subDirectoryPath, "a", "b"));
+        Files.createFile(nested.resolve("deep.txt"));
+        Files.createFile(nested.getParent().resolve("middle.txt"));
+        StringBuilder expected = new StringBuilder();
+        try (Stream<Path> walk = Files.walk(Paths.get(directoryPath))) {
+            walk.filter(Files::isRegularFile).forEach(path ->
+                    expected.append(Paths.get(directoryPath).relativize(path)).append(sSeperator));
+        }
+        new Find().exec(new ArrayList<>(Arrays.asList("-name", "*")), "", writer);
+        assertEquals(expected.toString(), capture.toString());
+    }
+
+    @Test
+    public void testFindPathBeforeOptions() throws IOException {
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("subDirectory", "-name", "*File.txt"));
+        Application find = new Find();
+        find.exec(args, "", writer);
+        assertEquals("subDirectory" + System.getProperty("file.separator") + "subemptyFile.txt" + sSeperator,
+                capture.toString());
+    }
+
+    @Test
+    public void testFindIndexMatchesLiveWalk() throws IOException {
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("-name", "*.txt", "-sorted"));
+        new Find().exec(args, "", writer);
+        String live = capture.toString();
+
+        capture.reset();
+        args.add("-index");
+        new Find().exec(args, "", writer);
+        assertEquals(live, capture.toString());
+        assertFalse(Files.exists(Paths.get(directoryPath, ".shellindex")));
+
+        capture.reset();
+        new Index().exec(new ArrayList<>(List.of("-names")), "", writer);
+        capture.reset();
+        new Find().exec(args, "", writer);
+        assertEquals(live, capture.toString());
+    }
+
+    @Test
+    public void testFindDoesNotWalkIndexDirectory() throws IOException {
+        new Index().exec(new ArrayList<>(List.of("-names")), "", writer);
+        capture.reset();
+        new Find().exec(new ArrayList<>(Arrays.asList("-name", "*.db")), "", writer);
+        assertEquals("", capture.toString());
+        new Find().exec(new ArrayList<>(Arrays.asList("-name", "*.db", "-index")), "", writer);
+        assertEquals("", capture.toString());
+    }
+
+    @Test
+    public void testFindIndexSeesChangedDirectories() throws IOException {
+        new Index().exec(new ArrayList<>(List.of("-names")), "", writer);
+        capture.reset();
+        ArrayList<String> args = new ArrayList<String>(Arrays.asList("subDirectory", "-name", "*.txt", "-index"));
+        new Find().exec(args, "", writer);
+        String separator = System.getProperty("file.separator");
+        assertEquals("subDirectory" + separator + "subemptyFile.txt" + sSeperator, capture.toString());
+
+        Files.delete(Paths.get(subDirectoryPath, "subemptyFile.txt"));
+        Files.createFile(Paths.get(subDirectoryPath, "added.txt"));
+        capture.reset();
+        new Find().exec(args, "", writer);
+        assertEquals("subDirectory" + separator + "added.txt" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testFindMissingOptionValue() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("find: missing argument to -maxdepth");
+        new Find().exec(new ArrayList<>(Arrays.asList("-name", "*", "-maxdepth")), "", writer);
+    }
+
+    @Test
+    public void testFindUnknownType() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("find: unknown type x");
+        new Find().exec(new ArrayList<>(Arrays.asList("-type", "x")), "", writer);
+    }
+
     @Test
     public void testExecWithTooManyArguments() throws IOException {
         Uniq uniq = new Uniq();
@@ -885,6 +1317,66 @@ public class AppsTest {
         assertEquals(expected.toLowerCase(), output);
     }
 
+    @Test
+    public void testUniqCount() throws IOException {
+        Application uniq = new Uniq();
+        uniq.exec(new ArrayList<>(List.of("-c")), "a\na\nb\na\n", writer);
+        String expected = "      2 a" + sSeperator + "      1 b" + sSeperator + "      1 a" + sSeperator;
+        assertEquals(expected, capture.toString());
+    }
+
+    @Test
+    public void testUniqRepeatedAndUniqueOnly() throws IOException {
+        new Uniq().exec(new ArrayList<>(List.of("-d")), "a\na\nb\nc\nc\n", writer);
+        assertEquals("a" + sSeperator + "c" + sSeperator, capture.toString());
+        capture.reset();
+        new Uniq().exec(new ArrayList<>(List.of("-u")), "a\na\nb\nc\nc\n", writer);
+        assertEquals("b" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testUniqCountIgnoringCase() throws IOException {
+        new Uniq().exec(new ArrayList<>(List.of("-c", "-i")), "Abc\naBC\nabd\n", writer);
+        assertEquals("      2 abc" + sSeperator + "      1 abd" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testUniqGlobalKeepsFirstOccurrences() throws IOException {
+        new Uniq().exec(new ArrayList<>(List.of("--global")), "b\na\nb\nc\na\n", writer);
+        assertEquals("b" + sSeperator + "a" + sSeperator + "c" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testUniqGlobalOffHeapIgnoringCase() throws IOException {
+        new Uniq().exec(new ArrayList<>(List.of("--global", "--off-heap", "-i")), "Ab\nx\naB\n", writer);
+        assertEquals("ab" + sSeperator + "x" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testUniqGlobalWithCount() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("uniq: --global cannot be combined with -c, -d or -u");
+        new Uniq().exec(new ArrayList<>(List.of("--global", "-c")), "", writer);
+    }
+
+    @Test
+    public void testUniqStdinBytesAcrossBatches() throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append(i < 5000 ? "same" : "other").append('\n');
+        }
+        input.append("last");
+        ByteBuffer bytes = ByteBuffer.wrap(input.toString().getBytes(StandardCharsets.UTF_8));
+        new Uniq().exec(new ArrayList<>(List.of("-c")), bytes, writer);
+        assertEquals("   5000 same" + sSeperator + "   5000 other" + sSeperator + "      1 last" + sSeperator,
+                capture.toString());
+    }
+
+    @Test
+    public void testUniqNoArgsUsesStdin() throws IOException {
+        new Uniq().exec(new ArrayList<>(), "x\nx\n", writer);
+        assertEquals("x" + sSeperator, capture.toString());
+    }
 
     @Test
     public void testSortReverse() throws IOException {
@@ -1101,4 +1593,186 @@ public class AppsTest {
         assertTrue(Files.isRegularFile(newFile3));
         assertEquals(expected, output);
     }
+
+    @Test
+    public void testSetSwitchesAndListsOptions() throws IOException {
+        try {
+            new SetOption().exec(new ArrayList<>(List.of("+o", "fusion")), "", writer);
+            new SetOption().exec(new ArrayList<>(List.of("-o", "explain")), "", writer);
+            new SetOption().exec(new ArrayList<>(), "", writer);
+            assertEquals("explain on" + sSeperator + "fusion off" + sSeperator + "memoize off" + sSeperator + "parallel off" + sSeperator + "rewrite-cat-grep on" + sSeperator
+                    + "rewrite-grep-grep on" + sSeperator + "rewrite-sort-uniq on" + sSeperator, capture.toString());
+        } finally {
+            Shell.setEnabled("explain", false);
+            Shell.setEnabled("fusion", true);
+        }
+    }
+
+    @Test
+    public void testSetUnknownOption() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("set: unknown option nope");
+        new SetOption().exec(new ArrayList<>(List.of("-o", "nope")), "", writer);
+    }
+
+    @Test
+    public void testWaitInvalidJobId() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("wait: invalid job id x");
+        new Wait().exec(new ArrayList<>(List.of("x")), "", writer);
+    }
+
+    @Test
+    public void testWaitNoSuchJob() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("wait: no such job 7");
+        new Wait().exec(new ArrayList<>(List.of("7")), "", writer);
+    }
+
+    @Test
+    public void testJobsTooManyArguments() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("jobs: too many arguments");
+        new Jobs().exec(new ArrayList<>(List.of("1")), "", writer);
+    }
+
+    @Test
+    public void testParallelMatchesSerialOverManyChunks() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * Parallel.CHUNK_SIZE; i++) {
+            text.append("line ").append(i).append(i % 7 == 0 ? " seven" : "").append('\n');
+        }
+        ByteBuffer input = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        OutputStreamWriter serialWriter = new SinkWriter(serial);
+        new Grep().exec(new ArrayList<>(List.of("seven")), input.duplicate(), serialWriter);
+        new Cut().exec(new ArrayList<>(List.of("-d", " ", "-f", "2")), input.duplicate(), serialWriter);
+        new Parallel().exec(new ArrayList<>(List.of("-j", "3", "grep", "seven")), input.duplicate(), writer);
+        new Parallel().exec(new ArrayList<>(List.of("-j", "2", "cut", "-d", " ", "-f", "2")), input.duplicate(), writer);
+        assertEquals(serial.toString(), capture.toString());
+    }
+
+    @Test
+    public void testParallelStatefulApplication() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("parallel: uniq cannot run in parallel");
+        new Parallel().exec(new ArrayList<>(List.of("uniq")), "a\na\n", writer);
+    }
+
+    @Test
+    public void testParallelInvalidNumberOfJobs() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("parallel: invalid number of jobs x");
+        new Parallel().exec(new ArrayList<>(List.of("-j", "x", "grep", "a")), "a\n", writer);
+    }
+
+    @Test
+    public void testParallelKeepsEmptyStdinError() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("grep: empty stdin");
+        new Parallel().exec(new ArrayList<>(List.of("grep", "a")), "", writer);
+    }
+
+    @Test
+    public void testXargsBatchesItemsInOrder() throws IOException {
+        new Xargs().exec(new ArrayList<>(List.of("-n", "2", "-P", "3", "-k", "echo", "x")), "a b\nc \"d e\"\nf\n", writer);
+        assertEquals("x a b " + sSeperator + "x c d e " + sSeperator + "x f " + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testXargsWithoutCommandEchoesItems() throws IOException {
+        new Xargs().exec(new ArrayList<>(), "a\nb\n", writer);
+        assertEquals("a b " + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testXargsThrowsFirstErrorAfterOutput() throws IOException {
+        try {
+            new Xargs().exec(new ArrayList<>(List.of("-n", "1", "-P", "2", "-k", "cat")), "missing1.txt " + singleLineFileName + " missing2.txt", writer);
+            fail("xargs should throw the error of cat");
+        } catch (RuntimeException e) {
+            assertEquals("cat: file does not exist", e.getMessage());
+        }
+        assertEquals(singleLineFileContent + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testXargsInvalidNumber() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("xargs: invalid number 0");
+        new Xargs().exec(new ArrayList<>(List.of("-P", "0", "echo")), "a", writer);
+    }
+
+    @Test
+    public void testTimeoutRunsCommandInTime() throws IOException {
+        new Timeout().exec(new ArrayList<>(List.of("10", "grep", "b")), "a\nb\n", writer);
+        assertEquals("b" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testTimeoutInvalidInterval() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("timeout: invalid time interval -1");
+        new Timeout().exec(new ArrayList<>(List.of("-1", "echo", "a")), "", writer);
+    }
+
+    @Test
+    public void testTimeoutStopsCommand() throws IOException {
+        try {
+            new Timeout().exec(new ArrayList<>(List.of("0.05", "xargs", "-n", "1", "sort", multipleLinesFileName)), "1 2 3 4 5 6 7 8 9 10 ".repeat(100000), writer);
+            fail("timeout should stop xargs");
+        } catch (RuntimeException e) {
+            assertEquals("timeout: timed out after 0.05 seconds", e.getMessage());
+        }
+        assertFalse(Cancellation.current().isCancelled());
+    }
+
+    @Test
+    public void testUlimitSetsAndPrintsLimit() throws IOException {
+        try {
+            new Ulimit().exec(new ArrayList<>(List.of("-m", "2M")), "", writer);
+            new Ulimit().exec(new ArrayList<>(List.of("-m")), "", writer);
+            new Ulimit().exec(new ArrayList<>(List.of("-m", "unlimited")), "", writer);
+            new Ulimit().exec(new ArrayList<>(), "", writer);
+        } finally {
+            MemoryBudget.setLimit(MemoryBudget.UNLIMITED);
+        }
+        assertEquals("2048" + sSeperator + "unlimited" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testUlimitInvalidSize() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("ulimit: invalid size 0");
+        new Ulimit().exec(new ArrayList<>(List.of("-m", "0")), "", writer);
+    }
+
+    @Test
+    public void testGrepAndKeepsLinesMatchingEveryPattern() throws IOException {
+        new Grep().exec(new ArrayList<>(List.of("line", "--and", "Line|An", mixedContentFileName)), "", writer);
+        new Grep().exec(new ArrayList<>(List.of("i", "--and", "2")), ByteBuffer.wrap("Line 1\nLine 2\n".getBytes(StandardCharsets.UTF_8)), writer);
+        assertEquals("Another line." + sSeperator + "Line 2" + sSeperator, capture.toString());
+    }
+
+    @Test
+    public void testGrepAndFailsLikePipeWhenFirstPatternMatchesNothing() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("grep: empty stdin");
+        new Grep().exec(new ArrayList<>(List.of("zzz", "--and", "Line", multipleLinesFileName)), "", writer);
+    }
+
+    @Test
+    public void testGrepAndMissingPattern() throws IOException {
+        exceptionRule.expect(RuntimeException.class);
+        exceptionRule.expectMessage("grep: wrong number of arguments");
+        new Grep().exec(new ArrayList<>(List.of("Line", "--and")), "Line 1", writer);
+    }
+
+    @Test
+    public void testSortUniqueDropsRepeatedLines() throws IOException {
+        new Sort().exec(new ArrayList<>(List.of("-u")), "b\na\r\nb\na\n", writer);
+        new Sort().exec(new ArrayList<>(List.of("-r", "-u", abcPath.substring(directoryPath.length() + 1))), "", writer);
+        assertEquals("a" + sSeperator + "b" + sSeperator + "CCC" + sSeperator + "BBB" + sSeperator + "AAA" + sSeperator,
+                capture.toString());
+    }
 }
@@ -0,0 +1,68 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ByteRopeTest {
+
+    @Test
+    public void testEmptyRope() {
+        ByteRope rope = new ByteRope();
+        assertEquals(0, rope.size());
+        assertFalse(rope.toByteBuffer().hasRemaining());
+        assertEquals("", rope.toString());
+    }
+
+    @Test
+    public void testSegmentsAreJoinedInOrder() {
+        ByteRope rope = new ByteRope();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            if (i % 2 == 0) {
+                rope.write(line.getBytes(StandardCharsets.UTF_8), 0, line.length());
+            } else {
+                for (byte b : line.getBytes(StandardCharsets.UTF_8)) {
+                    rope.write(b);
+                }
+            }
+        }
+        assertEquals(expected.length(), rope.size());
+        ByteBuffer bytes = rope.toByteBuffer();
+        assertEquals(expected.length(), bytes.remaining());
+        assertEquals(expected.toString(), rope.toString());
+        // joining happens once, so the same array is handed out again
+        assertSame(bytes.array(), rope.toByteBuffer().array());
+    }
+
+    @Test
+    public void testWritesAfterDecodingAreSeen() {
+        ByteRope rope = new ByteRope();
+        rope.write('a');
+        assertEquals("a", rope.toString());
+        byte[] large = new byte[3 << 20];
+        Arrays.fill(large, (byte) 'b');
+        rope.write(large, 0, large.length);
+        assertEquals(1 + large.length, rope.toString().length());
+        assertEquals('b', rope.toString().charAt(large.length));
+    }
+
+    @Test
+    public void testMultiByteCharactersAcrossSegments() {
+        ByteRope rope = new ByteRope();
+        byte[] euro = "\u20ac".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 10000; i++) {
+            // three-byte characters written one byte at a time straddle segment boundaries
+            for (byte b : euro) {
+                rope.write(b);
+            }
+        }
+        assertEquals("\u20ac".repeat(10000), rope.toString());
+    }
+}
@@ -0,0 +1,87 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ByteScannerTest {
+
+    private static byte[] randomBytes(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            // mostly letters, with newlines, commas and bytes that have the high bit set
+            int kind = random.nextInt(10);
+            bytes[i] = (byte) (kind == 0 ? '\n' : kind == 1 ? ',' : kind == 2 ? 0x80 + random.nextInt(128) : 'a' + kind);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testIndexOfMatchesPlainLoop() {
+        byte[] bytes = randomBytes(100, 1);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        for (byte target : new byte[]{'\n', ',', (byte) 0xFF, 0}) {
+            for (int start = 0; start < 20; start++) {
+                for (int end = start; end <= bytes.length; end += 7) {
+                    int expected = -1;
+                    for (int i = start; i < end; i++) {
+                        if (bytes[i] == target) {
+                            expected = i;
+                            break;
+                        }
+                    }
+                    assertEquals(expected, ByteScanner.indexOf(bytes, start, end, target));
+                    assertEquals(expected, ByteScanner.indexOf(direct, start, end, target));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLastIndexOfMatchesPlainLoop() {
+        byte[] bytes = randomBytes(100, 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        for (int start = 0; start < 20; start++) {
+            for (int end = start; end <= bytes.length; end += 5) {
+                int expected = -1;
+                for (int i = end - 1; i >= start; i--) {
+                    if (bytes[i] == '\n') {
+                        expected = i;
+                        break;
+                    }
+                }
+                assertEquals(expected, ByteScanner.lastIndexOf(direct, start, end, (byte) '\n'));
+            }
+        }
+    }
+
+    @Test
+    public void testCountMatchesPlainLoop() {
+        byte[] bytes = randomBytes(1000, 3);
+        int expected = 0;
+        for (byte b : bytes) {
+            if (b == '\n') {
+                expected++;
+            }
+        }
+        assertEquals(expected, ByteScanner.count(bytes, 0, bytes.length, (byte) '\n'));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        assertEquals(expected, ByteScanner.count(direct, 0, bytes.length, (byte) '\n'));
+        // every byte of a word matches at once
+        assertEquals(16, ByteScanner.count(new byte[16], 0, 16, (byte) 0));
+    }
+
+    @Test
+    public void testIsAscii() {
+        byte[] bytes = "plain ascii text".getBytes();
+        assertTrue(ByteScanner.isAscii(bytes, 0, bytes.length));
+        bytes[11] = (byte) 0xC3;
+        assertFalse(ByteScanner.isAscii(bytes, 0, bytes.length));
+        assertTrue(ByteScanner.isAscii(bytes, 0, 11));
+        assertTrue(ByteScanner.isAscii(bytes, 12, bytes.length));
+    }
+}
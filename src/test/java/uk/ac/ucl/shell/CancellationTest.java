@@ -0,0 +1,80 @@
+package uk.ac.ucl.shell;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CancellationTest {
+
+    @After
+    public void tearDown() {
+        Cancellation.setCurrent(null);
+    }
+
+    @Test
+    public void testChildIsCancelledWithParent() {
+        Cancellation parent = new Cancellation();
+        Cancellation child = new Cancellation(parent);
+        child.cancel("timed out");
+        assertFalse(parent.isCancelled());
+        assertEquals("timed out", child.reason());
+
+        Cancellation other = new Cancellation(parent);
+        parent.cancel("interrupted");
+        parent.cancel("again");
+        assertEquals("interrupted", other.reason());
+        assertEquals("timed out", child.reason());
+    }
+
+    @Test
+    public void testCancelAfterDelay() throws InterruptedException {
+        Cancellation token = new Cancellation();
+        token.cancelAfter(10, "timed out");
+        for (int i = 0; i < 200 && !token.isCancelled(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("timed out", token.reason());
+    }
+
+    @Test
+    public void testCancelledTokenStopsLineLoop() throws IOException {
+        Cancellation token = new Cancellation();
+        token.cancel("interrupted");
+        Cancellation.setCurrent(token);
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        try {
+            new Grep().exec(new ArrayList<>(List.of("a")), ByteBuffer.wrap("a\nb\n".getBytes(StandardCharsets.UTF_8)), new SinkWriter(capture));
+            fail("a cancelled grep should not run");
+        } catch (CancelledException e) {
+            assertEquals("interrupted", e.getMessage());
+        }
+        assertEquals("", capture.toString());
+    }
+
+    @Test
+    public void testAwaitStopsWaitingWhenCancelled() throws InterruptedException, ExecutionException {
+        Cancellation token = new Cancellation();
+        Cancellation.setCurrent(token);
+        token.cancelAfter(20, "interrupted");
+        try {
+            Cancellation.await(new CompletableFuture<>());
+            fail("await should stop once cancelled");
+        } catch (CancelledException e) {
+            assertEquals("interrupted", e.getMessage());
+        }
+        assertTrue(token.isCancelled());
+    }
+}
@@ -0,0 +1,71 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EffectsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Effects of(String atomicCommand) {
+        return Effects.of(new Call(atomicCommand, "", System.out));
+    }
+
+    @Test
+    public void testIndependentCommandsDoNotConflict() {
+        assertFalse(of("grep a f1 > o1").conflictsWith(of("grep b f2 > o2")));
+        assertFalse(of("sort f3 > o3").conflictsWith(of("cat f1 f3")));
+        assertFalse(of("echo a").conflictsWith(of("ls")));
+    }
+
+    @Test
+    public void testReadAfterWriteConflicts() {
+        assertTrue(of("echo a > o1").conflictsWith(of("cat o1")));
+        assertTrue(of("cut -b 1 < o1").conflictsWith(of("sort f > ./o1")));
+        assertTrue(of("mkdir dir").conflictsWith(of("cat dir/f")));
+    }
+
+    @Test
+    public void testSameTargetConflicts() {
+        assertTrue(of("echo a > o1").conflictsWith(of("echo b >> o1")));
+    }
+
+    @Test
+    public void testListingsAndGlobsConflictWithWriters() {
+        assertTrue(of("ls").conflictsWith(of("echo a > o1")));
+        assertTrue(of("cat *.txt").conflictsWith(of("touch new.txt")));
+        assertFalse(of("cat '*.txt'").conflictsWith(of("touch new.txt")));
+    }
+
+    @Test
+    public void testFindIndexWritesTheFilenameIndex() throws IOException {
+        Path root = folder.getRoot().toPath();
+        Shell.setCurrentDirectory(root.toString());
+        try {
+            assertFalse(of("find -index -name a").conflictsWith(of("ls -a")));
+            FilenameIndex index = FilenameIndex.open(root);
+            index.walk(root, (path, depth, flags) -> true);
+            index.save();
+            assertTrue(of("find -index -name a").conflictsWith(of("ls -a")));
+            assertFalse(of("find -name a").conflictsWith(of("ls -a")));
+        } finally {
+            Shell.setCurrentDirectory(System.getProperty("user.dir"));
+        }
+    }
+
+    @Test
+    public void testBarriers() {
+        assertTrue(of("cd dir").isBarrier());
+        assertTrue(of("set -o parallel").isBarrier());
+        assertTrue(of("echo `cat f`").isBarrier());
+        assertFalse(of("grep a f > o").isBarrier());
+    }
+}
@@ -1,21 +1,29 @@
 package uk.ac.ucl.shell;
 
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -106,6 +114,62 @@ public class EvalTest {
 
     }
 
+    @Test
+    public void testRunAppCatToFileCopiesBytes() throws IOException {
+        ArrayList<String> appArgs = new ArrayList<>(Arrays.asList("test.txt", "test.txt"));
+        ArrayList<String> outputFileNames = new ArrayList<>(Collections.singletonList("merged.txt"));
+        Eval.runApp("cat", appArgs, new ArrayList<>(), outputFileNames, "", new ByteArrayOutputStream());
+        String separator = System.getProperty("line.separator");
+        assertEquals("foo" + separator + "foo" + separator,
+                Files.readString(Paths.get(directoryPath, "merged.txt"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRunAppAppendsToFile() throws IOException {
+        ArrayList<String> appendFileNames = new ArrayList<>(Collections.singletonList("test.txt"));
+        Eval.runApp("echo", new ArrayList<>(Arrays.asList("bar")), new ArrayList<>(), new ArrayList<>(), appendFileNames,
+                "", new ByteArrayOutputStream());
+        String content = Files.readString(Paths.get(testTxtPath), StandardCharsets.UTF_8);
+        assertEquals("foobar " + System.getProperty("line.separator"), content);
+    }
+
+    @Test
+    public void testRunAppGrepReadsMappedInputFile() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        Files.writeString(Paths.get(directoryPath, "large.txt"), text, StandardCharsets.UTF_8);
+        ByteArrayOutputStream appOutput = new ByteArrayOutputStream();
+        Eval.runApp("grep", new ArrayList<>(Arrays.asList("^line 1999.$")),
+                new ArrayList<>(Collections.singletonList("large.txt")), new ArrayList<>(), "", appOutput);
+        String separator = System.getProperty("line.separator");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            expected.append("line 1999").append(i).append(separator);
+        }
+        assertEquals(expected.toString(), appOutput.toString());
+    }
+
+    @Test
+    public void testRunAppUnsafeWithInputFile() throws IOException {
+        ByteArrayOutputStream appOutput = new ByteArrayOutputStream();
+        Eval.runApp("_grep", new ArrayList<>(Arrays.asList("(")),
+                new ArrayList<>(Collections.singletonList("test.txt")), new ArrayList<>(), "", appOutput);
+        assertEquals("grep: invalid regular expression" + System.getProperty("line.separator"), appOutput.toString());
+    }
+
+    @Test
+    public void testPatternMatcherAppendRedirection() throws IOException {
+        ArrayList<String> appArgs = new ArrayList<>(), inputFileNames = new ArrayList<>(),
+                outputFileNames = new ArrayList<>(), appendFileNames = new ArrayList<>();
+        String appName = Eval.patternMatcher("echo a >> log.txt", appArgs, inputFileNames, outputFileNames, appendFileNames);
+        assertEquals("echo", appName);
+        assertEquals(Arrays.asList("a"), appArgs);
+        assertTrue(outputFileNames.isEmpty());
+        assertEquals(Arrays.asList("log.txt"), appendFileNames);
+    }
+
 
     /////////////////////////
     //PATTERN MATCHER TESTS//
@@ -387,5 +451,244 @@ public class EvalTest {
         assertTrue(output.equals(expected));
     }
 
+    @Test
+    public void testPipePassesLeftOutputAsBytes() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        Command right = new Call("grep b", "", System.out);
+        Command pipe = new Pipe(new Call("echo a b", "", System.out), right, "", capture);
+        pipe.accept(new Eval());
+
+        assertEquals("a b " + System.getProperty("line.separator"), capture.toString());
+        // the piped bytes are only decoded when the input is asked for as text
+        assertEquals(right.getInputBytes().toString(), right.getInput());
+        right.setInput("text");
+        assertEquals(null, right.getInputBytes());
+    }
+
+    private static Command pipeline(OutputStream output, String... atomicCommands) {
+        Command command = new Call(atomicCommands[0], "", System.out);
+        for (int i = 1; i < atomicCommands.length; i++) {
+            command = new Pipe(command, new Call(atomicCommands[i], "", System.out), "", System.out);
+        }
+        command.setOutput(output);
+        return command;
+    }
+
+    private static String run(boolean fusion, String... atomicCommands) throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        Shell.setEnabled("fusion", fusion);
+        try {
+            pipeline(capture, atomicCommands).accept(new Eval());
+        } finally {
+            Shell.setEnabled("fusion", true);
+        }
+        return capture.toString();
+    }
+
+    @Test
+    public void testFusedPipelineMatchesUnfused() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            lines.append("line ").append(i % 7).append(",").append(i / 3).append("\n");
+        }
+        Files.writeString(Paths.get(testTxtPath), lines.toString());
+        String[][] pipelines = {
+                {"cat test.txt", "grep 3", "cut -d , -f 1", "uniq -c", "tail -n 4"},
+                {"cat test.txt", "grep 3", "head -n 5000", "uniq", "grep 5"},
+                {"cat test.txt", "cut -b 1-6", "uniq -d", "head -n 3"},
+                {"cat test.txt", "head -n 0", "tail -n 2"},
+        };
+        for (String[] commands : pipelines) {
+            assertEquals(run(false, commands), run(true, commands));
+        }
+    }
+
+    @Test
+    public void testFusedPipelineKeepsEmptyStdinError() throws IOException {
+        try {
+            run(true, "grep nothing test.txt", "grep a", "uniq");
+            fail("grep should fail on empty stdin");
+        } catch (RuntimeException e) {
+            assertEquals("grep: empty stdin", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testExplainShowsFusedRuns() {
+        ArrayList<Call> calls = new ArrayList<>();
+        for (String command : new String[]{"cat test.txt", "grep a", "uniq", "sort", "head -n 2", "cut -b 1 ", "`echo uniq`", "_grep b"}) {
+            calls.add(new Call(command, "", System.out));
+        }
+        assertEquals("cat test.txt | fused[grep a | uniq] | sort | fused[head -n 2 | cut -b 1] | `echo uniq` | _grep b",
+                Eval.explain(calls));
+    }
+
+    @Test
+    public void testParallelSeqKeepsOutputOrderAndDependencies() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        String[] atomicCommands = {"set -o parallel", "echo one > a.txt", "echo two > b.txt", "echo three", "cat a.txt b.txt", "echo four"};
+        Command command = new Call(atomicCommands[0], "", capture);
+        for (int i = 1; i < atomicCommands.length; i++) {
+            command = new Seq(command, new Call(atomicCommands[i], "", capture), "", capture);
+        }
+        try {
+            command.accept(new Eval());
+        } finally {
+            Shell.setEnabled("parallel", false);
+        }
+        String s = System.getProperty("line.separator");
+        assertEquals("three " + s + "one " + s + "two " + s + "four " + s, capture.toString());
+    }
 
+    @Test
+    public void testParallelSeqThrowsFirstError() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        Shell.setEnabled("parallel", true);
+        try {
+            new Seq(new Seq(new Call("echo a", "", capture), new Call("cat missing.txt", "", capture), "", capture),
+                    new Call("echo b", "", capture), "", capture).accept(new Eval());
+            fail("cat should fail on a missing file");
+        } catch (RuntimeException e) {
+            assertEquals("cat: file does not exist", e.getMessage());
+        } finally {
+            Shell.setEnabled("parallel", false);
+        }
+        assertEquals("a " + System.getProperty("line.separator"), capture.toString());
+    }
+
+    @Test
+    public void testParallelSeqDoesNotWriteAfterFailedCommand() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        Shell.setEnabled("parallel", true);
+        try {
+            new Seq(new Seq(new Call("cat missing.txt", "", capture), new Call("echo x > o2.txt", "", capture), "", capture),
+                    new Call("echo y > test.txt", "", capture), "", capture).accept(new Eval());
+            fail("cat should fail on a missing file");
+        } catch (RuntimeException e) {
+            assertEquals("cat: file does not exist", e.getMessage());
+        } finally {
+            Shell.setEnabled("parallel", false);
+        }
+        assertFalse(Files.exists(Paths.get(directoryPath, "o2.txt")));
+        assertEquals("foo", Files.readString(Paths.get(testTxtPath)));
+        try (Stream<Path> files = Files.list(Paths.get(directoryPath))) {
+            assertFalse(files.anyMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testParallelSeqRunsRedirectedCommandsAtTheSameTime() throws Exception {
+        //each grep reads a named pipe, and the pipes are written last to first, so in order the first grep never ends
+        Process mkfifo;
+        try {
+            mkfifo = new ProcessBuilder("mkfifo", "f1", "f2", "f3").directory(new File(directoryPath)).start();
+        } catch (IOException e) {
+            mkfifo = null;
+        }
+        Assume.assumeTrue(mkfifo != null && mkfifo.waitFor() == 0);
+        Thread feeder = new Thread(() -> {
+            for (String fifo : List.of("f3", "f2", "f1")) {
+                try (OutputStream out = Files.newOutputStream(Paths.get(directoryPath, fifo))) {
+                    out.write(("a b c " + fifo + System.getProperty("line.separator")).getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        feeder.setDaemon(true);
+        feeder.start();
+
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        Shell.setEnabled("parallel", true);
+        try {
+            new Seq(new Seq(new Call("grep a f1 > o1", "", capture), new Call("grep b f2 > o2", "", capture), "", capture),
+                    new Call("grep c f3 > o3", "", capture), "", capture).accept(new Eval());
+        } finally {
+            Shell.setEnabled("parallel", false);
+        }
+        feeder.join();
+        for (String n : List.of("1", "2", "3")) {
+            assertEquals("a b c f" + n + System.getProperty("line.separator"), Files.readString(Paths.get(directoryPath, "o" + n)));
+        }
+        assertEquals("", capture.toString());
+    }
+
+    @Test
+    public void testParallelSubstitutionsAreSubstitutedInOrder() throws IOException {
+        ArrayList<String> appArgs = new ArrayList<>(), inputFileNames = new ArrayList<>(), outputFileNames = new ArrayList<>();
+        //a substitution in the output of another runs once it is reached
+        Files.writeString(Paths.get(newTxtPath), "`echo y`");
+        Shell.setEnabled("parallel", true);
+        try {
+            String appName = Eval.patternMatcher("`echo appName` `cat test.txt` x `echo '< in'` `cat new.txt` `echo z`",
+                    appArgs, inputFileNames, outputFileNames);
+            assertEquals("appName", appName);
+        } finally {
+            Shell.setEnabled("parallel", false);
+        }
+        assertEquals(Arrays.asList("foo", "x", "y", "z"), appArgs);
+        assertEquals(Collections.singletonList("in"), inputFileNames);
+        assertTrue(outputFileNames.isEmpty());
+    }
+
+    @Test
+    public void testParallelSubstitutionThrowsFirstError() throws IOException {
+        Shell.setEnabled("parallel", true);
+        try {
+            Eval.patternMatcher("echo `echo a` `cat missing.txt` `cat test.txt`", new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+            fail("cat should fail on a missing file");
+        } catch (RuntimeException e) {
+            assertEquals("cat: file does not exist", e.getMessage());
+        } finally {
+            Shell.setEnabled("parallel", false);
+        }
+    }
+
+    @Test
+    public void testMemoizedSubstitutionRunsAgainOnlyWhenItsFileChanges() throws IOException {
+        Path file = Paths.get(testTxtPath);
+        FileTime modified = Files.getLastModifiedTime(file);
+        ArrayList<String> appArgs = new ArrayList<>();
+        Shell.setEnabled("memoize", true);
+        try {
+            Substitution.reset();
+            Eval.patternMatcher("echo `cat test.txt`", appArgs, new ArrayList<>(), new ArrayList<>());
+            //same size and modification time: the output kept is reused
+            Files.writeString(file, "bar");
+            Files.setLastModifiedTime(file, modified);
+            Eval.patternMatcher("echo `cat test.txt`", appArgs, new ArrayList<>(), new ArrayList<>());
+            Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+            Eval.patternMatcher("echo `cat test.txt`", appArgs, new ArrayList<>(), new ArrayList<>());
+        } finally {
+            Shell.setEnabled("memoize", false);
+            Substitution.reset();
+        }
+        assertEquals(Arrays.asList("foo", "foo", "bar"), appArgs);
+    }
+
+    @Test
+    public void testBackgroundJobOutputIsWrittenByWait() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        new Seq(new Seq(new Background(new Call("echo a", "", capture), "echo a", "", capture),
+                new Call("echo b", "", capture), "", capture),
+                new Call("wait", "", capture), "", capture).accept(new Eval());
+        String s = System.getProperty("line.separator");
+        assertEquals("b " + s + "a " + s, capture.toString());
+        assertTrue(JobTable.list().isEmpty());
+    }
+
+    @Test
+    public void testWaitThrowsErrorOfFailedJob() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        new Background(new Call("cat missing.txt", "", capture), "cat missing.txt", "", capture).accept(new Eval());
+        new Call("jobs", "", capture).accept(new Eval());
+        try {
+            new Call("wait 1", "", capture).accept(new Eval());
+            fail("wait should throw the error of the failed job");
+        } catch (RuntimeException e) {
+            assertEquals("wait: job 1: cat: file does not exist", e.getMessage());
+        }
+        assertTrue(capture.toString().startsWith("[1] "));
+        assertTrue(JobTable.list().isEmpty());
+    }
 }
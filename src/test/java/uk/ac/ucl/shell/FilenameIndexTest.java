@@ -0,0 +1,79 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class FilenameIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ArrayList<String> walk(FilenameIndex index, Path root) {
+        ArrayList<String> paths = new ArrayList<>();
+        index.walk(root, (path, depth, flags) -> {
+            paths.add(root.relativize(path) + ((flags & FilenameIndex.DIRECTORY) != 0 ? "/" : ""));
+            return true;
+        });
+        return paths;
+    }
+
+    @Test
+    public void testSavedIndexIsReusedWithoutListing() throws IOException {
+        Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("src/main/shell"));
+        Files.createFile(root.resolve("src/main/shell/Shell.java"));
+        Files.createFile(root.resolve("src/main/shell/Shell.class"));
+        Files.createFile(root.resolve("README.md"));
+
+        FilenameIndex index = FilenameIndex.open(root);
+        ArrayList<String> first = walk(index, root);
+        assertEquals(4, index.getRelisted());
+        index.save();
+
+        FilenameIndex reopened = FilenameIndex.open(root);
+        assertEquals(4, reopened.size());
+        ArrayList<String> second = walk(reopened, root);
+        // only the root changed, when .shellindex was created in it
+        assertEquals(1, reopened.getRelisted());
+        second.remove(".shellindex/");
+        assertEquals(first, second);
+        assertTrue(second.contains("src/main/shell/Shell.class"));
+    }
+
+    @Test
+    public void testRemovedDirectoriesAreDropped() throws IOException {
+        Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("a/b/c"));
+        Files.createDirectories(root.resolve("d"));
+
+        FilenameIndex index = FilenameIndex.open(root);
+        walk(index, root);
+        assertEquals(5, index.size());
+
+        Files.delete(root.resolve("a/b/c"));
+        Files.delete(root.resolve("a/b"));
+        Files.delete(root.resolve("a"));
+        walk(index, root);
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testLocateFindsEnclosingIndex() throws IOException {
+        Path root = folder.getRoot().toPath();
+        Path nested = Files.createDirectories(root.resolve("x/y"));
+        FilenameIndex index = FilenameIndex.open(root);
+        walk(index, root);
+        index.save();
+
+        assertEquals(root.toAbsolutePath().normalize(), FilenameIndex.locate(nested).getRoot());
+        assertTrue(FilenameIndex.locate(nested).covers(nested));
+    }
+}
@@ -0,0 +1,88 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LineBatchTest {
+
+    private static List<String> readBatches(ByteLineReader lines) throws IOException {
+        List<String> read = new ArrayList<>();
+        LineBatch batch = new LineBatch();
+        while (lines.next(batch)) {
+            assertTrue(batch.count() > 0 && batch.count() <= LineBatch.CAPACITY);
+            for (int i = 0; i < batch.count(); i++) {
+                read.add(new String(batch.buffer(), batch.start(i), batch.length(i), StandardCharsets.UTF_8));
+            }
+        }
+        return read;
+    }
+
+    @Test
+    public void testBatchesCoverEveryLineOfAStream() throws IOException {
+        StringBuilder input = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            String line = "line " + i + "x".repeat(i % 50);
+            expected.add(line);
+            input.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        input.append("last");
+        expected.add("last");
+        byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(expected, readBatches(new ByteLineReader(new ByteArrayInputStream(bytes))));
+        assertEquals(expected, readBatches(new ByteLineReader(ByteBuffer.wrap(bytes))));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        direct.flip();
+        assertEquals(expected, readBatches(new ByteLineReader(direct)));
+    }
+
+    @Test
+    public void testBatchOwnBuffer() {
+        LineBatch batch = new LineBatch(4);
+        batch.clear();
+        byte[] bytes = "abcdef".getBytes(StandardCharsets.UTF_8);
+        batch.append(bytes, 0, 2);
+        batch.append((byte) '-');
+        batch.append(bytes, 4, 2);
+        batch.endLine();
+        batch.endLine();
+        assertEquals(2, batch.count());
+        assertEquals(5, batch.length(0));
+        assertEquals("ab-ef", new String(batch.buffer(), batch.start(0), batch.length(0), StandardCharsets.UTF_8));
+        assertEquals(0, batch.length(1));
+    }
+
+    @Test
+    public void testWriteToSinkAndPlainWriter() throws IOException {
+        LineBatch batch = new LineBatch();
+        byte[] bytes = "one two".getBytes(StandardCharsets.UTF_8);
+        batch.reset(bytes);
+        batch.add(0, 3);
+        batch.add(4, 3);
+        String separator = System.getProperty("line.separator");
+        String expected = "f: one" + separator + "f: two" + separator;
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        OutputStreamWriter writer = new OutputStreamWriter(plain);
+        batch.writeTo(writer, "f: ");
+        writer.flush();
+        assertEquals(expected, plain.toString());
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        SinkWriter sinkWriter = new SinkWriter(sink);
+        batch.writeTo(sinkWriter, "f: ");
+        sinkWriter.flush();
+        assertEquals(expected, sink.toString());
+    }
+}
@@ -0,0 +1,79 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class LineIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String content) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve("lines.txt"), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLinesWithAndWithoutFinalNewline() throws IOException {
+        LineIndex index = LineIndex.build(write("one\r\ntwo\n\nfour"));
+        assertEquals(4, index.count());
+        assertEquals("one", index.line(0));
+        assertEquals("two", index.line(1));
+        assertEquals("", index.line(2));
+        assertEquals("four", index.line(3));
+
+        assertEquals(2, LineIndex.build(write("one\ntwo\n")).count());
+        assertEquals(0, LineIndex.build(write("")).count());
+    }
+
+    @Test
+    public void testSortedLinesCompareUnsignedBytes() throws IOException {
+        LineIndex index = LineIndex.build(write("b\n\u00e9\na\nab\na\n"));
+        int[] order = index.sortedLines(false);
+        StringBuilder sorted = new StringBuilder();
+        for (int line : order) {
+            sorted.append(index.line(line)).append(',');
+        }
+        assertEquals("a,a,ab,b,\u00e9,", sorted.toString());
+        // equal lines keep their original order
+        assertEquals(2, order[0]);
+        assertEquals(4, order[1]);
+        assertEquals(1, index.sortedLines(true)[0]);
+    }
+
+    @Test
+    public void testLastLines() throws IOException {
+        Path file = write("1\n2\n3\n4\n");
+        LineIndex last = LineIndex.lastLines(file, 2);
+        assertEquals(2, last.count());
+        assertEquals("3", last.line(0));
+        assertEquals("4", last.line(1));
+        assertEquals(4, LineIndex.lastLines(file, 10).count());
+        assertEquals(0, LineIndex.lastLines(file, 0).count());
+        assertEquals("x", LineIndex.lastLines(write("x"), 5).line(0));
+    }
+
+    @Test
+    public void testPersistedIndexIsRefreshedWhenFileChanges() throws IOException {
+        Path file = write("a\nb\n");
+        LineIndex.persist(file);
+        Path indexFile = LineIndex.indexFileOf(file);
+        assertTrue(Files.isRegularFile(indexFile));
+        assertEquals("b", LineIndex.open(file).line(1));
+
+        Files.write(file, "c\nd\ne\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        LineIndex refreshed = LineIndex.open(file);
+        assertEquals(3, refreshed.count());
+        assertEquals("e", refreshed.line(2));
+        assertEquals(3, LineIndex.open(file).count());
+    }
+}
@@ -0,0 +1,41 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongHashSetTest {
+
+    private static void checkAgainstHashSet(boolean offHeap) {
+        LongHashSet set = new LongHashSet(offHeap);
+        HashSet<Long> expected = new HashSet<>();
+        Random random = new Random(42);
+        // small range so that values repeat, and enough values to grow the table several times
+        for (int i = 0; i < 500_000; i++) {
+            long value = random.nextInt(300_000) - 1000;
+            assertEquals(expected.add(value), set.add(value));
+        }
+        assertEquals(expected.size(), set.size());
+    }
+
+    @Test
+    public void testOnHeapMatchesHashSet() {
+        checkAgainstHashSet(false);
+    }
+
+    @Test
+    public void testOffHeapMatchesHashSet() {
+        checkAgainstHashSet(true);
+    }
+
+    @Test
+    public void testZeroIsAValue() {
+        LongHashSet set = new LongHashSet(false);
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertEquals(1, set.size());
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.ucl.shell;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryBudgetTest {
+
+    @After
+    public void tearDown() {
+        MemoryBudget.setLimit(MemoryBudget.UNLIMITED);
+        MemoryBudget.close();
+    }
+
+    @Test
+    public void testChargesAddUpToLimit() {
+        MemoryBudget.setLimit(1000);
+        assertTrue(MemoryBudget.open());
+        assertFalse(MemoryBudget.open());
+        MemoryBudget.charge(600);
+        MemoryBudget.release(200);
+        MemoryBudget.charge(600);
+        assertEquals(1000, MemoryBudget.current().used());
+        try {
+            MemoryBudget.charge(1);
+            fail("charging past the limit should throw");
+        } catch (MemoryException e) {
+            assertEquals("memory: pipeline needs more than the limit of 0 kB (see ulimit)", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNothingIsChargedWithoutBudgetOrLimit() {
+        MemoryBudget.setLimit(10);
+        MemoryBudget.charge(100);
+        MemoryBudget.setLimit(MemoryBudget.UNLIMITED);
+        MemoryBudget.open();
+        MemoryBudget.charge(100);
+        assertEquals(0, MemoryBudget.current().used());
+    }
+
+    @Test
+    public void testTailOnlyChargesTheLinesItKeeps() throws IOException {
+        MemoryBudget.setLimit(64 * 1024);
+        MemoryBudget.open();
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        String text = "a line of text\n".repeat(10000);
+        new Tail().exec(new ArrayList<>(List.of("-n", "2")), text, new OutputStreamWriter(capture));
+        String s = System.getProperty("line.separator");
+        assertEquals("a line of text" + s + "a line of text" + s, capture.toString());
+        assertEquals(2 * (Sort.LINE_OVERHEAD + 14), MemoryBudget.current().used());
+    }
+
+    @Test
+    public void testPipelineOverLimitFailsAndClosesBudget() throws IOException {
+        MemoryBudget.setLimit(64 * 1024);
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        String text = "a line of text\n".repeat(10000);
+        Pipe pipe = new Pipe(new Call("cat", "", capture), new Call("sort", "", capture), text, capture);
+        try {
+            pipe.accept(new Eval());
+            fail("the pipeline should exceed the limit");
+        } catch (MemoryException e) {
+            assertTrue(e.getMessage().startsWith("memory: "));
+        }
+        assertNull(MemoryBudget.current());
+
+        MemoryBudget.setLimit(MemoryBudget.UNLIMITED);
+        new Pipe(new Call("echo b a", "", capture), new Call("cut -b 1", "", capture), "", capture).accept(new Eval());
+        assertEquals("b" + System.getProperty("line.separator"), capture.toString());
+    }
+}
@@ -0,0 +1,135 @@
+package uk.ac.ucl.shell;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class OptimizerTest {
+
+    static String directoryPath = "testDirectory";
+    static String oldDirectory = Shell.getCurrentDirectory();
+    static List<String> rules = List.of("rewrite-cat-grep", "rewrite-grep-grep", "rewrite-sort-uniq");
+
+    @Before
+    public void setUp() throws IOException {
+        Path directory = Files.createDirectory(Paths.get(directoryPath));
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            lines.append("line ").append(i % 13).append(i % 5 == 0 ? " end\r\n" : " end\n");
+        }
+        Files.writeString(directory.resolve("lines.txt"), lines.toString());
+        Files.writeString(directory.resolve("other.txt"), "line 1 end\n");
+        Files.writeString(directory.resolve("empty.txt"), "");
+        Shell.setCurrentDirectory(directory.toAbsolutePath().toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Shell.setCurrentDirectory(oldDirectory);
+        for (String rule : rules) {
+            Shell.setEnabled(rule, true);
+        }
+        try (var paths = Files.walk(Paths.get(directoryPath))) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Runs a command line with the rules switched on or off, returning its output or, if it fails, its error
+     */
+    private static String run(String cmdline, boolean optimize) {
+        for (String rule : rules) {
+            Shell.setEnabled(rule, optimize);
+        }
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        PrintStream oldOut = System.out;
+        System.setOut(new PrintStream(capture));
+        try {
+            Shell.eval(cmdline);
+        } catch (Exception e) {
+            System.out.print("error: " + e.getMessage());
+        } finally {
+            System.setOut(oldOut);
+        }
+        return capture.toString();
+    }
+
+    private static void assertEquivalent(String cmdline) {
+        assertEquals(cmdline, run(cmdline, false), run(cmdline, true));
+    }
+
+    @Test
+    public void testCatGrepIsEquivalent() {
+        assertEquivalent("cat lines.txt | grep 3");
+        assertEquivalent("cat lines.txt | grep 'x y'");
+        assertEquivalent("cat empty.txt | grep 3");
+        assertEquivalent("cat missing.txt | grep 3");
+        assertEquivalent("cat lines.txt | grep '('");
+        assertEquivalent("echo a | cat lines.txt | grep 1");
+    }
+
+    @Test
+    public void testGrepGrepIsEquivalent() {
+        assertEquivalent("cat lines.txt | grep 1 | grep end | grep '2|5'");
+        assertEquivalent("grep 1 lines.txt | grep 12");
+        assertEquivalent("grep 1 lines.txt other.txt | grep txt");
+        assertEquivalent("grep zzz lines.txt | grep 1");
+        assertEquivalent("grep 1 missing.txt | grep 1");
+        assertEquivalent("grep 1 lines.txt | grep zzz");
+        assertEquivalent("grep 1 lines.txt | grep '['");
+    }
+
+    @Test
+    public void testSortUniqIsEquivalent() {
+        assertEquivalent("cat lines.txt | sort | uniq");
+        assertEquivalent("sort lines.txt | uniq");
+        assertEquivalent("sort -r lines.txt | uniq");
+        assertEquivalent("cat lines.txt | sort -r | uniq");
+        assertEquivalent("sort empty.txt | uniq");
+        assertEquivalent("cat lines.txt | sort | uniq -c");
+    }
+
+    @Test
+    public void testRulesRewriteCalls() {
+        Command c = new Optimizer().optimize(new Pipe(new Pipe(new Call("cat lines.txt", "", System.out),
+                new Call("grep 'a b'", "", System.out), "", System.out), new Call("grep c", "", System.out), "", System.out));
+        assertEquals("grep 'a b' --and c lines.txt", ((Call) c).getAtomicCommand());
+
+        c = new Optimizer().optimize(new Pipe(new Call("sort -r lines.txt", "", System.out), new Call("uniq", "", System.out), "", System.out));
+        assertEquals("sort -u -r lines.txt", ((Call) c).getAtomicCommand());
+    }
+
+    @Test
+    public void testRulesAreSwitchedIndividually() {
+        Shell.setEnabled("rewrite-cat-grep", false);
+        Command pipe = new Pipe(new Pipe(new Call("cat lines.txt", "", System.out),
+                new Call("grep a", "", System.out), "", System.out), new Call("grep b", "", System.out), "", System.out);
+        Command c = new Optimizer().optimize(pipe);
+        assertEquals("grep a --and b", ((Call) ((Pipe) c).getRight()).getAtomicCommand());
+        assertEquals("cat lines.txt", ((Call) ((Pipe) c).getLeft()).getAtomicCommand());
+    }
+
+    @Test
+    public void testCallsThatMayChangeFilesStopCatGrep() {
+        Seq seq = new Seq(new Call("cd ..", "", System.out), new Pipe(new Call("cat lines.txt", "", System.out),
+                new Call("grep a", "", System.out), "", System.out), "", System.out);
+        assertEquals(seq, new Optimizer().optimize(seq));
+
+        Pipe pipe = new Pipe(new Call("cat `echo lines.txt`", "", System.out), new Call("grep a", "", System.out), "", System.out);
+        assertEquals(pipe, new Optimizer().optimize(pipe));
+        assertNotEquals(pipe, new Optimizer().optimize(new Pipe(new Call("cat lines.txt", "", System.out),
+                new Call("grep a", "", System.out), "", System.out)));
+    }
+}
@@ -25,4 +25,37 @@ public class ParserTest {
                 + "word3 " + System.getProperty("line.separator");
         assertTrue(output.equals(expected));
     }
+
+    @Test
+    public void testShellEvalBackground() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        PrintStream newOut = new PrintStream(capture);
+        PrintStream oldOut = System.out;
+        System.setOut(newOut);
+
+        Shell.eval("echo word1 & echo word2 | grep w; wait");
+
+        System.setOut(oldOut);
+        String output = capture.toString();
+        String expected = "word2 " + System.getProperty("line.separator")
+                + "word1 " + System.getProperty("line.separator");
+        assertTrue(output.equals(expected));
+    }
+
+    @Test
+    public void testShellEvalBackgroundFollowedBySpace() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        PrintStream newOut = new PrintStream(capture);
+        PrintStream oldOut = System.out;
+        System.setOut(newOut);
+
+        Shell.eval("echo word1 & ; echo word2 & ");
+        Shell.eval("wait");
+
+        System.setOut(oldOut);
+        String output = capture.toString();
+        String expected = "word1 " + System.getProperty("line.separator")
+                + "word2 " + System.getProperty("line.separator");
+        assertTrue(output.equals(expected));
+    }
 }
@@ -0,0 +1,70 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ArrayList<Path> createFiles(int count, int size) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] content = new byte[size];
+            Arrays.fill(content, (byte) ('a' + i % 26));
+            files.add(Files.write(folder.getRoot().toPath().resolve("file" + i), content));
+        }
+        return files;
+    }
+
+    @Test
+    public void testFilesAreDeliveredInOrder() throws IOException {
+        ArrayList<Path> files = createFiles(50, 10);
+        try (ReadAhead readAhead = new ReadAhead(files, 4, 1000)) {
+            for (Path file : files) {
+                byte[] content = readAhead.next();
+                // the first file is left to the caller, every later one is read ahead
+                if (content != null) {
+                    assertArrayEquals(Files.readAllBytes(file), content);
+                } else {
+                    assertEquals(files.get(0), file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFilesOverBudgetAreLeftToCaller() throws IOException {
+        ArrayList<Path> files = createFiles(3, 100);
+        files.add(1, null);
+        files.add(Files.write(folder.getRoot().toPath().resolve("small"), "xy".getBytes(StandardCharsets.UTF_8)));
+        try (ReadAhead readAhead = new ReadAhead(files, 4, 50)) {
+            assertNull(readAhead.next());
+            assertNull(readAhead.next());
+            assertNull(readAhead.next());
+            assertNull(readAhead.next());
+            assertArrayEquals("xy".getBytes(StandardCharsets.UTF_8), readAhead.next());
+        }
+    }
+
+    @Test
+    public void testMissingFilesAreLeftToCaller() throws IOException {
+        ArrayList<Path> files = createFiles(1, 1);
+        files.add(folder.getRoot().toPath().resolve("missing"));
+        try (ReadAhead readAhead = new ReadAhead(files)) {
+            assertNull(readAhead.next());
+            assertNull(readAhead.next());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.ucl.shell;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrigramIndexTest {
+
+    private static int trigram(String s) {
+        return s.charAt(0) << 16 | s.charAt(1) << 8 | s.charAt(2);
+    }
+
+    @Test
+    public void testRequiredTrigramsLiteral() {
+        int[] trigrams = TrigramIndex.requiredTrigrams("abcd");
+        assertArrayEquals(new int[]{trigram("abc"), trigram("bcd")}, trigrams);
+    }
+
+    @Test
+    public void testRequiredTrigramsSplitByMetacharacters() {
+        int[] trigrams = TrigramIndex.requiredTrigrams("abc.*xyz");
+        assertArrayEquals(new int[]{trigram("abc"), trigram("xyz")}, trigrams);
+    }
+
+    @Test
+    public void testRequiredTrigramsOptionalCharacterDropped() {
+        // 'd' is optional, so only "abc" is required
+        assertArrayEquals(new int[]{trigram("abc")}, TrigramIndex.requiredTrigrams("abcd?"));
+    }
+
+    @Test
+    public void testRequiredTrigramsOptionalGroupDropped() {
+        assertArrayEquals(new int[]{trigram("xyz")}, TrigramIndex.requiredTrigrams("(?:abc)?xyz"));
+    }
+
+    @Test
+    public void testRequiredTrigramsEscapedPunctuationIsLiteral() {
+        assertArrayEquals(new int[]{trigram("a.b")}, TrigramIndex.requiredTrigrams("a\\.b"));
+    }
+
+    @Test
+    public void testRequiredTrigramsBackReferenceSkipsFollowingDigits() {
+        // whether "234" belongs to the back-reference depends on the number of groups, so it is not required
+        assertArrayEquals(new int[]{trigram("abc")}, TrigramIndex.requiredTrigrams("(abc)\\1234"));
+    }
+
+    @Test
+    public void testRequiredTrigramsUnusablePatterns() {
+        assertNull(TrigramIndex.requiredTrigrams("abc|def"));
+        assertNull(TrigramIndex.requiredTrigrams("(?i)abc"));
+        assertNull(TrigramIndex.requiredTrigrams("\\Qabc\\E"));
+        assertNull(TrigramIndex.requiredTrigrams("a.b"));
+        assertNull(TrigramIndex.requiredTrigrams("[abc]+\\d"));
+        for (String escape : new String[]{"\\x41", "\\x{41}", "\\u0041", "\\0101", "\\cA", "\\k<name>", "\\p{Lu}",
+                "\\pL", "\\P{Ll}", "\\N{LATIN CAPITAL LETTER A}"}) {
+            assertNull(escape, TrigramIndex.requiredTrigrams(escape + "bcdef"));
+        }
+    }
+}